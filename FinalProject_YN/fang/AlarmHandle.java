@@ -0,0 +1,132 @@
+package fang;
+
+/**
+ * A reference to one scheduled alarm.  Handles
+ * are returned by the scheduling methods of the
+ * AlarmScheduler and can be used to cancel that
+ * particular alarm without walking all of the
+ * pending alarms.  A repeating alarm keeps the
+ * same handle for its whole lifetime, so the
+ * handle can be used to stop it at any time.
+ * @author Jam Jenkins
+ */
+public class AlarmHandle
+    implements Comparable<AlarmHandle>
+{
+    /**the object to call the alarm method on*/
+    final Alarm alarm;
+
+    /**the scheduler holding this handle, used
+     * for keeping count of cancelled handles*/
+    private final FrameAdvancer scheduler;
+
+    /**the absolute time (including the time
+     * offset) at which the alarm goes off next*/
+    double time;
+
+    /**the order in which this handle was queued,
+     * used to break ties between alarms going off
+     * at the same time*/
+    long sequence;
+
+    /**the time in seconds between repeats, or
+     * zero if the alarm only goes off once*/
+    final double period;
+
+    /**how many more times the alarm will go off,
+     * or a negative number to repeat until cancelled*/
+    int remaining;
+
+    /**true once the alarm has been cancelled or
+     * has gone off for the last time*/
+    boolean done=false;
+
+    /**makes a handle for an alarm
+     * @param scheduler the scheduler which queues the handle
+     * @param alarm the class to call the alarm method on
+     * @param time the absolute time to go off first
+     * @param period the time between repeats, zero for none
+     * @param count how many times to go off, or a negative
+     * number to repeat until cancelled
+     */
+    AlarmHandle(FrameAdvancer scheduler, Alarm alarm,
+            double time, double period, int count)
+    {
+        this.scheduler=scheduler;
+        this.alarm=alarm;
+        this.time=time;
+        this.period=period;
+        this.remaining=count;
+    }
+
+    /**
+     * cancels this alarm.  If it is a repeating
+     * alarm, it will not go off again.  Cancelling
+     * an alarm which has already gone off or has
+     * already been cancelled is ignored.  This
+     * takes constant time.
+     */
+    public void cancel()
+    {
+        if(done)
+            return;
+        done=true;
+        scheduler.alarmCancelled();
+    }
+
+    /**determines if the alarm will still go off
+     * @return true if the alarm is still scheduled,
+     * false if it has been cancelled or has gone off
+     * for the last time
+     */
+    public boolean isPending()
+    {
+        return !done;
+    }
+
+    /**gets the object the alarm method is called on
+     * @return the alarm
+     */
+    public Alarm getAlarm()
+    {
+        return alarm;
+    }
+
+    /**gets the time at which the alarm goes off next.
+     * The time is relative to the beginning of the game,
+     * the same as FrameAdvancer.getTime.
+     * @return the time in seconds
+     */
+    public double getTime()
+    {
+        return scheduler.toGameTime(time);
+    }
+
+    /**gets the time between repeats
+     * @return the period in seconds, or zero for
+     * alarms which only go off once
+     */
+    public double getPeriod()
+    {
+        return period;
+    }
+
+    /**orders the handles by the time they go off,
+     * then by the order in which they were queued
+     * @param other the handle to compare to
+     * @return negative if this goes off first, positive
+     * if the other goes off first
+     */
+    public int compareTo(AlarmHandle other)
+    {
+        if(time<other.time)
+            return -1;
+        if(time>other.time)
+            return 1;
+        if(sequence<other.sequence)
+            return -1;
+        if(sequence>other.sequence)
+            return 1;
+        return 0;
+    }
+}
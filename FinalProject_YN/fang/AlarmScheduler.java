@@ -19,8 +19,9 @@ public interface AlarmScheduler
      *            the class to call the alarm method on
      * @param relative
      *            the time from now in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
      */
-    public void scheduleRelative(Alarm alarm, double relative);
+    public AlarmHandle scheduleRelative(Alarm alarm, double relative);
 
     /**
      * sets and alarm to go off at a time relative to the beginning of time
@@ -31,9 +32,28 @@ public interface AlarmScheduler
      *            the class to call the alarm method on
      * @param absolute
      *            the time in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
      */
-    public void scheduleAbsolute(Alarm alarm, double absolute);
+    public AlarmHandle scheduleAbsolute(Alarm alarm, double absolute);
+
+    /**
+     * sets an alarm to go off repeatedly, starting one period
+     * from the current time.  The same handle is used for
+     * every repeat, so the alarm can be stopped at any time
+     * by cancelling the returned handle.
+     * 
+     * @param alarm
+     *            the class to call the alarm method on
+     * @param period
+     *            the time in seconds between repeats, must be positive
+     * @param count
+     *            how many times to call the alarm method, or zero
+     *            or less to repeat until cancelled
+     * @return the handle which can be used to cancel this alarm
+     */
+    public AlarmHandle scheduleRepeating(Alarm alarm, double period, int count);
     
+
     /**
      * removes all pending alarms on this object. If there are no alarms with
      * this object as the target, the method call is ignored.
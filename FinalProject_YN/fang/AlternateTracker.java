@@ -16,7 +16,7 @@ import java.awt.geom.Point2D;
  * @author Jam Jenkins
  */
 public abstract class AlternateTracker 
-	extends TrackerAdapter
+	extends TrackerAdapter implements PrimitiveTracker
 {
 	/**the absolute rotation in radians*/
 	private double rotation;
@@ -84,6 +84,24 @@ public abstract class AlternateTracker
 	{
 		return translation;
 	}
+
+	/**
+	 * gets the horizontal part of getTranslation
+	 * @return the amount to move horizontally
+	 */
+	public final double getTranslationX()
+	{
+		return translation.x;
+	}
+
+	/**
+	 * gets the vertical part of getTranslation
+	 * @return the amount to move vertically
+	 */
+	public final double getTranslationY()
+	{
+		return translation.y;
+	}
 	
 	/**
 	 * sets the next rotation.  Calling this
@@ -14,10 +14,11 @@ import java.awt.Toolkit;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.TreeMap;
 
 import javax.swing.JComponent;
@@ -87,6 +88,18 @@ public class AnimationCanvas
     
     /** width/height aspect ratio */
     private double aspect=1;
+
+    /** whether sprites are drawn between their last
+     * two model states */
+    private boolean interpolating=false;
+
+    /** how far between the last two model states to
+     * draw the sprites, from zero to one */
+    private double interpolation=1;
+
+    /** whether independent trackers and their sprites
+     * are updated on several threads */
+    private boolean parallel=false;
     
     /** constructs an empty canvas with the default size*/
     public AnimationCanvas()
@@ -516,7 +529,43 @@ public class AnimationCanvas
     }
 
     /**
-     * updates the cached array and removes all destoyed Sprites
+     * adds every Sprite to a list in the order they
+     * are drawn, without making a new array
+     * @param into the list to add the Sprites to
+     */
+    void collectSprites(List<Sprite> into)
+    {
+        for(LinkedHashSet<Sprite> group: sprites.values())
+            into.addAll(group);
+    }
+
+    /**
+     * keeps where every Sprite is before it is moved,
+     * so that the Sprites can be drawn part of the way
+     * between model steps.  Does nothing unless
+     * interpolating.
+     */
+    void rememberTransforms()
+    {
+        if(interpolating)
+        {
+            for(LinkedHashSet<Sprite> group: sprites.values())
+                for(Sprite sprite: group)
+                    sprite.rememberTransform();
+        }
+    }
+
+    /**
+     * updates the cached array and removes all destoyed Sprites,
+     * then advances the trackers and updates the Sprites.
+     * Trackers are advanced in the order their Sprites
+     * are drawn, so the results are the same on every
+     * computer.  Grouped trackers are advanced by calling
+     * advanceGroup once for each of their groups, and
+     * CompositeTrackers combine the movement of their
+     * trackers after those have been advanced.  In parallel mode,
+     * independent trackers and the Sprites they move
+     * are updated on several threads.
      */
     public void updateSprites(double timeInterval)
     {
@@ -543,50 +592,80 @@ public class AnimationCanvas
         }
     	for(Double keys: keysToRemove)
     		sprites.remove(keys);
-        HashSet<Tracker> toUpdate=new HashSet<Tracker>();
+        rememberTransforms();
+        LinkedHashSet<Tracker> toUpdate=new LinkedHashSet<Tracker>();
+        LinkedHashSet<TrackerGroup> groups=new LinkedHashSet<TrackerGroup>();
+        LinkedHashSet<CompositeTracker> composites=
+            new LinkedHashSet<CompositeTracker>();
         for(LinkedHashSet<Sprite> group: sprites.values())
     	{
     		for(Sprite sprite: group)
     		{
-    			if(sprite.isEnabled() && sprite.getTracker()!=null)
+    			Tracker tracker=sprite.getTracker();
+    			if(sprite.isEnabled() && tracker!=null)
     			{
-    				if(sprite.getTracker() instanceof CompositeTracker)
-    					toUpdate.addAll((getAllTrackers((CompositeTracker)sprite.getTracker())));
+    				if(tracker instanceof GroupedTracker)
+    					groups.add(((GroupedTracker)tracker).getGroup());
+    				else if(tracker instanceof CompositeTracker)
+    				{
+    					CompositeTracker composite=(CompositeTracker)tracker;
+    					composites.add(composite);
+    					for(Tracker leaf: composite.getLeaves())
+    						toUpdate.add(leaf);
+    				}
     				else
-    					toUpdate.add(sprite.getTracker());
+    					toUpdate.add(tracker);
     			}
     		}
         }
+        ArrayList<Tracker> independent=new ArrayList<Tracker>();
         for(Tracker tracker: toUpdate)
-            tracker.advanceTime(timeInterval);
-        for(LinkedHashSet<Sprite> group: sprites.values())
-    	{
-    		for(Sprite sprite: group)
-    		{
-    			sprite.update();
-    		}
-    	}
-    }
-    
-    /**recursively gets all the base trackers 
-     * within the composite
-     * @param composite the container for other trackers
-     * @return all the non-composite trackers contained
-     * in the composite tracker
-     */
-    private HashSet<Tracker> getAllTrackers(CompositeTracker composite)
-    {
-        HashSet<Tracker> all=new HashSet<Tracker>();
-        for(Tracker tracker: composite.getAllTrackers())
         {
-            if(tracker instanceof CompositeTracker)
-                all.addAll(getAllTrackers((CompositeTracker)tracker));
+            if(tracker instanceof GroupedTracker)
+                groups.add(((GroupedTracker)tracker).getGroup());
+            else if(parallel && ParallelUpdate.isIndependent(tracker))
+                independent.add(tracker);
             else
-                all.add(tracker);
+                tracker.advanceTime(timeInterval);
         }
-        return all;
+        if(parallel)
+            ParallelUpdate.advance(independent, timeInterval);
+        for(TrackerGroup group: groups)
+            group.advanceGroup(timeInterval);
+        for(CompositeTracker composite: composites)
+            composite.advanceTime(timeInterval);
+        if(!parallel)
+        {
+            for(LinkedHashSet<Sprite> group: sprites.values())
+            {
+                for(Sprite sprite: group)
+                {
+                    sprite.update();
+                }
+            }
+            return;
+        }
+        //Sprites which may touch other Sprites are updated
+        //one at a time in their usual order, and the runs of
+        //independent Sprites between them are updated in parallel
+        ArrayList<Sprite> run=new ArrayList<Sprite>();
+        for(LinkedHashSet<Sprite> group: sprites.values())
+        {
+            for(Sprite sprite: group)
+            {
+                if(ParallelUpdate.canUpdateInParallel(sprite))
+                    run.add(sprite);
+                else
+                {
+                    ParallelUpdate.update(run);
+                    run.clear();
+                    sprite.update();
+                }
+            }
+        }
+        ParallelUpdate.update(run);
     }
-
+    
     /**
      * paints all of the Sprites
      * 
@@ -651,7 +730,10 @@ public class AnimationCanvas
     	{
     		for(Sprite sprite: group)
     		{
-    			sprite.paintInternal(brush);
+    			if(interpolating)
+    				sprite.paintInterpolated(brush, interpolation);
+    			else
+    				sprite.paintInternal(brush);
     		}
     	}
         waterMark[0].paintInternal(brush);
@@ -674,6 +756,69 @@ public class AnimationCanvas
         addSprite(key, sprite);
     }	
     
+    /**sets whether the sprites are drawn between
+     * their last two model states.  This is used when
+     * the model advances at a fixed rate which differs
+     * from the rate at which the screen is refreshed.
+     * @param interpolating true to draw the sprites
+     * in between model states, false to draw them
+     * exactly as they are in the model
+     */
+    public void setInterpolating(boolean interpolating)
+    {
+        this.interpolating=interpolating;
+        interpolation=1;
+    }
+
+    /**determines if sprites are drawn between
+     * their last two model states
+     * @return true if sprites are drawn in between
+     * model states, false otherwise
+     */
+    public boolean isInterpolating()
+    {
+        return interpolating;
+    }
+
+    /**sets how far between the last two model
+     * states the sprites are drawn.  This has no
+     * effect unless interpolating is turned on.
+     * @param alpha zero draws the sprites as they
+     * were before the last model step, one draws
+     * them as they are now
+     */
+    public void setInterpolation(double alpha)
+    {
+        interpolation=Math.max(0, Math.min(1, alpha));
+    }
+
+    /**sets whether independent trackers, and the
+     * Sprites moved by them, are updated on several
+     * threads at once.  This only helps with large
+     * numbers of Sprites.  Trackers which are not
+     * IndependentTrackers, or which override its
+     * methods without saying they are independent
+     * themselves, and Sprites which override
+     * update or the methods it calls, are still updated
+     * one at a time in the usual order, and the result
+     * is exactly the same as without parallel updates.
+     * @param parallel true to update in parallel,
+     * false to update one at a time
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel=parallel;
+    }
+
+    /**determines if the Sprites are updated in parallel
+     * @return true if independent trackers are advanced
+     * on several threads, false otherwise
+     */
+    public boolean isParallel()
+    {
+        return parallel;
+    }
+
     /**gets the aspect ratio of width to height
      * @return the aspect ratio width/height
      */
@@ -0,0 +1,234 @@
+package fang;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * A piece of work running off of the model thread.
+ * AsyncTasks are returned by submitAsync and can be
+ * used to cancel the work or to find out how long
+ * it took.  When the work finishes, the task is
+ * placed in the alarm queue for the start of the
+ * next model step, and its alarm method passes the
+ * result to the ResultConsumer on the model thread.
+ * Because the work finishes at different times on
+ * different computers, results should only be used
+ * for things which do not need to be identical for
+ * every player, or be sent to the other players as
+ * a message.
+ * @author Jam Jenkins
+ */
+public class AsyncTask<T>
+    implements Alarm, Runnable
+{
+    /**the work to do*/
+    private final Callable<T> work;
+
+    /**what receives the result*/
+    private final ResultConsumer<T> consumer;
+
+    /**the engine which delivers the result*/
+    private final FrameAdvancer scheduler;
+
+    /**the work as queued in the executor*/
+    private Future<?> future;
+
+    /**the alarm delivering the result, once finished*/
+    private AlarmHandle delivery;
+
+    /**the value computed by the work*/
+    private T result;
+
+    /**what the work threw, if anything*/
+    private Exception failure;
+
+    /**true once the task is cancelled*/
+    private volatile boolean cancelled=false;
+
+    /**true once the result has been passed on*/
+    private boolean delivered=false;
+
+    /**System.nanoTime when the task was submitted*/
+    private final long submittedAt;
+
+    /**System.nanoTime when the work started, or zero*/
+    private volatile long startedAt=0;
+
+    /**System.nanoTime when the work ended, or zero*/
+    private volatile long finishedAt=0;
+
+    /**System.nanoTime when the result was delivered, or zero*/
+    private long deliveredAt=0;
+
+    /**makes a task which has not yet been submitted
+     * @param scheduler the engine which delivers the result
+     * @param work the work to do
+     * @param consumer what receives the result
+     */
+    AsyncTask(FrameAdvancer scheduler, Callable<T> work,
+            ResultConsumer<T> consumer)
+    {
+        if(work==null || consumer==null)
+            throw new NullPointerException(
+                    "AsyncTask needs both work and a consumer");
+        this.scheduler=scheduler;
+        this.work=work;
+        this.consumer=consumer;
+        submittedAt=System.nanoTime();
+    }
+
+    /**remembers how the work was queued so that
+     * cancelling can interrupt it
+     * @param future the queued work
+     */
+    void setFuture(Future<?> future)
+    {
+        this.future=future;
+    }
+
+    /**records that the work could not be run
+     * @param cause why the work was not run
+     */
+    void rejected(Exception cause)
+    {
+        failure=cause;
+        finishedAt=System.nanoTime();
+    }
+
+    /**sets when the result is delivered
+     * @param delivery the alarm delivering the result
+     */
+    void setDelivery(AlarmHandle delivery)
+    {
+        this.delivery=delivery;
+    }
+
+    /**does the work.  This is called by the executor
+     * on a worker thread and should not be called directly.
+     */
+    public void run()
+    {
+        if(cancelled)
+            return;
+        startedAt=System.nanoTime();
+        try
+        {
+            result=work.call();
+        }
+        catch(Exception e)
+        {
+            failure=e;
+        }
+        finishedAt=System.nanoTime();
+        if(!cancelled)
+            scheduler.asyncFinished(this);
+    }
+
+    /**passes the result on to the consumer.  This is
+     * called through the alarm queue on the model thread
+     * and should not be called directly.
+     */
+    public void alarm()
+    {
+        if(cancelled || delivered)
+            return;
+        delivered=true;
+        deliveredAt=System.nanoTime();
+        scheduler.asyncDone(this);
+        if(failure==null)
+            consumer.resultReady(result);
+        else
+            consumer.taskFailed(failure);
+    }
+
+    /**
+     * cancels the task.  Work which has not started
+     * will not be run, work which is running is
+     * interrupted, and the consumer is not called.
+     * @return true if the task was cancelled, false if
+     * the result was already delivered or the task
+     * was already cancelled
+     */
+    public boolean cancel()
+    {
+        if(cancelled || delivered)
+            return false;
+        cancelled=true;
+        if(future!=null)
+            future.cancel(true);
+        if(delivery!=null)
+            delivery.cancel();
+        scheduler.asyncDone(this);
+        return true;
+    }
+
+    /**determines if the task has been cancelled
+     * @return true if cancelled, false otherwise
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**determines if the result has been passed
+     * on to the consumer
+     * @return true if delivered, false otherwise
+     */
+    public boolean isDelivered()
+    {
+        return delivered;
+    }
+
+    /**gets how long the work waited for a free
+     * worker thread
+     * @return the time in seconds, or -1 if the
+     * work has not started
+     */
+    public double getQueueTime()
+    {
+        return span(submittedAt, startedAt);
+    }
+
+    /**gets how long the work took to run
+     * @return the time in seconds, or -1 if the
+     * work has not finished
+     */
+    public double getRunTime()
+    {
+        return span(startedAt, finishedAt);
+    }
+
+    /**gets how long the finished result waited
+     * for the next model step
+     * @return the time in seconds, or -1 if the
+     * result has not been delivered
+     */
+    public double getDeliveryTime()
+    {
+        return span(finishedAt, deliveredAt);
+    }
+
+    /**gets the time from submitting the work to
+     * delivering the result
+     * @return the time in seconds, or -1 if the
+     * result has not been delivered
+     */
+    public double getTotalTime()
+    {
+        return span(submittedAt, deliveredAt);
+    }
+
+    /**converts the time between two readings of
+     * System.nanoTime into seconds
+     * @param from the earlier reading
+     * @param to the later reading, or zero if not yet taken
+     * @return the time in seconds, or -1 if either
+     * reading has not been taken
+     */
+    private static double span(long from, long to)
+    {
+        if(from==0 || to==0)
+            return -1;
+        return (to-from)/1e9;
+    }
+}
@@ -0,0 +1,84 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * A path made of cubic Bezier curves joined end
+ * to end.  The first point is the start, and each
+ * segment adds two control points which the curve
+ * bends toward followed by the point where the
+ * segment ends, so there are always three times the
+ * number of segments plus one points.  The path is
+ * closed if its last point is the same as its first.
+ * @author Jam Jenkins
+ */
+public class BezierPath extends CurvePath
+{
+    /**
+     * makes a path from control points
+     * @param points the start followed by three points
+     * for each segment, x then y for each
+     */
+    public BezierPath(double ... points)
+    {
+        super(points);
+        if(points.length<8 || (points.length/2-1)%3!=0)
+            throw new IllegalArgumentException(
+                    "BezierPath needs 3 points per segment plus a start point");
+    }
+
+    /**gets the number of curved segments
+     * @return the number of segments
+     */
+    public int getSegmentCount()
+    {
+        return (getPointCount()-1)/3;
+    }
+
+    /**determines if the end of the path joins its start
+     * @return true if the last point is the first point
+     */
+    public boolean isClosed()
+    {
+        int last=points.length-2;
+        return points[0]==points[last] && points[1]==points[last+1];
+    }
+
+    /**
+     * finds a point on one segment
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the point
+     */
+    protected void evaluate(int segment, double t, Point2D.Double result)
+    {
+        int i=6*segment;
+        double u=1-t;
+        double a=u*u*u;
+        double b=3*u*u*t;
+        double c=3*u*t*t;
+        double d=t*t*t;
+        result.x=a*points[i]+b*points[i+2]+c*points[i+4]+d*points[i+6];
+        result.y=a*points[i+1]+b*points[i+3]+c*points[i+5]+d*points[i+7];
+    }
+
+    /**
+     * finds the direction and rate of change of
+     * a segment at a point
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the derivative
+     */
+    protected void derivative(int segment, double t, Point2D.Double result)
+    {
+        int i=6*segment;
+        double u=1-t;
+        double a=3*u*u;
+        double b=6*u*t;
+        double c=3*t*t;
+        result.x=a*(points[i+2]-points[i])+b*(points[i+4]-points[i+2])+
+            c*(points[i+6]-points[i+4]);
+        result.y=a*(points[i+3]-points[i+1])+b*(points[i+5]-points[i+3])+
+            c*(points[i+7]-points[i+5]);
+    }
+}
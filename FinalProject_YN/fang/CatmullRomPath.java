@@ -0,0 +1,107 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * A smooth path which passes through every one of
+ * its control points.  This is the easiest curve
+ * to use for an enemy's route: list the places the
+ * enemy should go and the path curves smoothly
+ * between them.
+ * @author Jam Jenkins
+ */
+public class CatmullRomPath extends CurvePath
+{
+    /**whether the path returns to its first point*/
+    private final boolean closed;
+
+    /**
+     * makes a path through the points
+     * @param closed true to curve from the last point
+     * back to the first, false to stop at the last point
+     * @param points the points to pass through, x then
+     * y for each, at least two points
+     */
+    public CatmullRomPath(boolean closed, double ... points)
+    {
+        super(points);
+        if(points.length<4)
+            throw new IllegalArgumentException(
+                    "CatmullRomPath needs at least two points");
+        this.closed=closed;
+    }
+
+    /**gets the number of curved segments
+     * @return one less than the number of points,
+     * or the number of points if closed
+     */
+    public int getSegmentCount()
+    {
+        return closed ? getPointCount() : getPointCount()-1;
+    }
+
+    /**determines if the end of the path joins its start
+     * @return true if the path is a closed loop
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**gets a coordinate of a control point, wrapping
+     * around for closed paths and repeating the end
+     * points for open ones
+     * @param index which control point
+     * @param coordinate zero for x, one for y
+     * @return the coordinate
+     */
+    private double get(int index, int coordinate)
+    {
+        int count=getPointCount();
+        if(closed)
+            index=((index%count)+count)%count;
+        else
+            index=Math.max(0, Math.min(count-1, index));
+        return points[2*index+coordinate];
+    }
+
+    /**
+     * finds a point on one segment
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the point
+     */
+    protected void evaluate(int segment, double t, Point2D.Double result)
+    {
+        double t2=t*t;
+        double t3=t2*t;
+        double a=-0.5*t3+t2-0.5*t;
+        double b=1.5*t3-2.5*t2+1;
+        double c=-1.5*t3+2*t2+0.5*t;
+        double d=0.5*t3-0.5*t2;
+        result.x=a*get(segment-1, 0)+b*get(segment, 0)+
+            c*get(segment+1, 0)+d*get(segment+2, 0);
+        result.y=a*get(segment-1, 1)+b*get(segment, 1)+
+            c*get(segment+1, 1)+d*get(segment+2, 1);
+    }
+
+    /**
+     * finds the direction and rate of change of
+     * a segment at a point
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the derivative
+     */
+    protected void derivative(int segment, double t, Point2D.Double result)
+    {
+        double t2=t*t;
+        double a=-1.5*t2+2*t-0.5;
+        double b=4.5*t2-5*t;
+        double c=-4.5*t2+4*t+0.5;
+        double d=1.5*t2-t;
+        result.x=a*get(segment-1, 0)+b*get(segment, 0)+
+            c*get(segment+1, 0)+d*get(segment+2, 0);
+        result.y=a*get(segment-1, 1)+b*get(segment, 1)+
+            c*get(segment+1, 1)+d*get(segment+2, 1);
+    }
+}
@@ -9,9 +9,12 @@ package fang;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -105,6 +108,21 @@ public class Client implements Observer
      * keyboard and mouse arrays and the current time.
      */
     private ObjectOutputStream out;
+
+    /**
+     * the connection to an NioServer when speaking
+     * the binary WireProtocol, in which case in and
+     * out are not used
+     */
+    private ClientLink link;
+
+    /** writes the frames sent over the link */
+    private WireProtocol.Writer writer;
+
+    /** the input received in the most recent updates
+     * over the link, indexed by sequence number modulo
+     * HISTORY */
+    private InputSnapshot[] history;
     
     /** the timer used to poll for new server information*/
     private Timer readTimer;
@@ -149,7 +167,9 @@ public class Client implements Observer
      * @param machine
      *            the domain of the server
      * @param game the name of the game
-     * @param session the name of the current session
+     * @param session the name of the current session,
+     * or null to join whichever session of the game
+     * needs the fewest more players
      * @param players the number of players to wait for 
      * (only used for the first person starting the session)
      * @param frameAdvancer the model/view to update         
@@ -206,6 +226,43 @@ public class Client implements Observer
 	}	
     }
 
+    /**gets the stream for writing to the server, sending
+     * length-prefixed frames if connecting to an NioServer
+     * @param socket the connection to the server
+     * @return the stream to write to
+     * @throws IOException if the socket is closed
+     */
+    private static OutputStream getOutputStream(Socket socket)
+        throws IOException
+    {
+        if (Server.USE_NIO)
+            return new FrameOutputStream(socket.getOutputStream());
+        return socket.getOutputStream();
+    }
+
+    /**gets the stream for reading from the server, reading
+     * length-prefixed frames if connecting to an NioServer
+     * @param socket the connection to the server
+     * @return the stream to read from
+     * @throws IOException if the socket is closed
+     */
+    private static InputStream getInputStream(Socket socket)
+        throws IOException
+    {
+        if (Server.USE_NIO)
+            return new FrameInputStream(socket.getInputStream());
+        return socket.getInputStream();
+    }
+
+    /**determines if the binary WireProtocol is spoken
+     * @return true if connecting to an NioServer with
+     * the binary protocol
+     */
+    private static boolean isBinary()
+    {
+        return Server.USE_NIO && Server.BINARY_PROTOCOL;
+    }
+
     public static String[] getWaitingSessions(
     		String machine, 
             String game)
@@ -214,12 +271,31 @@ public class Client implements Observer
     	try
     	{
 		Socket socket=getConnectedSocket(machine, Server.PORT);
-	        ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-	        ObjectInputStream in = new ObjectInputStream(
-	        		new BufferedInputStream(socket.getInputStream(), 1000));
-	        out.writeObject("List Games");
-	        out.flush();
-	        String allGames = (String) in.readObject();
+	        String allGames;
+	        if (isBinary())
+	        {
+	        	SocketLink link = new SocketLink(socket);
+	        	WireProtocol.Writer writer = new WireProtocol.Writer();
+	        	link.send(writer.begin(WireProtocol.COMMAND)
+	        			.text("List Games"));
+	        	allGames = WireProtocol.expect(link, WireProtocol.TEXT).readUTF();
+	        	link.send(writer.begin(WireProtocol.COMMAND).text("Quit"));
+	        	link.close();
+	        }
+	        else
+	        {
+	        	ObjectOutputStream out = new ObjectOutputStream(
+	        			getOutputStream(socket));
+	        	out.flush();
+	        	ObjectInputStream in = new ObjectInputStream(
+	        			new BufferedInputStream(getInputStream(socket), 1000));
+	        	out.writeObject("List Games");
+	        	out.flush();
+	        	allGames = (String) in.readObject();
+	        	out.writeObject("Quit");
+	        	out.flush();
+	        	socket.close();
+	        }
 	        for(String line: allGames.split("\n"))
 	        {
 	        	String[] elements=line.split(" ");
@@ -228,9 +304,6 @@ public class Client implements Observer
 	        	if(gameName.equals(game))
 	        		waitingSessions.add(sessionName);
 	        }
-	        out.writeObject("Quit");
-	        out.flush();
-	        socket.close();
     	}
     	catch(Exception e)
     	{
@@ -290,6 +363,17 @@ public class Client implements Observer
         localMouse.setCanvas(frameAdvancer.getCanvas());
     }
 
+    /**makes the lobby command for joining the game
+     * @return a Join command for the session, or a
+     * Quick Match command if no session was named
+     */
+    private String getJoinCommand()
+    {
+        if (session == null)
+            return "Quick Match " + game + " " + players;
+        return "Join " + game + " " + session + " " + players;
+    }
+
     /**tries to connect to the designated machine and port
      * @throws Exception if no server is running on the
      * machine and port
@@ -297,11 +381,22 @@ public class Client implements Observer
     private void tryToConnect() throws Exception
     {
 	java.lang.System.out.println("trying to connect");
+        if (isBinary() && Server.USE_UDP)
+        {
+            tryToConnect(UdpLink.connect(machine, Server.PORT));
+            return;
+        }
         Socket socket = getConnectedSocket(machine, Server.PORT);
-        out = new ObjectOutputStream(socket.getOutputStream());
-        in = new ObjectInputStream(new BufferedInputStream(socket
-                .getInputStream(), 1000));
-        out.writeObject("Join " + game + " " + session + " " + players);
+        if (isBinary())
+        {
+            tryToConnect(new SocketLink(socket));
+            return;
+        }
+        out = new ObjectOutputStream(getOutputStream(socket));
+        out.flush();
+        in = new ObjectInputStream(new BufferedInputStream(
+                getInputStream(socket), 1000));
+        out.writeObject(getJoinCommand());
         out.flush();
         String success = (String) in.readObject();
         if (!success.equals("Success"))
@@ -331,6 +426,53 @@ public class Client implements Observer
         setMouseBoundary();
     }
 
+    /**joins the game over the binary WireProtocol
+     * @param link the connection to the NioServer
+     * @throws Exception if the connection is lost
+     */
+    private void tryToConnect(ClientLink link) throws Exception
+    {
+        writer = new WireProtocol.Writer();
+        link.send(writer.begin(WireProtocol.COMMAND)
+                .text(getJoinCommand()));
+        String success = WireProtocol.expect(link, WireProtocol.TEXT).readUTF();
+        if (!success.equals("Success"))
+        {
+            link.close();
+            return;
+        }
+        id = WireProtocol.expect(link, WireProtocol.JOINED).readInt();
+        byte[] frame;
+        while ((frame = link.receiveWaiting())[0] == WireProtocol.WAITING)
+        {
+            int left = WireProtocol.reader(frame).readInt();
+            if(left==1)
+            	frameAdvancer.setLoadMessage("Waiting for "+
+            			left+" player to join.");
+            else if(left>1)
+            	frameAdvancer.setLoadMessage("Waiting for "+
+            			left+" players to join.");
+        }
+        if (frame[0] != WireProtocol.START)
+            throw new IOException("Expected frame " + WireProtocol.START +
+                    " but received " + frame[0]);
+        frameAdvancer.setLoadMessage("Loading Game...");
+        DataInputStream start = WireProtocol.reader(frame);
+        int count = start.readInt();
+        keyboard = new Keyboard[count];
+        mouse = new Mouse[count];
+        message = new Object[count];
+        for (int i = 0; i < count; i++)
+        {
+            keyboard[i] = new Keyboard();
+            mouse[i] = new Mouse();
+        }
+        message[0] = start.readLong();
+        history = new InputSnapshot[InputSnapshot.HISTORY];
+        this.link = link;
+        setMouseBoundary();
+    }
+
     /**starts piped input and output to the local server
      * used during one-player games.
      * @param server the local server
@@ -341,7 +483,7 @@ public class Client implements Observer
         out = server.getPipedOutput();
         in = server.getPipedInput();
         server.start();
-        out.writeObject("Join " + game + " " + session + " " + players);
+        out.writeObject(getJoinCommand());
         out.flush();
         Object success = in.readObject();
         if (!success.equals("Success"))
@@ -387,7 +529,7 @@ public class Client implements Observer
      */
     public boolean isConnected()
     {
-        return out!=null;
+        return out!=null || link!=null;
     }
     
     /**gets the name of the localhost on the network
@@ -430,7 +572,10 @@ public class Client implements Observer
         		{
         			try
         			{
-        				new Server().start();
+        				if (Server.USE_NIO)
+        					new NioServer().start();
+        				else
+        					new Server().start();
         			}
         			catch(Exception e){}
         		}
@@ -459,6 +604,11 @@ public class Client implements Observer
     {
         if (isPaused && !sendPause)
             return;
+        if (link != null)
+        {
+            writeLink();
+            return;
+        }
         out.writeBoolean(changed);
         if(changed)
             changed=false;
@@ -486,6 +636,33 @@ public class Client implements Observer
         sends++;
     }
 
+    /**
+     * writes this client's input as an INPUT frame
+     * of the binary WireProtocol if it has changed
+     * @throws IOException if the connection to the
+     * server is disrupted
+     */
+    private void writeLink() throws IOException
+    {
+        if (!changed)
+            return;
+        changed = false;
+        writer.begin(WireProtocol.INPUT);
+        writer.writeByte(sendPause ? WireProtocol.TOGGLE_PAUSE : 0);
+        localKeyboard.writeCompact(writer);
+        localMouse.writeCompact(writer);
+        WireProtocol.writeMessage(writer, localMessage);
+        localKeyboard.clear();
+        localMouse.clearClicks();
+        if (!localMouse.pressed())
+            localMouse.clear();
+        localMessage = null;
+        sendPause = false;
+        link.send(writer.end());
+        sendTime=System.currentTimeMillis();
+        sends++;
+    }
+
     public void clearInput()
     {
         localKeyboard.clear();
@@ -533,33 +710,46 @@ public class Client implements Observer
      */
     private boolean read() throws IOException, ClassNotFoundException
     {
-        if (in.available() <= 0)
-            return false;
-        double timeAbsolute = in.readDouble();
-        if(in.readBoolean())
+        double timeAbsolute;
+        if (link != null)
+        {
+            byte[] frame = link.receive();
+            if (frame == null)
+                return false;
+            if (frame[0] != WireProtocol.TICK)
+                return true;
+            timeAbsolute = readTick(WireProtocol.reader(frame));
+        }
+        else
         {
-            for (int i = 0; i < keyboard.length; i++)
+            if (in.available() <= 0)
+                return false;
+            timeAbsolute = in.readDouble();
+            if(in.readBoolean())
             {
-                keyboard[i].clear();
-                mouse[i].clearClicks();
-                keyboard[i].readExternal(in);
-                mouse[i].readExternal(in);
-                if (in.readBoolean())
+                for (int i = 0; i < keyboard.length; i++)
                 {
-                    message[i] = in.readObject();
+                    keyboard[i].clear();
+                    mouse[i].clearClicks();
+                    keyboard[i].readExternal(in);
+                    mouse[i].readExternal(in);
+                    if (in.readBoolean())
+                    {
+                        message[i] = in.readObject();
+                    }
+                    else
+                    {
+                        message[i] = null;
+                    }
                 }
-                else
+                boolean wasPaused=isPaused;
+                isPaused = in.readBoolean();
+                if(isPaused!=wasPaused)
                 {
-                    message[i] = null;
+                    pausing=false;
+                    frameAdvancer.serverSaysPauseToggle();
                 }
             }
-            boolean wasPaused=isPaused;
-            isPaused = in.readBoolean();
-            if(isPaused!=wasPaused)
-            {
-                pausing=false;
-                frameAdvancer.serverSaysPauseToggle();
-            }
         }
         update(null, null);
         frameAdvancer.updateModel(timeAbsolute);
@@ -578,6 +768,52 @@ public class Client implements Observer
         return true;
     }
 
+    /**reads a TICK frame of the binary WireProtocol,
+     * updating the keyboards, mice and messages the
+     * same way as read does for object streams.  The
+     * input arrives as the differences from an earlier
+     * update, which is kept in the history.
+     * @param tick the fields of the frame
+     * @return the current time
+     * @throws IOException if the frame is corrupt
+     */
+    private double readTick(DataInputStream tick)
+        throws IOException
+    {
+        double timeAbsolute = tick.readDouble();
+        int flags = tick.readUnsignedByte();
+        int number = WireProtocol.readVarInt(tick);
+        int baseNumber = WireProtocol.readVarInt(tick);
+        InputSnapshot base = null;
+        if (baseNumber > 0)
+        {
+            base = history[baseNumber % history.length];
+            if (base == null || base.sequence != baseNumber)
+                throw new IOException("Missing input " + baseNumber);
+        }
+        InputSnapshot snapshot = InputSnapshot.readDelta(tick, number,
+                base, keyboard.length);
+        history[number % history.length] = snapshot;
+        if (!link.isReliable())
+        {
+            writer.begin(WireProtocol.ACK);
+            WireProtocol.writeVarInt(writer, number);
+            link.send(writer.end());
+        }
+        if ((flags & WireProtocol.HAS_INPUT) != 0)
+        {
+            snapshot.apply(keyboard, mouse, message);
+            boolean wasPaused=isPaused;
+            isPaused = (flags & WireProtocol.PAUSED) != 0;
+            if(isPaused!=wasPaused)
+            {
+                pausing=false;
+                frameAdvancer.serverSaysPauseToggle();
+            }
+        }
+        return timeAbsolute;
+    }
+
     /**reads repeatedly from the server and refreshes
      * the screen.  The screen is refreshed once all
      * reads have been exhausted and at least one read
@@ -627,6 +863,11 @@ public class Client implements Observer
     {
         isPaused=true;
         readTimer.stop();
+        if (link != null)
+        {
+            link.close();
+            return;
+        }
         try
         {
             in.close();
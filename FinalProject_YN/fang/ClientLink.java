@@ -0,0 +1,19 @@
+package fang;
+
+import java.io.IOException;
+
+/**
+ * The Client's end of a connection to an NioServer
+ * speaking the binary protocol.  Unlike the server's
+ * end, the Client may wait for frames while joining
+ * a game.
+ * @author Jam Jenkins
+ */
+interface ClientLink extends GameLink
+{
+    /**takes the next frame, waiting for it to arrive
+     * @return the frame without its length
+     * @throws IOException if the connection is closed
+     */
+    byte[] receiveWaiting() throws IOException;
+}
@@ -1,7 +1,8 @@
 package fang;
 
 import java.awt.geom.Point2D.Double;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import fang.Tracker;
 
@@ -10,14 +11,45 @@ import fang.Tracker;
  * into a single tracker by composing
  * the scaling, rotating, and translating.
  * Since these operations are commutative,
- * they compose seamlessly.
+ * they compose seamlessly.  The trackers are
+ * kept in the order they were added and are
+ * always combined in that order, so the result
+ * is the same on every computer.  The combined
+ * movement is worked out once each model step,
+ * after the AnimationCanvas has advanced the
+ * trackers contained in this one.
  * @author Jam Jenkins
  */
-public final class CompositeTracker implements Tracker
+public final class CompositeTracker implements PrimitiveTracker
 {
-    /**all trackers*/
-    private HashSet<Tracker> all=
-        new HashSet<Tracker>();
+    /**counts changes to the trackers held by any
+     * CompositeTracker, used to tell when the
+     * flattened list of trackers is out of date*/
+    private static final AtomicLong changes=new AtomicLong();
+
+    /**all trackers in the order added*/
+    private LinkedHashSet<Tracker> all=
+        new LinkedHashSet<Tracker>();
+
+    /**the trackers contained in this one and in the
+     * CompositeTrackers within it, without the
+     * CompositeTrackers themselves*/
+    private Tracker[] leaves=null;
+
+    /**the value of changes when leaves was made*/
+    private long leavesMade=-1;
+
+    /**the combined horizontal movement*/
+    private double translationX=0;
+
+    /**the combined vertical movement*/
+    private double translationY=0;
+
+    /**the combined scaling*/
+    private double scaleFactor=1;
+
+    /**the combined rotation*/
+    private double rotationAddition=0;
     
     /**
      * makes the CompositeTracker and
@@ -29,30 +61,71 @@ public final class CompositeTracker implements Tracker
     {
         for(Tracker t: tracker)
             all.add(t);
+        changes.incrementAndGet();
     }
     
     /**gets all of the Trackers in this collection
      * of Trackers
-     * @return all the trackers in this group of trackers
+     * @return all the trackers in this group of 
+     * trackers, in the order they were added
      */
     public Tracker[] getAllTrackers()
     {
         return all.toArray(new Tracker[0]);
     }
+
+    /**
+     * gets every tracker which is not itself a
+     * CompositeTracker, looking inside any
+     * CompositeTrackers held by this one.  Each
+     * tracker appears once, in the order it is
+     * first found.  The list is kept until the
+     * trackers are changed, so getting it each
+     * model step is cheap.  The array returned
+     * must not be changed.
+     * @return the trackers which move the Sprite
+     */
+    public Tracker[] getLeaves()
+    {
+        long current=changes.get();
+        if(leaves==null || leavesMade!=current)
+        {
+            LinkedHashSet<Tracker> found=new LinkedHashSet<Tracker>();
+            addLeaves(found);
+            leaves=found.toArray(new Tracker[0]);
+            leavesMade=current;
+        }
+        return leaves;
+    }
+
+    /**
+     * adds the trackers which are not CompositeTrackers
+     * @param found the trackers found so far
+     */
+    private void addLeaves(LinkedHashSet<Tracker> found)
+    {
+        for(Tracker tracker: all)
+        {
+            if(tracker instanceof CompositeTracker)
+                ((CompositeTracker)tracker).addLeaves(found);
+            else
+                found.add(tracker);
+        }
+    }
     
     /**
      * adds one tracker to compose.  The
-     * tracker being added must create a
+     * tracker being added must not create a
      * cycle of Trackers.  For example, adding
      * this tracker to itself would cause
      * infinite recursion.  Be sure to avoid
      * more complex cyclic structures as well.
-     * CompositeTracker
      * @param tracker the tracker to compose
      */
     public void addTracker(Tracker tracker)
     {
         all.add(tracker);
+        changes.incrementAndGet();
     }
 
     /**
@@ -63,60 +136,85 @@ public final class CompositeTracker implements Tracker
      */
     public void removeTracker(Tracker tracker)
     {
-        all.remove(tracker);
+        if(all.remove(tracker))
+            changes.incrementAndGet();
     }
     
     /**
-     * composes the trackers' translations
+     * gets the combined translations
      * @return the sum of the translations
      */
     public Double getTranslation()
     {
-        Double translate=new Double();
-        translate.x=0;
-        translate.y=0;
-        for(Tracker tracker: all)
-        {
-            Double current=tracker.getTranslation();
-            translate.x+=current.x;
-            translate.y+=current.y;
-        }
-        return translate;
+        return new Double(translationX, translationY);
+    }
+
+    /**
+     * gets the combined horizontal translation
+     * @return the sum of the horizontal translations
+     */
+    public double getTranslationX()
+    {
+        return translationX;
     }
 
-    /**composes the trackers' scaling factors
+    /**
+     * gets the combined vertical translation
+     * @return the sum of the vertical translations
+     */
+    public double getTranslationY()
+    {
+        return translationY;
+    }
+
+    /**gets the combined scaling factor
      * @return the product of all scale factors
      */
     public double getScaleFactor()
     {
-        double factor=1;
-        for(Tracker tracker: all)
-        {
-            factor*=tracker.getScaleFactor();
-        }
-        return factor;
+        return scaleFactor;
     }
 
-    /**composes the trackers' rotation additions
+    /**gets the combined rotation addition
      * @return the sum of all rotation additions
      */
     public double getRotationAddition()
     {
-        double addition=0;
-        for(Tracker tracker: all)
-        {
-            addition+=tracker.getRotationAddition();
-        }
-        return addition;
+        return rotationAddition;
     }
     
-    /**does nothing.  The AnimationCanvas
-     * takes care of advancing the time of
-     * all the trackers contained in this tracker.
+    /**combines the trackers' movement.  This does not
+     * advance the trackers contained in this one; the
+     * AnimationCanvas takes care of advancing each of
+     * them once, then calls this method.
      * @param timePassed the duration of time
      * since the last call to advanceTime
      */
     public void advanceTime(double timePassed)
     {
+        double x=0, y=0, factor=1, addition=0;
+        for(Tracker tracker: all)
+        {
+            if(tracker instanceof CompositeTracker)
+                tracker.advanceTime(timePassed);
+            PrimitiveTracker primitive=PrimitiveTrackers.get(tracker);
+            if(primitive!=null)
+            {
+                x+=primitive.getTranslationX();
+                y+=primitive.getTranslationY();
+            }
+            else
+            {
+                Double current=tracker.getTranslation();
+                x+=current.x;
+                y+=current.y;
+            }
+            factor*=tracker.getScaleFactor();
+            addition+=tracker.getRotationAddition();
+        }
+        translationX=x;
+        translationY=y;
+        scaleFactor=factor;
+        rotationAddition=addition;
     }
 }
@@ -0,0 +1,181 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * A smooth path made of curved segments, evaluated
+ * directly rather than flattened into lines.  The
+ * path keeps a table of the distance along the path
+ * at evenly spaced points in each segment so that
+ * CurveTrackers can move along it at a constant
+ * speed.  Paths never change once made, so one path
+ * can be shared by any number of CurveTrackers.
+ * @author Jam Jenkins
+ */
+public abstract class CurvePath
+{
+    /**how many pieces each segment is measured in*/
+    private static final int SAMPLES=32;
+
+    /**the control points, x then y for each*/
+    protected final double[] points;
+
+    /**the distance along the path at each sample,
+     * made when first needed*/
+    private volatile double[] lengths;
+
+    /**makes a path from control points
+     * @param points the control points, x then y for each
+     */
+    protected CurvePath(double[] points)
+    {
+        if(points.length%2!=0)
+            throw new IllegalArgumentException(
+                    "Control points must come in x, y pairs");
+        this.points=points.clone();
+    }
+
+    /**gets the number of curved segments
+     * @return the number of segments
+     */
+    public abstract int getSegmentCount();
+
+    /**
+     * finds a point on one segment
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the point
+     */
+    protected abstract void evaluate(int segment, double t,
+            Point2D.Double result);
+
+    /**
+     * finds the direction and rate of change of
+     * a segment at a point
+     * @param segment which segment
+     * @param t how far along the segment, from zero to one
+     * @param result where to store the derivative
+     */
+    protected abstract void derivative(int segment, double t,
+            Point2D.Double result);
+
+    /**determines if the end of the path joins its start
+     * @return true if the path is a closed loop
+     */
+    public abstract boolean isClosed();
+
+    /**gets the table of distances, making it if needed
+     * @return the distance along the path at each sample
+     */
+    private double[] getLengths()
+    {
+        double[] table=lengths;
+        if(table==null)
+        {
+            int segments=getSegmentCount();
+            table=new double[segments*SAMPLES+1];
+            Point2D.Double last=new Point2D.Double();
+            Point2D.Double next=new Point2D.Double();
+            evaluate(0, 0, last);
+            int index=1;
+            for(int segment=0; segment<segments; segment++)
+            {
+                for(int i=1; i<=SAMPLES; i++)
+                {
+                    evaluate(segment, i/(double)SAMPLES, next);
+                    table[index]=table[index-1]+last.distance(next);
+                    last.setLocation(next);
+                    index++;
+                }
+            }
+            lengths=table;
+        }
+        return table;
+    }
+
+    /**gets the distance along the whole path
+     * @return the length of the path
+     */
+    public double getLength()
+    {
+        double[] table=getLengths();
+        return table[table.length-1];
+    }
+
+    /**
+     * finds the segment and how far along it a
+     * distance along the path reaches
+     * @param distance the distance from the start,
+     * limited to between zero and the length
+     * @return the segment plus how far along it,
+     * so 2.5 is half way along the third segment
+     */
+    private double locate(double distance)
+    {
+        double[] table=getLengths();
+        int last=table.length-1;
+        if(!(distance>0))
+            return 0;
+        if(distance>=table[last])
+            return last/(double)SAMPLES;
+        int low=0;
+        int high=last;
+        while(high-low>1)
+        {
+            int middle=(low+high)>>>1;
+            if(table[middle]<=distance)
+                low=middle;
+            else
+                high=middle;
+        }
+        double piece=table[high]-table[low];
+        double part=piece>0 ? (distance-table[low])/piece : 0;
+        return (low+part)/SAMPLES;
+    }
+
+    /**
+     * finds the point a distance along the path
+     * @param distance the distance from the start,
+     * limited to between zero and the length
+     * @param result where to store the point
+     */
+    public void getPoint(double distance, Point2D.Double result)
+    {
+        double where=locate(distance);
+        int segment=Math.min((int)where, getSegmentCount()-1);
+        evaluate(segment, where-segment, result);
+    }
+
+    /**
+     * finds the direction of the path a distance
+     * along it
+     * @param distance the distance from the start,
+     * limited to between zero and the length
+     * @return the direction of travel in radians
+     */
+    public double getAngle(double distance)
+    {
+        double where=locate(distance);
+        int segment=Math.min((int)where, getSegmentCount()-1);
+        Point2D.Double tangent=new Point2D.Double();
+        derivative(segment, where-segment, tangent);
+        return Math.atan2(tangent.y, tangent.x);
+    }
+
+    /**gets the number of control points
+     * @return the number of x, y pairs
+     */
+    public int getPointCount()
+    {
+        return points.length/2;
+    }
+
+    /**gets one of the control points
+     * @param index which control point
+     * @return the location of the control point
+     */
+    public Point2D.Double getControlPoint(int index)
+    {
+        return new Point2D.Double(points[2*index], points[2*index+1]);
+    }
+}
@@ -0,0 +1,264 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Moves a Sprite along a CurvePath at a constant
+ * speed, optionally turning the Sprite to face the
+ * direction it is moving.  Many trackers can share
+ * one path, each with its own speed and position.
+ * As with OutlineTracker, to make the Sprite travel
+ * on the path itself rather than just in its shape,
+ * set the Sprite's location to getCurrentPoint
+ * before starting, and if orienting, set its
+ * rotation to getCurrentAngle.
+ * @author Jam Jenkins
+ */
+public class CurveTracker extends TrackerAdapter
+    implements IndependentTracker, PrimitiveTracker
+{
+    /**the path to follow*/
+    private CurvePath path;
+
+    /**how far along the path the tracker is*/
+    private double distance=0;
+
+    /**how fast to move in screens/second,
+     * negative to move backward*/
+    private double speed;
+
+    /**whether to keep going around the path*/
+    private boolean looping=false;
+
+    /**whether to turn to face the direction of travel*/
+    private boolean orienting=false;
+
+    /**the current location on the path*/
+    private Point2D.Double currentPoint=new Point2D.Double();
+
+    /**how far to move the next time step*/
+    private Point2D.Double delta=new Point2D.Double();
+
+    /**the current direction of travel in radians*/
+    private double angle;
+
+    /**how much to turn the next time step*/
+    private double rotation=0;
+
+    /**
+     * makes a tracker at the start of a path
+     * @param path the path to follow
+     * @param speed the portion of the screen to move per
+     * second, negative to move toward the start
+     */
+    public CurveTracker(CurvePath path, double speed)
+    {
+        this.speed=speed;
+        setPath(path);
+    }
+
+    /**
+     * sets the path to follow and moves to its start
+     * @param path the path to follow
+     */
+    public void setPath(CurvePath path)
+    {
+        this.path=path;
+        distance=0;
+        path.getPoint(0, currentPoint);
+        angle=travelAngle();
+    }
+
+    /**gets the path being followed
+     * @return the path
+     */
+    public CurvePath getPath()
+    {
+        return path;
+    }
+
+    /**
+     * sets whether to keep going around the path once
+     * the end is reached.  Open paths jump back to their
+     * start when looping.
+     * @param looping true to move continuously, false to
+     * stop at the end
+     */
+    public void setLooping(boolean looping)
+    {
+        this.looping=looping;
+    }
+
+    /**tells whether the tracker keeps moving once
+     * the end of the path is reached
+     * @return true if looping, false otherwise
+     */
+    public boolean getLooping()
+    {
+        return looping;
+    }
+
+    /**
+     * sets whether the Sprite turns to face the direction
+     * it is moving
+     * @param orienting true to turn with the path,
+     * false to keep the Sprite's rotation
+     */
+    public void setOrienting(boolean orienting)
+    {
+        this.orienting=orienting;
+    }
+
+    /**tells whether the Sprite turns to face the
+     * direction it is moving
+     * @return true if orienting, false otherwise
+     */
+    public boolean isOrienting()
+    {
+        return orienting;
+    }
+
+    /**
+     * sets the speed of the tracker
+     * @param speed the speed in screens per second,
+     * negative to move toward the start
+     */
+    public void setSpeed(double speed)
+    {
+        this.speed=speed;
+        angle=travelAngle();
+    }
+
+    /**gets the speed of the tracker
+     * @return the speed in screens per second
+     */
+    public double getSpeed()
+    {
+        return speed;
+    }
+
+    /**gets the distance along the path
+     * @return the distance from the start of the path
+     */
+    public double getDistance()
+    {
+        return distance;
+    }
+
+    /**gets the location on the path
+     * @return the current location
+     */
+    public Point2D.Double getCurrentPoint()
+    {
+        return new Point2D.Double(currentPoint.x, currentPoint.y);
+    }
+
+    /**gets the direction of travel
+     * @return the direction in radians
+     */
+    public double getCurrentAngle()
+    {
+        return angle;
+    }
+
+    /**
+     * skips part of the path without moving the Sprite.
+     * Calling this method changes where the tracker
+     * starts and alters the current point.
+     * @param skip the distance to skip, negative to
+     * skip backward
+     */
+    public void skipDistance(double skip)
+    {
+        moveTo(distance+skip);
+        angle=travelAngle();
+        delta.x=0;
+        delta.y=0;
+        rotation=0;
+    }
+
+    /**gets the direction of travel at the current distance
+     * @return the direction in radians
+     */
+    private double travelAngle()
+    {
+        double direction=path.getAngle(distance);
+        if(speed<0)
+            direction+=Math.PI;
+        return direction;
+    }
+
+    /**moves the current point, wrapping or stopping at
+     * the ends of the path, and records the movement
+     * @param target the distance along the path to move to
+     */
+    private void moveTo(double target)
+    {
+        double length=path.getLength();
+        if(looping && length>0)
+            target-=length*Math.floor(target/length);
+        else
+            target=Math.max(0, Math.min(length, target));
+        distance=target;
+        double oldX=currentPoint.x;
+        double oldY=currentPoint.y;
+        path.getPoint(distance, currentPoint);
+        delta.x=currentPoint.x-oldX;
+        delta.y=currentPoint.y-oldY;
+    }
+
+    /**
+     * moves along the path
+     * @param time the time passed in seconds
+     */
+    public void advanceTime(double time)
+    {
+        moveTo(distance+time*speed);
+        double newAngle=travelAngle();
+        if(orienting)
+            rotation=Math.IEEEremainder(newAngle-angle, 2*Math.PI);
+        else
+            rotation=0;
+        angle=newAngle;
+    }
+
+    /**
+     * determines the amount to move
+     * @return the movement this time step
+     * @see fang.Tracker#getTranslation()
+     */
+    public Point2D.Double getTranslation()
+    {
+        return delta;
+    }
+
+    /**
+     * determines the horizontal movement
+     * @return the horizontal movement this time step
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return delta.x;
+    }
+
+    /**
+     * determines the vertical movement
+     * @return the vertical movement this time step
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return delta.y;
+    }
+
+    /**
+     * determines the amount to turn
+     * @return the rotation this time step in radians
+     * @see fang.Tracker#getRotationAddition()
+     */
+    public double getRotationAddition()
+    {
+        return rotation;
+    }
+}
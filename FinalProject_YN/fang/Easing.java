@@ -0,0 +1,161 @@
+package fang;
+
+/**
+ * The standard easing curves used by Tweens.  An
+ * easing curve maps the portion of a tween's time
+ * which has passed, from 0 to 1, onto the portion
+ * of the change which has been made.  Every curve
+ * starts at 0 and ends at 1, but some, such as
+ * BACK_OUT and ELASTIC_OUT, overshoot in between.
+ * The IN curves start slowly, the OUT curves end
+ * slowly, and the IN_OUT curves do both.
+ * @author Jam Jenkins
+ */
+public enum Easing
+{
+    /**constant speed*/
+    LINEAR
+    {
+        public double ease(double t)
+        {
+            return t;
+        }
+    },
+    /**accelerates from rest*/
+    QUAD_IN
+    {
+        public double ease(double t)
+        {
+            return t*t;
+        }
+    },
+    /**decelerates to rest*/
+    QUAD_OUT
+    {
+        public double ease(double t)
+        {
+            return t*(2-t);
+        }
+    },
+    /**accelerates then decelerates*/
+    QUAD_IN_OUT
+    {
+        public double ease(double t)
+        {
+            if(t<0.5)
+                return 2*t*t;
+            return -1+(4-2*t)*t;
+        }
+    },
+    /**accelerates from rest more sharply than QUAD_IN*/
+    CUBIC_IN
+    {
+        public double ease(double t)
+        {
+            return t*t*t;
+        }
+    },
+    /**decelerates to rest more sharply than QUAD_OUT*/
+    CUBIC_OUT
+    {
+        public double ease(double t)
+        {
+            double u=t-1;
+            return u*u*u+1;
+        }
+    },
+    /**accelerates then decelerates more sharply
+     * than QUAD_IN_OUT*/
+    CUBIC_IN_OUT
+    {
+        public double ease(double t)
+        {
+            if(t<0.5)
+                return 4*t*t*t;
+            double u=2*t-2;
+            return u*u*u/2+1;
+        }
+    },
+    /**accelerates along a quarter sine wave*/
+    SINE_IN
+    {
+        public double ease(double t)
+        {
+            return 1-Math.cos(t*Math.PI/2);
+        }
+    },
+    /**decelerates along a quarter sine wave*/
+    SINE_OUT
+    {
+        public double ease(double t)
+        {
+            return Math.sin(t*Math.PI/2);
+        }
+    },
+    /**accelerates then decelerates along
+     * half of a sine wave*/
+    SINE_IN_OUT
+    {
+        public double ease(double t)
+        {
+            return (1-Math.cos(t*Math.PI))/2;
+        }
+    },
+    /**goes past the end then settles back,
+     * good for popping things into place*/
+    BACK_OUT
+    {
+        public double ease(double t)
+        {
+            double u=t-1;
+            return u*u*((BACK+1)*u+BACK)+1;
+        }
+    },
+    /**overshoots and springs back and forth
+     * before settling at the end*/
+    ELASTIC_OUT
+    {
+        public double ease(double t)
+        {
+            if(t<=0)
+                return 0;
+            if(t>=1)
+                return 1;
+            return Math.pow(2, -10*t)*
+                Math.sin((t-0.075)*2*Math.PI/0.3)+1;
+        }
+    },
+    /**bounces against the end like a dropped ball*/
+    BOUNCE_OUT
+    {
+        public double ease(double t)
+        {
+            if(t<1/2.75)
+                return 7.5625*t*t;
+            if(t<2/2.75)
+            {
+                t-=1.5/2.75;
+                return 7.5625*t*t+0.75;
+            }
+            if(t<2.5/2.75)
+            {
+                t-=2.25/2.75;
+                return 7.5625*t*t+0.9375;
+            }
+            t-=2.625/2.75;
+            return 7.5625*t*t+0.984375;
+        }
+    };
+
+    /**how far BACK_OUT overshoots*/
+    private static final double BACK=1.70158;
+
+    /**
+     * determines the portion of the change made
+     * @param t the portion of the time passed,
+     * from 0 to 1
+     * @return the portion of the change, 0 at
+     * the start and 1 at the end
+     */
+    public abstract double ease(double t);
+}
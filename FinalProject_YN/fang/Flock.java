@@ -0,0 +1,573 @@
+package fang;
+
+/**
+ * Moves a group of Sprites with steering behaviours,
+ * such as a swarm of enemies or a school of fish.
+ * Every member keeps apart from the members close to
+ * it (separation), turns to head the same way as
+ * them (alignment) and moves toward the middle of
+ * them (cohesion).  Members may also seek, flee or
+ * arrive at a point of their own.  Nearby members are
+ * found with a SpatialGrid rather than by checking
+ * every other member, and the whole flock is moved
+ * in one pass each model step, so flocks of thousands
+ * of members can be animated:
+ * <pre>
+ * Flock swarm=new Flock();
+ * for(Sprite bug: bugs)
+ *     swarm.add(bug).seek(0.5, 0.5);
+ * </pre>
+ * The flock reads where its Sprites are each step,
+ * so Sprites may also be moved by the game, such as
+ * when wrapping around the edges of the screen.
+ * As with a ProjectileSystem, the members are moved
+ * whenever any Sprite in the flock is enabled.
+ * Members whose Sprites are destroyed are released
+ * automatically.
+ * @author Jam Jenkins
+ */
+public class Flock
+    implements TrackerGroup
+{
+    /**kinds of steering toward a member's own point*/
+    static final int NONE=0, SEEK=1, FLEE=2, ARRIVE=3;
+
+    /**the number of members*/
+    private int size=0;
+
+    /**the handle for each index*/
+    private SteeringTracker[] handles;
+
+    /**the Sprite moved by each member*/
+    private Sprite[] sprites;
+
+    /**horizontal location at the start of the step*/
+    private double[] x;
+
+    /**vertical location at the start of the step*/
+    private double[] y;
+
+    /**horizontal velocity in screens/second*/
+    double[] velocityX;
+
+    /**vertical velocity in screens/second*/
+    double[] velocityY;
+
+    /**how each member steers toward its point*/
+    private int[] targetKind;
+
+    /**horizontal location of each member's point*/
+    private double[] targetX;
+
+    /**vertical location of each member's point*/
+    private double[] targetY;
+
+    /**horizontal steering worked out this step*/
+    private double[] steerX;
+
+    /**vertical steering worked out this step*/
+    private double[] steerY;
+
+    /**horizontal movement in the last step*/
+    double[] translationX;
+
+    /**vertical movement in the last step*/
+    double[] translationY;
+
+    /**rotation in the last step*/
+    double[] rotation;
+
+    /**the direction each member is facing when orienting*/
+    private double[] heading;
+
+    /**finds the members near each other*/
+    private final SpatialGrid grid;
+
+    /**reused for holding the members near one member*/
+    private int[] nearby;
+
+    /**the fastest a member may go in screens/second*/
+    private double maxSpeed=0.3;
+
+    /**the most a member's velocity may change
+     * in screens/second/second*/
+    private double maxForce=1;
+
+    /**how close members must be to flock together*/
+    private double neighbourRadius=0.08;
+
+    /**how close members must be to push apart*/
+    private double separationRadius=0.03;
+
+    /**how far from its point a member starts slowing
+     * when arriving*/
+    private double arriveRadius=0.1;
+
+    /**how strongly each behaviour steers*/
+    private double separationWeight=1.5, alignmentWeight=1,
+        cohesionWeight=1, targetWeight=1;
+
+    /**whether Sprites turn to face where they are going*/
+    private boolean orienting=false;
+
+    /**makes an empty flock with room for 64 members,
+     * which grows as needed*/
+    public Flock()
+    {
+        this(64);
+    }
+
+    /**makes an empty flock with room for a given number
+     * of members, which grows as needed
+     * @param capacity the expected number of members
+     */
+    public Flock(int capacity)
+    {
+        grid=new SpatialGrid(neighbourRadius);
+        nearby=new int[17];
+        allocate(Math.max(1, capacity));
+    }
+
+    /**makes the arrays large enough for a number
+     * of members, keeping the current ones
+     * @param capacity the new length of the arrays
+     */
+    private void allocate(int capacity)
+    {
+        SteeringTracker[] moreHandles=new SteeringTracker[capacity];
+        Sprite[] moreSprites=new Sprite[capacity];
+        int[] moreKinds=new int[capacity];
+        if(handles!=null)
+        {
+            System.arraycopy(handles, 0, moreHandles, 0, size);
+            System.arraycopy(sprites, 0, moreSprites, 0, size);
+            System.arraycopy(targetKind, 0, moreKinds, 0, size);
+        }
+        handles=moreHandles;
+        sprites=moreSprites;
+        targetKind=moreKinds;
+        x=copy(x, capacity);
+        y=copy(y, capacity);
+        velocityX=copy(velocityX, capacity);
+        velocityY=copy(velocityY, capacity);
+        targetX=copy(targetX, capacity);
+        targetY=copy(targetY, capacity);
+        steerX=copy(steerX, capacity);
+        steerY=copy(steerY, capacity);
+        translationX=copy(translationX, capacity);
+        translationY=copy(translationY, capacity);
+        rotation=copy(rotation, capacity);
+        heading=copy(heading, capacity);
+    }
+
+    /**copies an array into a longer one
+     * @param old the array to copy, may be null
+     * @param capacity the length of the new array
+     * @return the new array
+     */
+    private double[] copy(double[] old, int capacity)
+    {
+        double[] larger=new double[capacity];
+        if(old!=null)
+            System.arraycopy(old, 0, larger, 0, size);
+        return larger;
+    }
+
+    /**
+     * adds a Sprite to the flock, making its tracker
+     * the new member.  The member starts out still,
+     * facing the way the Sprite is facing.
+     * @param sprite the Sprite to move
+     * @return the tracker, used to steer the member
+     */
+    public SteeringTracker add(Sprite sprite)
+    {
+        if(size==handles.length)
+            allocate(2*size);
+        int index=size++;
+        sprites[index]=sprite;
+        velocityX[index]=0;
+        velocityY[index]=0;
+        targetKind[index]=NONE;
+        translationX[index]=0;
+        translationY[index]=0;
+        rotation[index]=0;
+        heading[index]=sprite.getRotation();
+        handles[index]=new SteeringTracker(this, index);
+        sprite.setTracker(handles[index]);
+        return handles[index];
+    }
+
+    /**
+     * removes a member.  The last member is moved into
+     * its place so that the members stay together at
+     * the start of the arrays.
+     * @param member the member to remove
+     */
+    void release(SteeringTracker member)
+    {
+        int index=member.index;
+        int last=--size;
+        if(index!=last)
+        {
+            sprites[index]=sprites[last];
+            velocityX[index]=velocityX[last];
+            velocityY[index]=velocityY[last];
+            targetKind[index]=targetKind[last];
+            targetX[index]=targetX[last];
+            targetY[index]=targetY[last];
+            translationX[index]=translationX[last];
+            translationY[index]=translationY[last];
+            rotation[index]=rotation[last];
+            heading[index]=heading[last];
+            handles[index]=handles[last];
+            handles[index].index=index;
+        }
+        handles[last]=null;
+        sprites[last]=null;
+        member.index=-1;
+    }
+
+    /**gets the number of members in the flock
+     * @return the number added and not yet released
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * sets the speed limit of every member
+     * @param maxSpeed the fastest a member may go
+     * in screens/second
+     */
+    public void setMaxSpeed(double maxSpeed)
+    {
+        this.maxSpeed=maxSpeed;
+    }
+
+    /**gets the speed limit of every member
+     * @return the speed in screens/second
+     */
+    public double getMaxSpeed()
+    {
+        return maxSpeed;
+    }
+
+    /**
+     * sets how quickly members can change direction
+     * and speed
+     * @param maxForce the most a member's velocity may
+     * change in screens/second/second
+     */
+    public void setMaxForce(double maxForce)
+    {
+        this.maxForce=maxForce;
+    }
+
+    /**gets how quickly members can change direction
+     * and speed
+     * @return the limit in screens/second/second
+     */
+    public double getMaxForce()
+    {
+        return maxForce;
+    }
+
+    /**
+     * sets how close members must be to flock together.
+     * This is also the size of the cells used to find
+     * nearby members.
+     * @param radius the distance in screens
+     */
+    public void setNeighbourRadius(double radius)
+    {
+        grid.setCellSize(radius);
+        neighbourRadius=radius;
+    }
+
+    /**gets how close members must be to flock together
+     * @return the distance in screens
+     */
+    public double getNeighbourRadius()
+    {
+        return neighbourRadius;
+    }
+
+    /**
+     * sets how close members must be to push apart
+     * @param radius the distance in screens, usually
+     * less than the neighbour radius
+     */
+    public void setSeparationRadius(double radius)
+    {
+        separationRadius=radius;
+    }
+
+    /**gets how close members must be to push apart
+     * @return the distance in screens
+     */
+    public double getSeparationRadius()
+    {
+        return separationRadius;
+    }
+
+    /**
+     * sets how far from its point an arriving
+     * member starts to slow down
+     * @param radius the distance in screens
+     */
+    public void setArriveRadius(double radius)
+    {
+        arriveRadius=radius;
+    }
+
+    /**gets how far from its point an arriving
+     * member starts to slow down
+     * @return the distance in screens
+     */
+    public double getArriveRadius()
+    {
+        return arriveRadius;
+    }
+
+    /**
+     * sets how strongly each behaviour steers.  Zero
+     * turns a behaviour off.
+     * @param separation the weight for keeping apart
+     * @param alignment the weight for heading the same way
+     * @param cohesion the weight for staying together
+     * @param target the weight for seeking, fleeing
+     * and arriving
+     */
+    public void setWeights(double separation, double alignment,
+            double cohesion, double target)
+    {
+        separationWeight=separation;
+        alignmentWeight=alignment;
+        cohesionWeight=cohesion;
+        targetWeight=target;
+    }
+
+    /**
+     * sets the most nearby members each member looks at.
+     * In crowded places only this many are used, which
+     * keeps the time for each step steady.
+     * @param count the number of neighbours, at least 1
+     */
+    public void setMaxNeighbours(int count)
+    {
+        nearby=new int[Math.max(1, count)+1];
+    }
+
+    /**gets the most nearby members each member looks at
+     * @return the number of neighbours
+     */
+    public int getMaxNeighbours()
+    {
+        return nearby.length-1;
+    }
+
+    /**
+     * sets whether Sprites turn to face the direction
+     * they are moving
+     * @param orienting true to turn, false to keep
+     * the Sprites' rotation
+     */
+    public void setOrienting(boolean orienting)
+    {
+        this.orienting=orienting;
+    }
+
+    /**tells whether Sprites turn to face the
+     * direction they are moving
+     * @return true if orienting, false otherwise
+     */
+    public boolean isOrienting()
+    {
+        return orienting;
+    }
+
+    /**sets how a member steers toward its point
+     * @param index the member
+     * @param kind NONE, SEEK, FLEE or ARRIVE
+     * @param tx the horizontal location of the point
+     * @param ty the vertical location of the point
+     */
+    void setTarget(int index, int kind, double tx, double ty)
+    {
+        targetKind[index]=kind;
+        targetX[index]=tx;
+        targetY[index]=ty;
+    }
+
+    /**sets the velocity
+     * @param index the member
+     * @param vx the horizontal velocity in screens/second
+     * @param vy the vertical velocity in screens/second
+     */
+    void setVelocity(int index, double vx, double vy)
+    {
+        velocityX[index]=vx;
+        velocityY[index]=vy;
+    }
+
+    /**
+     * moves every member.  The steering of all of the
+     * members is worked out from where they all are at
+     * the start of the step before any of them move, so
+     * the order of the members makes no difference.
+     * @param time the time passed in seconds
+     */
+    public void advanceGroup(double time)
+    {
+        for(int i=size-1; i>=0; i--)
+            if(sprites[i].isDestroyed())
+                handles[i].release();
+        if(time<=0)
+        {
+            for(int i=0; i<size; i++)
+            {
+                translationX[i]=velocityX[i]*time;
+                translationY[i]=velocityY[i]*time;
+                rotation[i]=0;
+            }
+            return;
+        }
+        for(int i=0; i<size; i++)
+        {
+            x[i]=sprites[i].transform.getTranslateX();
+            y[i]=sprites[i].transform.getTranslateY();
+        }
+        grid.build(x, y, size);
+        for(int i=0; i<size; i++)
+            steer(i);
+        for(int i=0; i<size; i++)
+        {
+            if(!sprites[i].isEnabled())
+            {
+                translationX[i]=0;
+                translationY[i]=0;
+                rotation[i]=0;
+                continue;
+            }
+            double vx=velocityX[i]+steerX[i]*time;
+            double vy=velocityY[i]+steerY[i]*time;
+            double speed=Math.sqrt(vx*vx+vy*vy);
+            if(speed>maxSpeed)
+            {
+                vx*=maxSpeed/speed;
+                vy*=maxSpeed/speed;
+            }
+            velocityX[i]=vx;
+            velocityY[i]=vy;
+            translationX[i]=vx*time;
+            translationY[i]=vy*time;
+            rotation[i]=0;
+            if(orienting && speed>0)
+            {
+                rotation[i]=Math.IEEEremainder(
+                    Math.atan2(vy, vx)-heading[i], 2*Math.PI);
+                heading[i]+=rotation[i];
+            }
+        }
+    }
+
+    /**
+     * works out how one member steers this step
+     * @param i the member
+     */
+    private void steer(int i)
+    {
+        steerX[i]=0;
+        steerY[i]=0;
+        double px=x[i];
+        double py=y[i];
+        int found=grid.query(px, py, neighbourRadius, nearby);
+        int neighbours=0;
+        double separateX=0, separateY=0;
+        double alignX=0, alignY=0;
+        double centerX=0, centerY=0;
+        double close=separationRadius*separationRadius;
+        for(int n=0; n<found; n++)
+        {
+            int j=nearby[n];
+            if(j==i)
+                continue;
+            neighbours++;
+            alignX+=velocityX[j];
+            alignY+=velocityY[j];
+            centerX+=x[j];
+            centerY+=y[j];
+            double dx=px-x[j];
+            double dy=py-y[j];
+            double distance=dx*dx+dy*dy;
+            if(distance<close && distance>0)
+            {
+                separateX+=dx/distance;
+                separateY+=dy/distance;
+            }
+        }
+        if(neighbours>0)
+        {
+            addSteering(i, separateX, separateY, maxSpeed, separationWeight);
+            addSteering(i, alignX, alignY, maxSpeed, alignmentWeight);
+            addSteering(i, centerX/neighbours-px, centerY/neighbours-py,
+                maxSpeed, cohesionWeight);
+        }
+        double tx=targetX[i]-px;
+        double ty=targetY[i]-py;
+        switch(targetKind[i])
+        {
+            case SEEK:
+                addSteering(i, tx, ty, maxSpeed, targetWeight);
+                break;
+            case FLEE:
+                addSteering(i, -tx, -ty, maxSpeed, targetWeight);
+                break;
+            case ARRIVE:
+                double distance=Math.sqrt(tx*tx+ty*ty);
+                addSteering(i, tx, ty,
+                    maxSpeed*Math.min(1, distance/arriveRadius),
+                    targetWeight);
+                break;
+            default:
+                break;
+        }
+        double force=Math.sqrt(steerX[i]*steerX[i]+steerY[i]*steerY[i]);
+        if(force>maxForce)
+        {
+            steerX[i]*=maxForce/force;
+            steerY[i]*=maxForce/force;
+        }
+    }
+
+    /**
+     * adds steering which turns a member to move in
+     * a direction at a speed
+     * @param i the member
+     * @param dx the horizontal part of the direction
+     * @param dy the vertical part of the direction
+     * @param speed how fast the member wants to go
+     * @param weight how strongly to steer
+     */
+    private void addSteering(int i, double dx, double dy,
+            double speed, double weight)
+    {
+        if(weight==0)
+            return;
+        double length=Math.sqrt(dx*dx+dy*dy);
+        if(length==0)
+            return;
+        double wantX=dx/length*speed-velocityX[i];
+        double wantY=dy/length*speed-velocityY[i];
+        double force=Math.sqrt(wantX*wantX+wantY*wantY);
+        if(force>maxForce)
+        {
+            wantX*=maxForce/force;
+            wantY*=maxForce/force;
+        }
+        steerX[i]+=wantX*weight;
+        steerY[i]+=wantY*weight;
+    }
+}
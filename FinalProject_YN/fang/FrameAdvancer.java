@@ -3,8 +3,18 @@ package fang;
 import java.awt.*;
 import javax.swing.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.TreeMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * used to advance the frame in an animation 
@@ -45,9 +55,106 @@ public abstract class FrameAdvancer
     /** the highest allowable time between calls to update */
     private double maxModelTimeInterval = 1 / 10.0;
 
-    /** all pending alarms */
-    private TreeMap<Double, LinkedList<Alarm>> alarms = 
-        new TreeMap<Double, LinkedList<Alarm>>();
+    /** the duration of every model step when running at
+     * a fixed model frame rate, or zero when the model
+     * steps vary with the time between displays */
+    private double fixedTimeStep = 0;
+
+    /** all pending alarms, ordered by time then by
+     * the order in which they were scheduled */
+    private PriorityQueue<AlarmHandle> alarms = 
+        new PriorityQueue<AlarmHandle>();
+
+    /** the order of the next alarm scheduled */
+    private long alarmSequence=0;
+
+    /** how many cancelled handles are still in the queue */
+    private int cancelledAlarms=0;
+
+    /** alarms which came due while a batch of alarms was
+     * going off, held back until the next step */
+    private ArrayList<AlarmHandle> postponedAlarms=
+        new ArrayList<AlarmHandle>();
+
+    /** scripts which have been started and have
+     * not yet finished, in the order started */
+    private ArrayList<Script> scripts=new ArrayList<Script>();
+
+    /** scripts waiting for a number of model steps,
+     * in the order in which they started waiting */
+    private ArrayList<Script> frameWaiters=new ArrayList<Script>();
+
+    /** frame waiters continuing in the current step */
+    private ArrayList<Script> dueScripts=new ArrayList<Script>();
+
+    /** how many model steps have been taken */
+    private long modelFrame=0;
+
+    /** the most work submitted by submitAsync which
+     * may wait for a worker thread at once */
+    public static final int MAX_QUEUED_TASKS=256;
+
+    /** runs the work from submitAsync for every game,
+     * created when first needed */
+    private static ThreadPoolExecutor asyncExecutor;
+
+    /** submitted tasks not yet delivered or cancelled */
+    private ArrayList<AsyncTask<?>> asyncTasks=
+        new ArrayList<AsyncTask<?>>();
+
+    /** tasks whose work is finished, added by the worker
+     * threads and taken by the model thread */
+    private ConcurrentLinkedQueue<AsyncTask<?>> finishedTasks=
+        new ConcurrentLinkedQueue<AsyncTask<?>>();
+
+    /** a task waiting in the deferred work queue */
+    private static class DeferredTask
+    {
+        /** the task to run */
+        final Alarm task;
+
+        /** the screen frame in which it was deferred */
+        final long frame;
+
+        /** makes a queued task
+         * @param task the task to run
+         * @param frame the current screen frame
+         */
+        DeferredTask(Alarm task, long frame)
+        {
+            this.task=task;
+            this.frame=frame;
+        }
+    }
+
+    /** low priority work waiting for a frame with
+     * time to spare, oldest first */
+    private LinkedList<DeferredTask> deferred=
+        new LinkedList<DeferredTask>();
+
+    /** how long in seconds a frame may take before
+     * deferred work is held back for a later frame */
+    private double frameBudget=
+        GameConnections.TIME_BETWEEN_UPDATES/2000.0;
+
+    /** how many screen frames deferred work may wait
+     * before it runs regardless of the budget */
+    private int maxDeferredFrames=30;
+
+    /** how many times the screen has been refreshed */
+    private long screenFrame=0;
+
+    /** System.nanoTime when work on the current frame
+     * began, or zero between frames */
+    private long frameStart=0;
+
+    /** records the model steps so they can be undone,
+     * or null when not recording */
+    private transient RewindBuffer rewindBuffer=null;
+
+    /** whether model steps undo recorded steps
+     * instead of advancing the game */
+    private transient boolean rewinding=false;
 
     /** initializes the canvas to empty and no alarms set */
     public FrameAdvancer()
@@ -80,6 +187,7 @@ public abstract class FrameAdvancer
 	public void setCanvas(AnimationCanvas canvas)
     {
         this.canvas = canvas;
+        canvas.setInterpolating(fixedTimeStep>0);
     }
 
     /**
@@ -145,6 +253,44 @@ public abstract class FrameAdvancer
         }
     }
 
+    /**
+     * sets the exact number of model frames computed
+     * per second.  By default the size of each model
+     * step depends on how much time has passed between
+     * displays, which means the results of the physics
+     * can depend on the frame rate.  With a fixed model
+     * frame rate every step is the same size no matter
+     * how often the screen is refreshed, so the results
+     * are the same on every computer.  Sprites are drawn
+     * in between their last two model states so motion
+     * stays smooth when the screen is refreshed more
+     * often than the model advances.  Frame rates higher
+     * than 200 Hz are not allowed.
+     * 
+     * @param framesPerSecond
+     *            the number of model frames per second,
+     *            or zero to go back to variable model steps
+     */
+    public void setFixedModelFrameRate(int framesPerSecond)
+    {
+        if (framesPerSecond > 0)
+            fixedTimeStep = Math.max(1.0 / 200, 1.0 / framesPerSecond);
+        else
+            fixedTimeStep = 0;
+        canvas.setInterpolating(fixedTimeStep>0);
+    }
+
+    /**
+     * gets the duration of each model step when the
+     * model advances at a fixed rate
+     * @return the fixed step in seconds, or zero if
+     * the model steps vary with the time between displays
+     */
+    public double getFixedModelTimeStep()
+    {
+        return fixedTimeStep;
+    }
+
     /**
      * sets and alarm to go off relative to 
      * the current time. For example, this
@@ -155,10 +301,11 @@ public abstract class FrameAdvancer
      *            the class to call the alarm method on
      * @param relative
      *            the time from now in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
      */
-    public void scheduleRelative(Alarm alarm, double relative)
+    public AlarmHandle scheduleRelative(Alarm alarm, double relative)
     {
-        scheduleAbsolute(alarm, relative+currentTime-timeOffset);
+        return scheduleAbsolute(alarm, relative+currentTime-timeOffset);
 //        double absolute=currentTime + relative;
 //        LinkedList<Alarm> existing = 
 //            alarms.get(absolute);
@@ -179,113 +326,705 @@ public abstract class FrameAdvancer
      *            the class to call the alarm method on
      * @param absolute
      *            the time in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
+     */
+    public AlarmHandle scheduleAbsolute(Alarm alarm, double absolute)
+    {
+        AlarmHandle handle=new AlarmHandle(this, alarm,
+                absolute+timeOffset, 0, 1);
+        queueAlarm(handle);
+        return handle;
+    }
+
+    /**
+     * sets an alarm to go off repeatedly, starting one period
+     * from the current time.  The same handle is used for
+     * every repeat, so the alarm can be stopped at any time
+     * by cancelling the returned handle.  Unlike an alarm
+     * which reschedules itself, the repeats do not drift
+     * since each one is timed from when the last one was
+     * due rather than when it went off.
+     * 
+     * @param alarm
+     *            the class to call the alarm method on
+     * @param period
+     *            the time in seconds between repeats, must be positive
+     * @param count
+     *            how many times to call the alarm method, or zero
+     *            or less to repeat until cancelled
+     * @return the handle which can be used to cancel this alarm
+     */
+    public AlarmHandle scheduleRepeating(Alarm alarm, double period, int count)
+    {
+        if(!(period>0))
+            throw new IllegalArgumentException(
+                    "Repeating alarms must have a positive period: "+period);
+        AlarmHandle handle=new AlarmHandle(this, alarm,
+                currentTime+period, period, count>0 ? count : -1);
+        queueAlarm(handle);
+        return handle;
+    }
+
+    /**
+     * starts a script.  The script runs right away
+     * until it first waits, then is continued as the
+     * model advances until it finishes or is cancelled.
+     * Like alarms, scripts which are not persistent
+     * are stopped when the level ends.  Before Java 21
+     * each script needs an operating system thread of
+     * its own, so only Java 21 and later make thousands
+     * of scripts cheap.
+     * 
+     * @param script the behaviour to start
+     */
+    public void startScript(Script script)
+    {
+        scripts.add(script);
+        script.start(this);
+    }
+
+    /**called by a script when it ends
+     * @param script the script which finished
+     */
+    void scriptFinished(Script script)
+    {
+        scripts.remove(script);
+    }
+
+    /**holds a script until a number of model
+     * steps have passed
+     * @param script the waiting script
+     * @param frames how many steps to wait, at least one
+     */
+    void waitForFrames(Script script, int frames)
+    {
+        script.wakeFrame=modelFrame+frames;
+        frameWaiters.add(script);
+    }
+
+    /**stops holding a script waiting for model steps
+     * @param script the script which no longer waits
+     */
+    void stopWaitingForFrames(Script script)
+    {
+        frameWaiters.remove(script);
+    }
+
+    /**continues the scripts whose waitFrames ends in
+     * the current step, in the order they began waiting.
+     * An exception from one script is passed to
+     * handleFrameException and the rest still continue.*/
+    private void resumeFrameScripts()
+    {
+        if(frameWaiters.isEmpty())
+            return;
+        for(int i=0; i<frameWaiters.size(); )
+        {
+            Script script=frameWaiters.get(i);
+            if(script.wakeFrame<=modelFrame)
+            {
+                frameWaiters.remove(i);
+                dueScripts.add(script);
+            }
+            else
+                i++;
+        }
+        try
+        {
+            for(Script script: dueScripts)
+            {
+                //one script failing must not leave the
+                //others waiting forever
+                try
+                {
+                    script.resume();
+                }
+                catch(Exception e)
+                {
+                    handleFrameException(e);
+                }
+            }
+        }
+        finally
+        {
+            dueScripts.clear();
+        }
+    }
+
+    /**
+     * runs work off of the model thread.  Use this
+     * for slow work such as path-finding or loading
+     * images which would otherwise freeze the game.
+     * The work runs on a small shared pool of worker
+     * threads, and when it finishes the consumer is
+     * called on the model thread at the start of the
+     * next model step, through the alarm queue.  The
+     * work must not change the sprites or anything
+     * else in the game, since the game keeps running
+     * meanwhile.  Tasks which are not persistent are
+     * cancelled at the end of the level like alarms.
+     * 
+     * @param work the work to do
+     * @param consumer receives the result or the
+     * exception thrown by the work
+     * @return the task, which can be used to cancel
+     * the work or to find out how long it took
+     */
+    public <T> AsyncTask<T> submitAsync(Callable<T> work,
+            ResultConsumer<T> consumer)
+    {
+        AsyncTask<T> task=new AsyncTask<T>(this, work, consumer);
+        asyncTasks.add(task);
+        try
+        {
+            task.setFuture(getAsyncExecutor().submit(task));
+        }
+        catch(RejectedExecutionException e)
+        {
+            task.rejected(e);
+            asyncFinished(task);
+        }
+        return task;
+    }
+
+    /**gets the pool of worker threads, making it if needed.
+     * The threads are daemon threads of slightly lower
+     * priority than normal which end when they are idle.
+     * @return the executor for submitAsync
+     */
+    private static synchronized ThreadPoolExecutor getAsyncExecutor()
+    {
+        if(asyncExecutor==null)
+        {
+            int threads=Math.max(1, Math.min(4,
+                    Runtime.getRuntime().availableProcessors()-1));
+            asyncExecutor=new ThreadPoolExecutor(threads, threads,
+                    30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS),
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable work)
+                        {
+                            Thread thread=new Thread(work, "FANG Async");
+                            thread.setDaemon(true);
+                            thread.setPriority(Thread.NORM_PRIORITY-1);
+                            return thread;
+                        }
+                    });
+            asyncExecutor.allowCoreThreadTimeOut(true);
+        }
+        return asyncExecutor;
+    }
+
+    /**called from a worker thread when a task's
+     * work is finished
+     * @param task the finished task
+     */
+    void asyncFinished(AsyncTask<?> task)
+    {
+        finishedTasks.add(task);
+    }
+
+    /**called when a task is delivered or cancelled
+     * @param task the task which is no longer outstanding
+     */
+    void asyncDone(AsyncTask<?> task)
+    {
+        asyncTasks.remove(task);
+    }
+
+    /**queues the results of the finished work to be
+     * delivered at the start of the current step*/
+    private void deliverFinishedTasks()
+    {
+        AsyncTask<?> task;
+        while((task=finishedTasks.poll())!=null)
+            if(!task.isCancelled())
+                task.setDelivery(scheduleRelative(task, 0));
+    }
+
+    /**
+     * queues low priority work to be done when a frame
+     * has time to spare.  Use this for work which does
+     * not need to happen in any particular frame, such
+     * as trimming caches, rebuilding score text or adding
+     * decorative sprites.  After each screen refresh,
+     * deferred work runs in the order it was deferred
+     * until the frame has used up its budget, and the
+     * rest waits for later frames.  Work which has
+     * waited more than the maximum number of frames
+     * runs regardless of the budget, so it always runs
+     * eventually.  Because frames have time to spare at
+     * different moments on different computers, deferred
+     * work must not change anything which needs to be
+     * the same for every player.  Unless it is made
+     * persistent, deferred work is dropped at the end
+     * of the level like alarms.
+     * 
+     * @param task the work, whose alarm method is called
+     */
+    public void defer(Alarm task)
+    {
+        deferred.addLast(new DeferredTask(task, screenFrame));
+    }
+
+    /**
+     * sets how long a frame may take before deferred
+     * work is held back for a later frame.  The time
+     * is measured from the first model update of the
+     * frame.  The default is half of the time between
+     * updates from the server.
+     * 
+     * @param seconds the budget in seconds, zero to
+     * run only deferred work which has waited too long
+     */
+    public void setFrameBudget(double seconds)
+    {
+        frameBudget=Math.max(0, seconds);
+    }
+
+    /**gets how long a frame may take before deferred
+     * work is held back
+     * @return the budget in seconds
+     */
+    public double getFrameBudget()
+    {
+        return frameBudget;
+    }
+
+    /**
+     * sets how many frames deferred work may wait before
+     * it runs regardless of the frame budget
+     * 
+     * @param frames the most frames to wait, at least one
+     */
+    public void setMaxDeferredFrames(int frames)
+    {
+        maxDeferredFrames=Math.max(1, frames);
+    }
+
+    /**gets how many frames deferred work may wait
+     * @return the most frames to wait
+     */
+    public int getMaxDeferredFrames()
+    {
+        return maxDeferredFrames;
+    }
+
+    /**gets how much deferred work is waiting
+     * @return the number of deferred tasks not yet run
+     */
+    public int getDeferredCount()
+    {
+        return deferred.size();
+    }
+
+    /**
+     * sets where the model steps are recorded so that
+     * they can be rewound
+     * @param buffer the buffer to record to, or null
+     * to stop recording
+     */
+    public void setRewindBuffer(RewindBuffer buffer)
+    {
+        rewindBuffer=buffer;
+        if(buffer==null)
+            rewinding=false;
+    }
+
+    /**gets where the model steps are recorded
+     * @return the buffer, or null if not recording
+     */
+    public RewindBuffer getRewindBuffer()
+    {
+        return rewindBuffer;
+    }
+
+    /**
+     * starts or stops running time backward.  While
+     * rewinding, each model step undoes recorded steps
+     * of the same length instead of advancing the
+     * Sprites, and alarms, scripts and the results of
+     * submitAsync wait until rewinding stops.  The game
+     * time stands still while rewinding.
+     * advanceFrame is still called so that the game
+     * can decide when to stop; it should check
+     * isRewinding before changing anything.
+     * Rewinding without a RewindBuffer is ignored.
+     * @param rewinding true to run backward, false
+     * to play normally
+     */
+    public void setRewinding(boolean rewinding)
+    {
+        this.rewinding=rewinding && rewindBuffer!=null;
+    }
+
+    /**tells whether time is running backward
+     * @return true if rewinding, false otherwise
+     */
+    public boolean isRewinding()
+    {
+        return rewinding;
+    }
+
+    /**runs deferred work until the current frame
+     * uses up its budget, plus any work which has
+     * waited too long.  This is called at the end
+     * of every frame.
+     */
+    void runDeferredWork()
+    {
+        long start=frameStart==0 ? System.nanoTime() : frameStart;
+        frameStart=0;
+        screenFrame++;
+        long budget=(long)(frameBudget*1e9);
+        while(!deferred.isEmpty())
+        {
+            DeferredTask next=deferred.getFirst();
+            if(screenFrame-next.frame<maxDeferredFrames &&
+                    System.nanoTime()-start>=budget)
+                break;
+            deferred.removeFirst();
+            next.task.alarm();
+        }
+    }
+
+    /**adds the handle to the pending alarms
+     * @param handle the handle to go off at its time
+     */
+    private void queueAlarm(AlarmHandle handle)
+    {
+        handle.sequence=alarmSequence++;
+        alarms.add(handle);
+    }
+
+    /**called by a handle when it is cancelled.
+     * Cancelled handles are left in the queue and
+     * skipped when they come due, but once they
+     * make up the majority of the queue they are
+     * removed all at once.
+     */
+    void alarmCancelled()
+    {
+        cancelledAlarms++;
+        if(cancelledAlarms>16 && cancelledAlarms*2>alarms.size())
+        {
+            Iterator<AlarmHandle> pending=alarms.iterator();
+            while(pending.hasNext())
+            {
+                if(pending.next().done)
+                    pending.remove();
+            }
+            cancelledAlarms=0;
+        }
+    }
+
+    /**converts from absolute time to the time
+     * since the beginning of the game
+     * @param absolute the time including the offset
+     * @return the time as returned by getTime
      */
-    public void scheduleAbsolute(Alarm alarm, double absolute)
+    double toGameTime(double absolute)
     {
-        LinkedList<Alarm> existing = 
-            alarms.get(absolute+timeOffset);
-        if(existing==null)
-            existing=new LinkedList<Alarm>();
-        existing.add(alarm);
-        alarms.put(absolute+timeOffset, existing);
+        return absolute-timeOffset;
+    }
+
+    /**gets the next alarm to go off, discarding
+     * any cancelled alarms at the head of the queue
+     * @return the next pending alarm, or null if
+     * there are no pending alarms
+     */
+    private AlarmHandle nextAlarm()
+    {
+        AlarmHandle next=alarms.peek();
+        while(next!=null && next.done)
+        {
+            alarms.poll();
+            cancelledAlarms=Math.max(0, cancelledAlarms-1);
+            next=alarms.peek();
+        }
+        return next;
+    }
+
+    /**calls the alarm method for a handle which
+     * has come due.  Repeating alarms are queued
+     * again before the alarm method is called so
+     * that the alarm may cancel its own handle.
+     * @param handle the alarm which is due
+     */
+    private void setOff(AlarmHandle handle)
+    {
+        if(handle.remaining>0)
+            handle.remaining--;
+        if(handle.period>0 && handle.remaining!=0)
+        {
+            handle.time+=handle.period;
+            queueAlarm(handle);
+        }
+        else
+            handle.done=true;
+        handle.alarm.alarm();
     }
 
     /**
      * removes all pending alarms on this object. 
      * If there are no alarms with
      * this object as the target, the method call is ignored.
+     * Cancelling a Script stops it, and cancelling
+     * an AsyncTask cancels its work.
      * 
      * @param alarm
      *            the object that is the target of a pending alarm
      */
     public void cancelAlarm(Alarm alarm)
     {
-        for (LinkedList<Alarm> list: alarms.values())
+        Iterator<AlarmHandle> pending=alarms.iterator();
+        while(pending.hasNext())
         {
-            if (list.contains(alarm))
+            AlarmHandle handle=pending.next();
+            if(handle.done)
             {
-                list.remove(alarm);
+                pending.remove();
+            }
+            else if(handle.alarm.equals(alarm))
+            {
+                handle.done=true;
+                pending.remove();
             }
         }
+        cancelledAlarms=0;
+        for(AlarmHandle handle: postponedAlarms)
+            if(handle.alarm.equals(alarm))
+                handle.done=true;
+        Iterator<DeferredTask> waiting=deferred.iterator();
+        while(waiting.hasNext())
+            if(waiting.next().task.equals(alarm))
+                waiting.remove();
+        if(alarm instanceof Script)
+            ((Script)alarm).cancel();
+        if(alarm instanceof AsyncTask)
+            ((AsyncTask<?>)alarm).cancel();
     }
 
     /**
-     * removes all pending alarms. 
+     * removes all pending alarms and deferred work,
+     * stops all scripts and cancels all work submitted
+     * by submitAsync. 
      * If there are no pending alarms, 
      * the method call is ignored.
      */
     public void cancelAllAlarms()
     {
+        for(AlarmHandle handle: alarms)
+            handle.done=true;
         alarms.clear();
+        cancelledAlarms=0;
+        for(AlarmHandle handle: postponedAlarms)
+            handle.done=true;
+        postponedAlarms.clear();
+        deferred.clear();
+        for(Script script: scripts.toArray(new Script[0]))
+            script.cancel();
+        for(AsyncTask<?> task: asyncTasks.toArray(new AsyncTask<?>[0]))
+            task.cancel();
     }
 
     /**gets the list of alarms scheduled to go
-     * off in the future.
+     * off in the future.  Scripts waiting for
+     * model steps, work from submitAsync which
+     * has not finished and deferred work are
+     * included at the end.
      * @return the array of alarms in the order
      * which they would go off
      */
     public Alarm[] getAlarms()
     {
-    	LinkedList<Alarm> all=new LinkedList<Alarm>();
-    	for(LinkedList<Alarm> list: alarms.values())
-    		all.addAll(list);
-        return all.toArray(new Alarm[0]);
+    	AlarmHandle[] all=alarms.toArray(new AlarmHandle[0]);
+    	Arrays.sort(all);
+    	LinkedList<Alarm> pending=new LinkedList<Alarm>();
+    	for(AlarmHandle handle: all)
+    		if(!handle.done)
+    			pending.add(handle.alarm);
+    	pending.addAll(frameWaiters);
+    	for(AsyncTask<?> task: asyncTasks)
+    		if(!pending.contains(task))
+    			pending.add(task);
+    	for(DeferredTask waiting: deferred)
+    		pending.add(waiting.task);
+        return pending.toArray(new Alarm[0]);
     }
     
+    /**
+     * sets off every alarm due by the end of the
+     * current model step as one batch.  The alarms
+     * go off in the order of their scheduled time,
+     * and alarms scheduled for the same time go off
+     * in the order in which they were scheduled.
+     * While each alarm goes off, the current time is
+     * the time the alarm was due, so alarms which
+     * schedule other alarms relative to the current
+     * time do not drift.  One-shot alarms scheduled
+     * while the batch is going off wait for the next
+     * step, which keeps alarms that reschedule
+     * themselves zero seconds from now from looping
+     * forever.
+     * @param stepEnd the absolute time at the end
+     * of the current model step
+     */
+    private void setOffAlarms(double stepEnd)
+    {
+        double stepStart=currentTime;
+        long lastSequence=alarmSequence;
+        try
+        {
+            AlarmHandle next=nextAlarm();
+            while(next!=null && next.time<=stepEnd)
+            {
+                alarms.poll();
+                if(next.sequence<lastSequence || next.period>0)
+                {
+                    currentTime=Math.max(stepStart, next.time);
+                    setOff(next);
+                }
+                else
+                    postponedAlarms.add(next);
+                next=nextAlarm();
+            }
+        }
+        finally
+        {
+            currentTime=stepStart;
+            if(!postponedAlarms.isEmpty())
+            {
+                for(AlarmHandle handle: postponedAlarms)
+                    if(!handle.done)
+                        alarms.add(handle);
+                postponedAlarms.clear();
+            }
+        }
+    }
+
     /**
      * updates the model between displays. 
      * This method can split the time passed
      * if more time has passed since the 
      * last display than the maximum time
      * interval allowable for the model frame rate.
+     * All alarms due within a step go off together
+     * at the start of the step, then the sprites
+     * are advanced once for the whole step.
+     * When a fixed model frame rate is set, the
+     * model only advances in whole steps of the
+     * fixed size.  Time left over which is not
+     * enough for a whole step carries over to the
+     * next call, and the sprites are drawn the
+     * matching fraction of the way between their
+     * last two model states.
      * @param time the current absolute time
      */
     public void updateModel(double time)
     {
+        if(frameStart==0)
+            frameStart=System.nanoTime();
+        if(fixedTimeStep>0)
+        {
+            //the tolerance keeps rounding in the sum of
+            //the steps from holding back a whole step
+            while(time-currentTime>=fixedTimeStep*(1-1e-9))
+                advanceModel(fixedTimeStep);
+            canvas.setInterpolation((time-currentTime)/fixedTimeStep);
+            return;
+        }
         double timeInterval = time - currentTime;
         while (timeInterval > 0)
         {
-            double timeToNextAlarm=Double.MAX_VALUE;
-            if(!alarms.isEmpty())
-            {
-                timeToNextAlarm=alarms.firstKey()-currentTime;
-            }
             double advanced = Math.min(timeInterval, maxModelTimeInterval);
-            advanced=Math.min(advanced, timeToNextAlarm);
-            if(alarms.size()>0 &&
-                    currentTime-alarms.firstKey()==advanced)
-            {
-                LinkedList<Alarm> alarmsToSetOff=
-                    alarms.remove(alarms.firstKey());
-                for(Alarm alarm: alarmsToSetOff)
-                {
-                    alarm.alarm();
-                }
-            }
-            canvas.updateSprites(advanced);
-            currentTime += advanced;
+            advanceModel(advanced);
             timeInterval -= advanced;
-        	try
-        	{
-                advanceFrame(advanced);
-                postAdvanceFrame(advanced);
-        	}
-        	catch(Exception e)
-        	{
-        		Container container=getContentPane();
-        		JPanel panel=new JPanel(new GridLayout(2, 1));
-        		panel.add(container);
-        		JTextArea errorMessage=new JTextArea();
-        		errorMessage.setText("Cannot advanceFrame!\n");
-        		errorMessage.append("Caused by Exception: "+e.toString()+"\n");
-        		for(StackTraceElement ste: e.getStackTrace())
-        			errorMessage.append("\t"+ste+"\n");
-        		panel.add(new JScrollPane(errorMessage));
-        		setContentPane(panel);
-        		stop();
-        	}
-        
-}
+        }
+    }
+
+    /**
+     * advances the model by one step: delivers the
+     * results of finished work from submitAsync, sets
+     * off the alarms due in the step, continues the scripts
+     * waiting for this step, advances the sprites,
+     * then calls advanceFrame.  When rewinding, recorded
+     * steps are undone in place of everything before
+     * advanceFrame.
+     * @param advanced the duration of the step
+     */
+    private void advanceModel(double advanced)
+    {
+        RewindBuffer recorder=rewinding?null:rewindBuffer;
+        if(rewinding)
+        {
+            rewindBuffer.rewind(advanced);
+            holdTime(advanced);
+        }
+        else
+        {
+            modelFrame++;
+            if(recorder!=null)
+                recorder.beginStep();
+            deliverFinishedTasks();
+            setOffAlarms(currentTime+advanced);
+            resumeFrameScripts();
+            if(recorder!=null)
+                recorder.updatingSprites();
+            canvas.updateSprites(advanced);
+            if(recorder!=null)
+                recorder.spritesUpdated();
+        }
+        currentTime += advanced;
+    	try
+    	{
+            advanceFrame(advanced);
+            postAdvanceFrame(advanced);
+    	}
+    	catch(Exception e)
+    	{
+    		handleFrameException(e);
+    	}
+        if(recorder!=null)
+            recorder.endStep(advanced);
+    }
+
+    /**
+     * keeps the game time and the pending alarms where
+     * they are while a model step is rewound, so that
+     * alarms and scripts carry on afterwards as if no
+     * time had passed
+     * @param advanced the duration of the step
+     */
+    private void holdTime(double advanced)
+    {
+        timeOffset+=advanced;
+        for(AlarmHandle handle: alarms)
+            handle.time+=advanced;
+    }
+
+    /**
+     * reports an exception thrown while advancing
+     * the frame.  By default the error is shown
+     * below the game and the game is stopped.
+     * @param e the exception thrown by advanceFrame,
+     * postAdvanceFrame or a script resumed after
+     * waitFrames
+     */
+    protected void handleFrameException(Exception e)
+    {
+    	Container container=getContentPane();
+    	JPanel panel=new JPanel(new GridLayout(2, 1));
+    	panel.add(container);
+    	JTextArea errorMessage=new JTextArea();
+    	errorMessage.setText("Cannot advanceFrame!\n");
+    	errorMessage.append("Caused by Exception: "+e.toString()+"\n");
+    	for(StackTraceElement ste: e.getStackTrace())
+    		errorMessage.append("\t"+ste+"\n");
+    	panel.add(new JScrollPane(errorMessage));
+    	setContentPane(panel);
+    	stop();
     }
     
     /**sets the cursor for the game engine
@@ -314,8 +1053,9 @@ public abstract class FrameAdvancer
     public abstract void postAdvanceFrame(double timePassed);
     
     /**
-     * updates the AnimationCanvas, should only be called from the AWTEvent
-     * Thread.
+     * updates the AnimationCanvas, then runs deferred
+     * work while the frame is within its budget.
+     * Should only be called from the AWTEvent Thread.
      */
     public void refreshScreen()
     {
@@ -323,6 +1063,7 @@ public abstract class FrameAdvancer
         refreshTimes.addLast(currentTime);
         canvas.paintImmediately();
         controlPanel.repaint();
+        runDeferredWork();
     }
     
     /**
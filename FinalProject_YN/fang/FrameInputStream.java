@@ -0,0 +1,106 @@
+package fang;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the bytes of the length-prefixed frames sent
+ * by a FrameOutputStream, one frame after another,
+ * as though they were a single stream.  This is used
+ * by Clients connected to an NioServer.
+ * @author Jam Jenkins
+ */
+final class FrameInputStream extends InputStream
+{
+    /**where the frames come from*/
+    private final DataInputStream source;
+
+    /**the bytes left in the current frame*/
+    private int remaining=0;
+
+    /**
+     * makes a stream reading frames
+     * @param source where the frames come from
+     */
+    FrameInputStream(InputStream source)
+    {
+        this.source=new DataInputStream(source);
+    }
+
+    /**moves to the next frame if the current one
+     * has been read, waiting for it if needed
+     * @return true if there are bytes to read, false
+     * at the end of the stream
+     * @throws IOException if the frame is corrupt
+     */
+    private boolean nextFrame() throws IOException
+    {
+        while(remaining==0)
+        {
+            try
+            {
+                remaining=source.readInt();
+            }
+            catch(EOFException eof)
+            {
+                return false;
+            }
+            if(remaining<0 || remaining>FrameOutputStream.MAX_FRAME)
+                throw new IOException("Bad frame length: "+remaining);
+        }
+        return true;
+    }
+
+    /**reads one byte
+     * @return the byte, or -1 at the end of the stream
+     */
+    public int read() throws IOException
+    {
+        if(!nextFrame())
+            return -1;
+        int b=source.read();
+        if(b>=0)
+            remaining--;
+        return b;
+    }
+
+    /**reads bytes from the current frame
+     * @param bytes where to put the bytes
+     * @param offset where to start putting them
+     * @param length the most bytes to read
+     * @return the number of bytes read, or -1 at
+     * the end of the stream
+     */
+    public int read(byte[] bytes, int offset, int length)
+        throws IOException
+    {
+        if(length==0)
+            return 0;
+        if(!nextFrame())
+            return -1;
+        int read=source.read(bytes, offset, Math.min(length, remaining));
+        if(read>0)
+            remaining-=read;
+        return read;
+    }
+
+    /**estimates how many bytes can be read without
+     * waiting, leaving out the length of the next frame
+     * @return the number of bytes ready
+     */
+    public int available() throws IOException
+    {
+        int ready=source.available();
+        if(remaining>0)
+            return Math.min(remaining, ready);
+        return Math.max(0, ready-4);
+    }
+
+    /**closes the source*/
+    public void close() throws IOException
+    {
+        source.close();
+    }
+}
@@ -0,0 +1,109 @@
+package fang;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects what is written and sends it as one
+ * length-prefixed frame each time the stream is
+ * flushed.  A frame is a four byte length followed
+ * by that many bytes.  Because the receiver always
+ * knows how long a frame is, it can wait until the
+ * whole frame has arrived before reading any of it,
+ * which is what lets the NioServer read from many
+ * connections without ever blocking.
+ * @author Jam Jenkins
+ */
+final class FrameOutputStream extends OutputStream
+{
+    /**the largest frame which may be sent or received*/
+    static final int MAX_FRAME=1<<20;
+
+    /**where the frames are sent*/
+    private final OutputStream target;
+
+    /**the frame being collected, starting with
+     * room for its length*/
+    private byte[] buffer=new byte[256];
+
+    /**the number of bytes used in the buffer,
+     * including the length*/
+    private int count=4;
+
+    /**
+     * makes a stream sending frames
+     * @param target where the frames are sent
+     */
+    FrameOutputStream(OutputStream target)
+    {
+        this.target=target;
+    }
+
+    /**makes room for more bytes in the frame
+     * @param more the number of bytes to add
+     * @throws IOException if the frame would be too long
+     */
+    private void ensure(int more) throws IOException
+    {
+        if(count+more-4>MAX_FRAME)
+            throw new IOException("Frame too long: "+(count+more-4));
+        if(count+more>buffer.length)
+        {
+            byte[] larger=new byte[Math.max(2*buffer.length, count+more)];
+            System.arraycopy(buffer, 0, larger, 0, count);
+            buffer=larger;
+        }
+    }
+
+    /**adds a byte to the frame
+     * @param b the byte to add
+     */
+    public void write(int b) throws IOException
+    {
+        ensure(1);
+        buffer[count++]=(byte)b;
+    }
+
+    /**adds bytes to the frame
+     * @param bytes holds the bytes to add
+     * @param offset where the bytes start
+     * @param length the number of bytes
+     */
+    public void write(byte[] bytes, int offset, int length)
+        throws IOException
+    {
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count+=length;
+    }
+
+    /**sends what has been written as one frame.
+     * Nothing is sent if nothing has been written.*/
+    public void flush() throws IOException
+    {
+        if(count>4)
+        {
+            int length=count-4;
+            buffer[0]=(byte)(length>>>24);
+            buffer[1]=(byte)(length>>>16);
+            buffer[2]=(byte)(length>>>8);
+            buffer[3]=(byte)length;
+            target.write(buffer, 0, count);
+            count=4;
+        }
+        target.flush();
+    }
+
+    /**sends what has been written and closes the target*/
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            target.close();
+        }
+    }
+}
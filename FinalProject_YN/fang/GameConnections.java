@@ -7,12 +7,12 @@
 package fang;
 
 import java.awt.event.KeyEvent;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import fang.Keyboard;
 import fang.Mouse;
@@ -68,7 +68,7 @@ public class GameConnections
     private LinkedList<Character>[] pendingKeystrokes;
     
     /** used to repeatedly write to the clients */
-    private Timer timer;
+    private TickScheduler.Ticker ticker;
     
     /** dirty bit indicating if the server has read new
      * information from the clients.  This is set to false
@@ -97,6 +97,42 @@ public class GameConnections
      */
     private ObjectOutputStream[] out;
 
+    /**
+     * the connections to clients speaking the binary
+     * protocol.  For each client either the link or
+     * the in and out streams are used.
+     */
+    private GameLink[] links;
+
+    /** writes the frames for the links */
+    private WireProtocol.Writer writer = new WireProtocol.Writer();
+
+    /** the input sent in the most recent updates,
+     * indexed by sequence number modulo HISTORY */
+    private InputSnapshot[] history =
+        new InputSnapshot[InputSnapshot.HISTORY];
+
+    /** the input being sent in this update */
+    private InputSnapshot snapshot;
+
+    /** the sequence number of the last snapshot */
+    private int sequence = 0;
+
+    /** for each link, the sequence number of the
+     * snapshot the client is known to have */
+    private int[] baseline;
+
+    /** the TICK frames encoded in this update, shared
+     * by every link with the same baseline */
+    private ByteBuffer[] tickFrames;
+
+    /** the baseline each of the tickFrames is
+     * encoded against */
+    private int[] tickBaselines;
+
+    /** the number of tickFrames encoded in this update */
+    private int tickCount;
+
     /** the state of the game connections to the server.
      * True indicates everything is connected and active.
      * False indicates disconnected or not yet connected
@@ -116,6 +152,30 @@ public class GameConnections
      * closed, then the thread should terminate.
      */
     private int pauseCount;
+
+    /** the name of the game being played */
+    private final String gameName;
+
+    /** true if startThreads is called once every
+     * player has joined.  Servers which send the
+     * updates themselves turn this off.
+     */
+    private boolean ownTimer = true;
+
+    /** the number of places reserved whose clients
+     * have not yet been added */
+    private int joining = 0;
+
+    /** true once a server has taken on sending the
+     * updates of this game */
+    private boolean updatesClaimed = false;
+
+    /** held while writing to the clients before the
+     * game starts.  Clients are added holding this
+     * rather than the lock the Lobby chooses places
+     * with, so a slow client does not hold up the
+     * Lobby. */
+    private final Object joinLock = new Object();
     
     /**constructs a server without blocking.
      * @param gameName the name of the game being played
@@ -127,8 +187,13 @@ public class GameConnections
 	public GameConnections(String gameName, 
             String sessionName, int players)
     {
+        this.gameName = gameName;
         in = new ObjectInputStream[players];
         out = new ObjectOutputStream[players];
+        links = new GameLink[players];
+        baseline = new int[players];
+        tickFrames = new ByteBuffer[players];
+        tickBaselines = new int[players];
         keyboard = new Keyboard[players];
         mouse = new Mouse[players];
         message = new Object[players];
@@ -163,7 +228,7 @@ public class GameConnections
      * @return the remaining connections
      * to be made to other players
      */
-    private int getPlayersLeft()
+    int getPlayersLeft()
     {
         int left=0;
         for (boolean active : activeStreams)
@@ -172,6 +237,22 @@ public class GameConnections
         return left;        
     }
 
+    /**gets the number of players the game is for
+     * @return the number of clients connecting
+     */
+    int getPlayers()
+    {
+        return activeStreams.length;
+    }
+
+    /**gets the name of the game being played
+     * @return the game name given when constructed
+     */
+    String getGameName()
+    {
+        return gameName;
+    }
+
     /**determines if any stream is active
      * @return true if any stream is available
      * for sending and receiving information,
@@ -180,7 +261,12 @@ public class GameConnections
     public boolean isActive()
     {
     	if(currentTime<0)
-    		sendJoinedMessage(getPlayersLeft());
+    	{
+    		synchronized(joinLock)
+    		{
+    			sendJoinedMessage(getPlayersLeft());
+    		}
+    	}
         for (boolean activity : activeStreams)
             if (activity)
                 return true;
@@ -216,8 +302,18 @@ public class GameConnections
     private void sendFirstClientMessage()
         throws IOException
     {
-        for (ObjectOutputStream o : out)
+        long seed = (Long) message[0];
+        for (int j = 0; j < out.length; j++)
         {
+            if (links[j] != null)
+            {
+                writer.begin(WireProtocol.START);
+                writer.writeInt(out.length);
+                writer.writeLong(seed);
+                links[j].send(writer.end());
+                continue;
+            }
+            ObjectOutputStream o = out[j];
             o.writeObject(keyboard);
             o.writeObject(mouse);
             o.writeObject(message);
@@ -235,10 +331,18 @@ public class GameConnections
         for (int j=0; j<out.length; j++)
         {
             ObjectOutputStream o=out[j];
-            if(!activeStreams[j])
+            //skip places reserved for clients not yet added
+            if(!activeStreams[j] || (o==null && links[j]==null))
                 continue;
             try
             {
+                if(links[j]!=null)
+                {
+                    writer.begin(WireProtocol.WAITING);
+                    writer.writeInt(left);
+                    links[j].send(writer.end());
+                    continue;
+                }
                 o.writeInt(left);
                 o.flush();
                 o.reset();
@@ -253,28 +357,33 @@ public class GameConnections
     
     /**handles exceptions of broken connections.  If the
      * game has yet to start, then it just clears the active
-     * stream to make room for another to connect.  If all
-     * of the streams were active, then consistency can never
+     * stream to make room for another to connect.  If the
+     * game has started, then consistency can never
      * be regained with a re-connection, so all connections
      * are terminated at the beginning of the game.
      * @param clientIndex the index of the failed connection
      */
-    private void handleBrokenConnection(int clientIndex)
+    private synchronized void handleBrokenConnection(int clientIndex)
     {
-        if (isFull())
+        if (isStarted())
         {
             for (int j = 0; j < out.length; j++)
             {
                 try
                 {
-                    out[j].close();
-                    in[j].close();
+                    if (links[j] != null)
+                        links[j].close();
+                    if (out[j] != null)
+                        out[j].close();
+                    if (in[j] != null)
+                        in[j].close();
                 } catch (IOException io)
                 {
                 }
                 activeStreams[j] = false;
                 out[j] = null;
                 in[j] = null;
+                links[j] = null;
             }
         } 
         else if (clientIndex < activeStreams.length)
@@ -292,54 +401,180 @@ public class GameConnections
     public boolean addConnection(
             ObjectOutputStream outStream,
             ObjectInputStream inStream)
+    {
+        return addConnection(reserve(), outStream, inStream, null);
+    }
+
+    /**
+     * adds a connection to a client speaking the
+     * binary protocol.  This method does not block.
+     * @param link the connection to the client
+     * @return true if the client joined, false if
+     * the game was full or already in play
+     */
+    boolean addConnection(GameLink link)
+    {
+        return addConnection(reserve(), null, null, link);
+    }
+
+    /**
+     * adds a connection to a place given by reserve
+     * @param place the place, or -1 to tell the client
+     * the game is full
+     * @param outStream the stream to the client
+     * @param inStream the stream from the client
+     * @return true if the client joined
+     */
+    boolean addConnection(int place,
+            ObjectOutputStream outStream,
+            ObjectInputStream inStream)
+    {
+        return addConnection(place, outStream, inStream, null);
+    }
+
+    /**
+     * adds a binary client to a place given by reserve
+     * @param place the place, or -1 to tell the client
+     * the game is full
+     * @param link the connection to the client
+     * @return true if the client joined
+     */
+    boolean addConnection(int place, GameLink link)
+    {
+        return addConnection(place, null, null, link);
+    }
+
+    /**
+     * reserves a place for a client.  The Lobby calls
+     * this holding the lock on this object, then adds
+     * the client after letting go of it, so that
+     * writing to a slow client does not hold up
+     * other players choosing games.  The game does not
+     * start until every reserved place is filled.
+     * @return the place, or -1 if the game is full
+     * or already in play
+     */
+    synchronized int reserve()
     {
         //don't allow to join games in session
-        if(currentTime>0)
+        if (currentTime > 0)
+            return -1;
+        int place = getFirstInactiveStream();
+        if (place == out.length)
+            return -1;
+        activeStreams[place] = true;
+        joining++;
+        return place;
+    }
+
+    /**takes on sending this game's updates.  Only
+     * the first caller once the game has started is
+     * given them, so that the updates are sent once.
+     * @return true if the caller should send the updates
+     */
+    synchronized boolean claimUpdates()
+    {
+        if (!isStarted() || updatesClaimed)
+            return false;
+        updatesClaimed = true;
+        return true;
+    }
+
+    /**
+     * adds a connection speaking either protocol to
+     * a reserved place, starting the game once every
+     * place is filled
+     * @param activationIndex the place, or -1 to tell
+     * the client the game is full
+     * @param outStream the stream to the client, or
+     * null for a binary client
+     * @param inStream the stream from the client, or
+     * null for a binary client
+     * @param link the connection to a binary client,
+     * or null
+     * @return true if the client joined
+     */
+    private boolean addConnection(int activationIndex,
+            ObjectOutputStream outStream,
+            ObjectInputStream inStream,
+            GameLink link)
+    {
+        synchronized (joinLock)
         {
-            try
+            if (activationIndex < 0)
             {
-                outStream.writeObject("Game already in play.");
-                outStream.flush();
+                reply(outStream, link, currentTime > 0 ?
+                        "Game already in play." : "Game already full.");
+                return false;
             }
-            catch(IOException ioe)
+            boolean joined = fill(activationIndex, outStream, inStream, link);
+            boolean start;
+            synchronized (this)
             {
-                ioe.printStackTrace();
+                joining--;
+                start = joined && isFull() && joining == 0 && currentTime < 0;
+                if (start)
+                    currentTime = 0;
             }
-            return false;
-        }
-        int activationIndex = getFirstInactiveStream();
-        if (activationIndex == out.length)
-        {
+            if (!start)
+                return joined;
             try
             {
-                outStream.writeObject("Game already full.");
-                outStream.flush();
-            }
-            catch(IOException ioe)
+                sendFirstClientMessage();
+                if (ownTimer)
+                    startThreads();
+                return true;
+            } catch (IOException ioe)
             {
                 ioe.printStackTrace();
+                handleBrokenConnection(activationIndex);
+                return false;
             }
-            return false;
         }
+    }
+
+    /**
+     * puts a client in its reserved place and tells
+     * every client how many players are left to join
+     * @param activationIndex the place
+     * @param outStream the stream to the client, or
+     * null for a binary client
+     * @param inStream the stream from the client, or
+     * null for a binary client
+     * @param link the connection to a binary client,
+     * or null
+     * @return true if the client joined
+     */
+    private boolean fill(int activationIndex,
+            ObjectOutputStream outStream,
+            ObjectInputStream inStream,
+            GameLink link)
+    {
         try
         {
-            activeStreams[activationIndex] = true;
             out[activationIndex] = outStream;
             in[activationIndex] = inStream;
-            out[activationIndex].writeObject("Success");
-            out[activationIndex].flush();
-            out[activationIndex].writeInt(activationIndex);
-            out[activationIndex].flush();
+            links[activationIndex] = link;
+            baseline[activationIndex] = 0;
+            if (link != null)
+            {
+                link.send(writer.begin(WireProtocol.TEXT)
+                        .text("Success"));
+                writer.begin(WireProtocol.JOINED);
+                writer.writeInt(activationIndex);
+                link.send(writer.end());
+            }
+            else
+            {
+                out[activationIndex].writeObject("Success");
+                out[activationIndex].flush();
+                out[activationIndex].writeInt(activationIndex);
+                out[activationIndex].flush();
+            }
             //this write discovers any disconnected clients
             sendJoinedMessage(1);
             //so this write gives the correct number
             sendJoinedMessage(getPlayersLeft());
-            if (isFull())
-            {
-            	currentTime=0;
-                sendFirstClientMessage();
-                startThreads();
-            }
             return true;
         } catch (IOException ioe)
         {
@@ -350,6 +585,31 @@ public class GameConnections
     }
     
 
+    /**sends a text answer to a client which is not
+     * joining
+     * @param outStream the stream to the client, or null
+     * @param link the connection to the client, or null
+     * @param text the answer
+     */
+    private void reply(ObjectOutputStream outStream, GameLink link,
+            String text)
+    {
+        try
+        {
+            if (link != null)
+                link.send(writer.begin(WireProtocol.TEXT).text(text));
+            else
+            {
+                outStream.writeObject(text);
+                outStream.flush();
+            }
+        }
+        catch(IOException ioe)
+        {
+            ioe.printStackTrace();
+        }
+    }
+
     /**
      * reads any available new information from the
      * clients.  This method does not block.
@@ -375,6 +635,11 @@ public class GameConnections
     private void writeClient(int clientIndex)
         throws IOException
     {
+        if (links[clientIndex] != null)
+        {
+            links[clientIndex].send(encodeTick(clientIndex));
+            return;
+        }
         out[clientIndex].reset();
         out[clientIndex].writeDouble(currentTime);
         //write out the arrays only if there
@@ -402,6 +667,74 @@ public class GameConnections
         }        
     }
     
+    /**encodes an update for a client speaking the
+     * binary protocol.  The input is sent as the
+     * differences from the last snapshot the client
+     * is known to have.  Each update is encoded once
+     * for all of the clients with the same snapshot,
+     * which is usually all of them, and the same
+     * frame is sent to each.
+     * @param clientIndex the client to encode for
+     * @return the TICK frame
+     * @throws IOException if a message cannot be encoded
+     */
+    private ByteBuffer encodeTick(int clientIndex) throws IOException
+    {
+        InputSnapshot base = getSnapshot(baseline[clientIndex]);
+        int baseNumber = base == null ? 0 : base.sequence;
+        if (links[clientIndex].isReliable())
+            baseline[clientIndex] = snapshot.sequence;
+        for (int k = 0; k < tickCount; k++)
+            if (tickBaselines[k] == baseNumber)
+                return tickFrames[k];
+        writer.begin(WireProtocol.TICK);
+        writer.writeDouble(currentTime);
+        int flags = isPaused ? WireProtocol.PAUSED : 0;
+        if (hasReadClients)
+            flags |= WireProtocol.HAS_INPUT;
+        writer.writeByte(flags);
+        WireProtocol.writeVarInt(writer, snapshot.sequence);
+        WireProtocol.writeVarInt(writer, baseNumber);
+        snapshot.writeDelta(writer, base);
+        tickBaselines[tickCount] = baseNumber;
+        tickFrames[tickCount] = writer.end();
+        return tickFrames[tickCount++];
+    }
+
+    /**gets a recent snapshot
+     * @param number the sequence number of the snapshot
+     * @return the snapshot, or null if it is no
+     * longer kept
+     */
+    private InputSnapshot getSnapshot(int number)
+    {
+        if (number <= 0)
+            return null;
+        InputSnapshot recent = history[number % history.length];
+        if (recent == null || recent.sequence != number)
+            return null;
+        return recent;
+    }
+
+    /**quantizes the mice and takes the snapshot of
+     * the input sent to the links in this update.
+     * Nothing is done if no client uses a link.
+     */
+    private void takeSnapshot()
+    {
+        boolean anyLinks = false;
+        for (GameLink link : links)
+            if (link != null)
+                anyLinks = true;
+        if (!anyLinks)
+            return;
+        for (Mouse m : mouse)
+            m.quantize(InputSnapshot.SCALE);
+        sequence++;
+        snapshot = InputSnapshot.capture(sequence, keyboard, mouse, message);
+        history[sequence % history.length] = snapshot;
+    }
+
     /**writes an update to all client.  If no reads from
      * clients have been made since last transmission, only
      * the new time is sent.  Otherwise all arrays are transmitted.
@@ -409,6 +742,7 @@ public class GameConnections
      */
     private void writeClients()
     {
+        takeSnapshot();
         for (int i = 0; i < out.length; i++)
         {
             try
@@ -420,6 +754,9 @@ public class GameConnections
                 activeStreams[i] = false;
             }
         } 
+        for (int k = 0; k < tickCount; k++)
+            tickFrames[k] = null;
+        tickCount = 0;
         hasReadClients=false;
     }
     
@@ -435,7 +772,8 @@ public class GameConnections
         {
             try
             {
-                out[i].flush();
+                if (out[i] != null)
+                    out[i].flush();
                 //out[i].reset();
             } catch (IOException ioe)
             {
@@ -511,6 +849,8 @@ public class GameConnections
     {
         try
         {
+            if(links[clientIndex]!=null)
+                return readLink(clientIndex);
             boolean changed=false;
             if(in[clientIndex].available() <= 0)
                 return changed;
@@ -561,58 +901,100 @@ public class GameConnections
     }
         
 
-    /**used to repeatedly write to the clients
-     * @author Jam Jenkins
+    /**reads the INPUT frames received from a client
+     * speaking the binary protocol
+     * @param clientIndex the client to read from
+     * @return true if new information was read
+     * @throws IOException if the connection is closed
+     * or a frame is corrupt
      */
-    class WriterThread extends TimerTask
+    @SuppressWarnings("unchecked")
+    private boolean readLink(int clientIndex) throws IOException
     {
-        /**writes to the clients once*/
-        public void run()
+        boolean changed=false;
+        byte[] frame;
+        while((frame=links[clientIndex].receive())!=null)
         {
-            write();
-            if (!isActive())
+            if(frame[0]==WireProtocol.ACK)
             {
-                synchronized(in)
-                {
-                    in.notifyAll();
-                }
-                this.cancel();
+                int acked=WireProtocol.readVarInt(WireProtocol.reader(frame));
+                if(acked>baseline[clientIndex] && getSnapshot(acked)!=null)
+                    baseline[clientIndex]=acked;
+                continue;
+            }
+            if(frame[0]!=WireProtocol.INPUT)
+                continue;
+            DataInputStream input=WireProtocol.reader(frame);
+            int flags=input.readUnsignedByte();
+            Keyboard board=keyboard[clientIndex];
+            char oldKey=board.getLastKey();
+            board.setLastKey(KeyEvent.CHAR_UNDEFINED);
+            board.readCompact(input);
+            if(oldKey!=KeyEvent.CHAR_UNDEFINED)
+            {
+                if(board.getLastKey()!=KeyEvent.CHAR_UNDEFINED)
+                    pendingKeystrokes[clientIndex].addLast(board.getLastKey());
+                board.setLastKey(oldKey);
+            }
+            mouse[clientIndex].readCompact(input);
+            Object object=WireProtocol.readMessage(input);
+            if(object!=null)
+            {
+                if(message[clientIndex]!=null)
+                    pendingMessages[clientIndex].addLast(object);
+                else
+                    message[clientIndex] = object;
             }
+            if((flags&WireProtocol.TOGGLE_PAUSE)!=0)
+            {
+                if(currentTime==0 && isPaused)
+                    isPaused=false;
+                if(currentTime>1)
+                    isPaused = !isPaused;
+            }
+            changed=true;
         }
+        return changed;
     }
 
     /**
-     * necessary to keep the timer alive.
-     * If the current thread were to die,
-     * then all corresponding times would
-     * be cancelled.
+     * keeps addConnection from starting the updates
+     * once every player has joined.  The caller must
+     * then call write every TIME_BETWEEN_UPDATES
+     * milliseconds until isActive returns false.
      */
-    private void keepThreadAlive()
+    void setWrittenByServer()
     {
-        synchronized(in)
-        {
-            try
-            {
-                in.wait();
-            }
-            catch(InterruptedException ioe)
-            {
-            }
-        }
+        ownTimer = false;
     }
-    
+
+    /**determines if every player has joined and
+     * updates are being sent
+     * @return true once the game has started
+     */
+    boolean isStarted()
+    {
+        return currentTime >= 0;
+    }
+
     /**
-     * starts the writing to the clients.  This method
-     * will never terminate.
+     * starts the writing to the clients on the shared
+     * TickScheduler.  This method returns at once and
+     * the updates stop once no client is connected.
      */
     public void startThreads()
     {
         currentTime = 0;
-        timer=new java.util.Timer(true);
-        timer.scheduleAtFixedRate(new WriterThread(), 0,
-                TIME_BETWEEN_UPDATES);
-        //must keep thread alive to make sure
-        //the timer continues to be active
-        keepThreadAlive();
+        ticker = TickScheduler.schedule(this);
+    }
+
+    /**gets what is sending the updates, which records
+     * how late they are
+     * @return the Ticker, or null if the updates are
+     * not sent by startThreads or have not started
+     */
+    TickScheduler.Ticker getTicker()
+    {
+        return ticker;
     }
 }
@@ -3,6 +3,7 @@ package fang;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 /**This class mimicks the GameLoop.  Any game
  * which extends GameLoop can be made to extend
@@ -553,11 +554,12 @@ public abstract class GameLevel
      *            the class to call the alarm method on
      * @param relative
      *            the time from now in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
      */
 
-    public void scheduleRelative(Alarm alarm, double relative)
+    public AlarmHandle scheduleRelative(Alarm alarm, double relative)
     {
-        gameLoop.scheduleRelative(alarm, relative);
+        return gameLoop.scheduleRelative(alarm, relative);
     }
 
     /**
@@ -571,10 +573,103 @@ public abstract class GameLevel
      *            the class to call the alarm method on
      * @param absolute
      *            the time in seconds to call the alarm method
+     * @return the handle which can be used to cancel this alarm
      */
-    public void scheduleAbsolute(Alarm alarm, double absolute)
+    public AlarmHandle scheduleAbsolute(Alarm alarm, double absolute)
     {
-        gameLoop.scheduleAbsolute(alarm, absolute);
+        return gameLoop.scheduleAbsolute(alarm, absolute);
+    }
+
+    /**
+     * sets an alarm to go off repeatedly, starting one period
+     * from the current time.  The same handle is used for
+     * every repeat, so the alarm can be stopped at any time
+     * by cancelling the returned handle.
+     * 
+     * @param alarm
+     *            the class to call the alarm method on
+     * @param period
+     *            the time in seconds between repeats, must be positive
+     * @param count
+     *            how many times to call the alarm method, or zero
+     *            or less to repeat until cancelled
+     * @return the handle which can be used to cancel this alarm
+     */
+    public AlarmHandle scheduleRepeating(Alarm alarm, double period, int count)
+    {
+        return gameLoop.scheduleRepeating(alarm, period, count);
+    }
+
+    /**
+     * starts a script.  The script runs right away
+     * until it first waits, then is continued as the
+     * model advances.  Unless it is made persistent,
+     * the script is stopped when the level ends.
+     * Before Java 21 each script needs an operating
+     * system thread of its own, so only Java 21 and
+     * later make thousands of scripts cheap.
+     * 
+     * @param script the behaviour to start
+     */
+    public void startScript(Script script)
+    {
+        gameLoop.startScript(script);
+    }
+
+    /**
+     * runs slow work off of the model thread and
+     * passes the result to the consumer on the model
+     * thread at the start of the next model step
+     * after the work finishes.  Unless it is made
+     * persistent, the task is cancelled when the
+     * level ends.
+     * 
+     * @param work the work to do
+     * @param consumer receives the result
+     * @return the task, which can be used to cancel the work
+     */
+    public <T> AsyncTask<T> submitAsync(Callable<T> work,
+            ResultConsumer<T> consumer)
+    {
+        return gameLoop.submitAsync(work, consumer);
+    }
+
+    /**
+     * queues low priority work to be done when a frame
+     * has time to spare.  The work must not change
+     * anything which needs to be the same for every
+     * player.  Unless it is made persistent, work not
+     * yet done is dropped when the level ends.
+     * 
+     * @param task the work, whose alarm method is called
+     */
+    public void defer(Alarm task)
+    {
+        gameLoop.defer(task);
+    }
+
+    /**
+     * starts or stops running time backward through
+     * the steps recorded by the game's RewindBuffer.
+     * While rewinding, advanceFrame should leave
+     * the game as it is.
+     * 
+     * @param rewinding true to run backward, false
+     * to play normally
+     */
+    public void setRewinding(boolean rewinding)
+    {
+        gameLoop.setRewinding(rewinding);
+    }
+
+    /**
+     * tells whether time is running backward
+     * 
+     * @return true if rewinding, false otherwise
+     */
+    public boolean isRewinding()
+    {
+        return gameLoop.isRewinding();
     }
     
     /**
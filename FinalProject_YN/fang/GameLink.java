@@ -0,0 +1,38 @@
+package fang;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A connection to one Client speaking the binary
+ * protocol.  GameConnections sends frames through
+ * a GameLink and takes the frames the Client sent
+ * from it, without ever waiting on the network.
+ * @author Jam Jenkins
+ */
+interface GameLink
+{
+    /**queues a frame to be sent.  The frame's
+     * contents must not be changed afterwards.
+     * @param frame the frame, including its length
+     * @throws IOException if the connection is closed
+     */
+    void send(ByteBuffer frame) throws IOException;
+
+    /**takes the next frame received
+     * @return the frame without its length, or null
+     * if no whole frame has arrived
+     * @throws IOException if the connection is closed
+     */
+    byte[] receive() throws IOException;
+
+    /**determines if every frame sent arrives, in
+     * order.  Otherwise the Client acknowledges the
+     * updates it receives.
+     * @return true if no frames can be lost
+     */
+    boolean isReliable();
+
+    /**closes the connection*/
+    void close();
+}
@@ -76,6 +76,15 @@ public abstract class GameLoop
      * to the game over screen or not*/
     private boolean advancingToGameOver=false;
     
+    /**the last message sent while running without
+     * a connection to the server.  It is delivered
+     * by the HeadlessDriver on the next update.*/
+    private transient Object headlessMessage;
+    
+    /**whether the game is being driven by a
+     * HeadlessDriver rather than a Client*/
+    private boolean headless=false;
+    
     /**
      * constructs a GameLoop with the 
      * default size AnimationCanvas (given in
@@ -363,9 +372,78 @@ public abstract class GameLoop
      */
     public void sendMessage(Object localMessage)
     {
+        if(client==null)
+        {
+            headlessMessage=localMessage;
+            return;
+        }
         client.setLocalMessage(localMessage);
     }
     
+    /**starts the game without connecting to a
+     * server or displaying anything.  The players
+     * use the given input devices, which are
+     * filled in by the HeadlessDriver instead of
+     * by a Client.
+     * @param keyboard the keyboard of each player
+     * @param mouse the mouse of each player
+     * @param messages where the messages of each
+     * player are delivered
+     */
+    void startHeadless(Keyboard[] keyboard, Mouse[] mouse,
+            Object[] messages)
+    {
+        headless=true;
+        id=0;
+        numPlayers=keyboard.length;
+        player=new Player[keyboard.length];
+        for(int i=0; i<player.length; i++)
+        {
+            mouse[i].setCanvas(canvas);
+            player[i]=new Player(keyboard[i], mouse[i], i, messages);
+        }
+        startGame();
+        if(currentLevel==null)
+        {
+            currentLevel=getNextLevel();
+            if(currentLevel!=null)
+            {
+                currentLevel.setGameLoop(this);
+                currentLevel.startLevel();
+            }
+        }
+    }
+    
+    /**gets and clears the last message sent
+     * while running without a connection to
+     * the server
+     * @return the message, or null if none was sent
+     */
+    Object takeHeadlessMessage()
+    {
+        Object message=headlessMessage;
+        headlessMessage=null;
+        return message;
+    }
+    
+    /**stops the game when an exception occurs
+     * while advancing the frame.  Without a
+     * connection to the server there is no display
+     * to show the error on, so the exception is
+     * passed on to whoever is driving the game.
+     * @param e the exception thrown by advanceFrame
+     */
+    protected void handleFrameException(Exception e)
+    {
+        if(headless)
+        {
+            if(e instanceof RuntimeException)
+                throw (RuntimeException)e;
+            throw new RuntimeException(e);
+        }
+        super.handleFrameException(e);
+    }
+    
     /**
      * connects to the server and sets the 
      * game and session name and
@@ -379,7 +457,9 @@ public abstract class GameLoop
      * particular session of the game.  Both
      * the game name and session name must
      * match when connecting to a group of
-     * players.
+     * players.  If null, the player joins
+     * whichever session of the game needs
+     * the fewest more players.
      * @param players how many players to
      * wait for before connecting
      */
@@ -437,13 +517,16 @@ public abstract class GameLoop
      */
     public boolean isPaused()
     {
+        if(client==null)
+            return false;
         return client.isPaused();
     }
     
     /** changes between paused and unpaused */
     public void pauseToggle()
     {
-        client.pauseToggle();
+        if(client!=null)
+            client.pauseToggle();
     }
     
     /**changes the display between pause/resume
@@ -698,7 +781,7 @@ public abstract class GameLoop
                     oldLevel.getPersistentSounds());
             	oldLevel.clearPersistence();
             }
-            if(client!=null)
+            if(client!=null || headless)
             {
             	currentLevel.setGameLoop(this);
             	currentLevel.startLevel();
@@ -749,7 +832,8 @@ public abstract class GameLoop
         canvas.removeAllSprites();
         Sound.clearAll();
         cancelAllAlarms();
-        client.clearInput();
+        if(client!=null)
+            client.clearInput();
         if(currentLevel!=null)
         {
             currentLevel.clearPersistence();
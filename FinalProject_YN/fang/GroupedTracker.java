@@ -0,0 +1,16 @@
+package fang;
+
+/**
+ * A Tracker whose time is advanced by the group it
+ * belongs to instead of by its own advanceTime method.
+ * The AnimationCanvas does not call advanceTime on
+ * grouped trackers.
+ * @author Jam Jenkins
+ */
+public interface GroupedTracker extends Tracker
+{
+    /**gets the group which advances this tracker
+     * @return the group
+     */
+    TrackerGroup getGroup();
+}
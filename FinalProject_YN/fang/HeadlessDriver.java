@@ -0,0 +1,187 @@
+package fang;
+
+/**
+ * Runs a game without a display or a server as
+ * fast as the computer allows.  Instead of waiting
+ * for time updates from the server, the driver
+ * repeatedly advances the game with time updates
+ * of its own, so ten minutes of play can be
+ * simulated in however long it takes to compute.
+ * Each player's input comes from an InputScript
+ * rather than the keyboard and mouse.  This is
+ * useful for testing levels over long periods,
+ * checking the balance of a game, and training
+ * computer players.  The game is never shown, but
+ * since every game is a JApplet, the Java runtime
+ * must still be able to create Swing components.
+ * @author Jam Jenkins
+ */
+public class HeadlessDriver
+{
+    /**the game being run*/
+    private GameLoop game;
+
+    /**the keyboard of each player*/
+    private Keyboard[] keyboard;
+
+    /**the mouse of each player*/
+    private Mouse[] mouse;
+
+    /**the messages delivered to the game*/
+    private Object[] message;
+
+    /**the source of each player's input, null
+     * for players who do nothing*/
+    private InputScript[] script;
+
+    /**the time between updates in seconds*/
+    private double timeBetweenUpdates=
+        GameConnections.TIME_BETWEEN_UPDATES/1000.0;
+
+    /**the time of the last update sent to the game*/
+    private double time=0;
+
+    /**whether startGame has been called yet*/
+    private boolean started=false;
+
+    /**
+     * sets up a game to run without a display.
+     * @param game the game to run
+     * @param players the number of players
+     */
+    public HeadlessDriver(GameLoop game, int players)
+    {
+        this.game=game;
+        keyboard=new Keyboard[players];
+        mouse=new Mouse[players];
+        message=new Object[players];
+        script=new InputScript[players];
+        for(int i=0; i<players; i++)
+        {
+            keyboard[i]=new Keyboard();
+            mouse[i]=new Mouse();
+        }
+    }
+
+    /**
+     * sets where a player's input comes from
+     * @param player the index of the player
+     * @param input the script supplying the player's
+     * input, or null for a player who does nothing
+     */
+    public void setInputScript(int player, InputScript input)
+    {
+        script[player]=input;
+    }
+
+    /**
+     * sets how much game time passes with each
+     * update.  By default this is the same as
+     * the time between updates from the server.
+     * @param seconds the time between updates
+     */
+    public void setTimeBetweenUpdates(double seconds)
+    {
+        if(seconds>0)
+            timeBetweenUpdates=seconds;
+    }
+
+    /**
+     * sets the seed of the game's random numbers
+     * so that runs can be repeated exactly.  This
+     * should be called before the game starts.
+     * @param seed the seed for GameLoop.random
+     */
+    public void setSeed(long seed)
+    {
+        game.random.setSeed(seed);
+    }
+
+    /**
+     * starts the game if it has not already been
+     * started.  Running the game starts it
+     * automatically.
+     */
+    public void start()
+    {
+        if(started)
+            return;
+        started=true;
+        game.startHeadless(keyboard, mouse, message);
+    }
+
+    /**
+     * advances the game by a single update.  The
+     * input scripts are called first, then any
+     * message sent by the game since the last update
+     * is delivered, then the game model is updated
+     * and deferred work is run as at the end of a frame.
+     */
+    public void step()
+    {
+        start();
+        time+=timeBetweenUpdates;
+        for(int i=0; i<script.length; i++)
+        {
+            if(script[i]!=null)
+                script[i].update(time, keyboard[i], mouse[i]);
+            message[i]=null;
+        }
+        message[0]=game.takeHeadlessMessage();
+        game.updateModel(time);
+        game.runDeferredWork();
+    }
+
+    /**
+     * runs the game for a period of game time
+     * @param seconds how long to run in game time
+     * @return the number of updates performed
+     */
+    public int run(double seconds)
+    {
+        double end=time+seconds;
+        int steps=0;
+        while(time+timeBetweenUpdates<=end+timeBetweenUpdates/2)
+        {
+            step();
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * runs the game until it is over or until a
+     * maximum amount of game time has passed
+     * @param maximumSeconds the longest to run
+     * in game time
+     * @return true if the game ended, false if the
+     * time ran out first
+     */
+    public boolean runUntilGameOver(double maximumSeconds)
+    {
+        double end=time+maximumSeconds;
+        while(!game.gameIsOver() &&
+                time+timeBetweenUpdates<=end+timeBetweenUpdates/2)
+            step();
+        return game.gameIsOver();
+    }
+
+    /**
+     * gets the time of the last update
+     * @return the time in seconds since the
+     * driver started
+     */
+    public double getTime()
+    {
+        return time;
+    }
+
+    /**
+     * gets the game being run
+     * @return the game
+     */
+    public GameLoop getGame()
+    {
+        return game;
+    }
+}
@@ -25,10 +25,9 @@ public class HttpServer extends Thread
     public static int PORT = 1554;
 
     /**
-     * map of currently running games to the GameConnections
+     * the games waiting for players
      */
-    private HashMap<String, GameConnections> games = 
-        new HashMap<String, GameConnections>();
+    private Lobby lobby = new Lobby(false);
 
     /**
      * true indicates still accepting new connections,
@@ -152,24 +151,14 @@ public class HttpServer extends Thread
     			ioe.printStackTrace();
     			break;
     		}
+    		if (Server.VIRTUAL_THREADS)
+    		{
+    			dispatchVirtual(socket);
+    			continue;
+    		}
     		try
     		{
-			java.lang.System.out.println("server making out");
-    			OutputStream oStream=socket.getOutputStream();
-			oStream.write("?PNG".getBytes());
-			oStream.write(13);
-			oStream.write(10);
-			oStream.write(26);
-			oStream.write(10);
-			oStream.flush();
-			ObjectOutputStream out = new ObjectOutputStream(oStream);
-			//out.writeObject("hello\n");
-			out.flush();
-			java.lang.System.out.println("server making in");
-    			ObjectInputStream in = new ObjectInputStream(
-    				new BufferedInputStream(socket.getInputStream(), 100));
-			java.lang.System.out.println("server dispatching");
-    			new Dispatcher(out, in).start();
+    			openDispatcher(socket).start();
     		}
     		catch (IOException ioe)
     		{
@@ -178,6 +167,59 @@ public class HttpServer extends Thread
     	}
     }
 
+    /**
+     * writes the PNG signature which starts every
+     * connection and makes the streams for it.  Making
+     * the input stream waits for the client to send
+     * its stream header.
+     * @param socket the connection to the client
+     * @return the Dispatcher for the client, not yet started
+     * @throws IOException if the connection is lost
+     */
+    private Dispatcher openDispatcher(Socket socket) throws IOException
+    {
+	java.lang.System.out.println("server making out");
+        OutputStream oStream=socket.getOutputStream();
+	oStream.write("?PNG".getBytes());
+	oStream.write(13);
+	oStream.write(10);
+	oStream.write(26);
+	oStream.write(10);
+	oStream.flush();
+	ObjectOutputStream out = new ObjectOutputStream(oStream);
+	//out.writeObject("hello\n");
+	out.flush();
+	java.lang.System.out.println("server making in");
+        ObjectInputStream in = new ObjectInputStream(
+            new BufferedInputStream(socket.getInputStream(), 100));
+	java.lang.System.out.println("server dispatching");
+        return new Dispatcher(out, in);
+    }
+
+    /**
+     * answers a new connection on a virtual thread,
+     * which also waits for the client's stream header
+     * so that a slow client does not hold up accepting
+     * @param socket the connection to the client
+     */
+    private void dispatchVirtual(final Socket socket)
+    {
+        VirtualThreads.newThread("FANG Dispatcher", new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    openDispatcher(socket).run();
+                }
+                catch (IOException ioe)
+                {
+                    ioe.printStackTrace();
+                }
+            }
+        }).start();
+    }
+
     /**
      * stops the loop from accepting new connections
      */
@@ -201,7 +243,7 @@ public class HttpServer extends Thread
      * to join
      * @author Jam Jenkins
      */
-    class Dispatcher extends Thread
+    class Dispatcher extends Thread implements Lobby.Member
     {
         /**
          * the output stream to the client
@@ -223,86 +265,32 @@ public class HttpServer extends Thread
             this.in = in;
         }
 
-        /**responds to a join command.  The format of the join command is:
-         * Join [gameName] [sessionName] [players]
-         * players is optional.  If not specified, 2 players is assumed.
-         * @param command the line in the format described above
-         * @return true if successful, false otherwise.  Joining can be
-         * unsuccessful if the format is not correct or if the game trying
-         * to join is full.
-         * @throws IOException if the communication chanel becomes corrupt
+        /**sends an answer to a lobby command
+         * @param text the answer
+         * @throws IOException if the connection is closed
          */
-        private boolean joinGame(String command) throws IOException
+        public void reply(String text) throws IOException
         {
-            String[] parts = command.split(" ");
-            String gameName = parts[1];
-            String sessionName = parts[2];
-            String id = "Game: " + gameName + " Session: " + sessionName;
-            int players = 2;
-            if (parts.length > 3)
-                players = Math.max(1, Integer.parseInt(parts[3]));
-            GameConnections connections = games.get(id);
-            if (connections == null)
-            {
-                connections = new GameConnections(gameName, sessionName,
-                        players);
-                games.put(id, connections);
-            }
-            if (connections.isFull())
-            {
-                out.writeObject("Game already full");
-                out.flush();
-                return false;
-            }
-            boolean results=connections.addConnection(out, in);
-            if(connections.isFull())
-                games.remove(id);
-            return results;
-        }
-
-        /**sends a list of the games currently in progress to the client.
-         * The format of the list is:
-         * Game: [gameName] Session: [sessionName]
-         * @throws IOException
-         */
-        private void listGames() throws IOException
-        {
-            String[] gameIDs = games.keySet().toArray(new String[0]);
-            String sum = "happy\n";
-            for (String name : gameIDs)
-            {
-                if(!games.get(name).isFull())
-                    sum += name + "\n";
-            }
-	java.lang.System.out.println("writing "+sum);
-            out.writeObject(sum);
+            out.writeObject(text);
             out.flush();
-	java.lang.System.out.println("flushed "+sum);
         }
 
-        /**
-         * gets rid of games no longer in progress
+        /**adds the client to a place reserved in a game
+         * @param connections the game
+         * @param place the place reserved, or -1
+         * @return true if the client joined
          */
-        private void cleanEmptyGames()
+        public boolean joinTo(GameConnections connections, int place)
         {
-            Set<Map.Entry<String, GameConnections>> gameSet = games.entrySet();
-            LinkedList<String> toRemove = new LinkedList<String>();
-            for (Map.Entry<String, GameConnections> game : gameSet)
-            {
-                if (!game.getValue().isActive())
-                    toRemove.add(game.getKey());
-            }
-            for (String key : toRemove)
-            {
-                games.remove(key);
-            }
+            return connections.addConnection(place, out, in);
         }
 
         /**reads commands from the client and resonds appropriately
-         * the two commands are
-         * List Games
-         * and
+         * the commands are
+         * List Games,
          * Join [gameName] [sessionName] [players]
+         * and
+         * Quick Match [gameName] [players]
          * @see java.lang.Runnable#run()
          */
         public void run()
@@ -310,19 +298,27 @@ public class HttpServer extends Thread
             try
             {
                 String command;
+                GameConnections joined;
                 while (true)
                 {
 		java.lang.System.out.println("awaiting command");
                     command = (String) in.readObject();
 		java.lang.System.out.println("performing: "+command);
-                    cleanEmptyGames();
+                    lobby.clean();
                     if (command.startsWith("Join"))
                     {
-                        if (joinGame(command))
+                        if ((joined = lobby.join(this, command)) != null)
+                            break;
+                    } else if (command.startsWith("Quick Match"))
+                    {
+                        if ((joined = lobby.quickMatch(this, command)) != null)
                             break;
                     } else if (command.startsWith("List Games"))
                     {
-                        listGames();
+                        String sum = "happy\n" + lobby.getListing();
+		java.lang.System.out.println("writing "+sum);
+                        reply(sum);
+		java.lang.System.out.println("flushed "+sum);
                     }else if(command.startsWith("Quit"))
                     	return;
                 }
@@ -330,8 +326,7 @@ public class HttpServer extends Thread
                 // thread cannot end, or the Pipe breaks.
                 synchronized (this)
                 {
-                    int players=Integer.parseInt(command.split(" ")[3]);
-                    if(players==1)
+                    if(joined.getPlayers()==1)
                     {
                         wait();
                     }
@@ -0,0 +1,22 @@
+package fang;
+
+/**
+ * Marks a Tracker whose advanceTime method only
+ * uses the tracker's own state and the time passed,
+ * and whose get methods do not change anything.
+ * When the AnimationCanvas is set to update in
+ * parallel, independent trackers, and Sprites moved
+ * by them, may be advanced on several threads at
+ * once.  Do not mark a tracker independent if it
+ * reads the keyboard, the mouse, other Sprites,
+ * other trackers or anything else which may change
+ * while the model is being updated.  A subclass of
+ * an independent tracker which overrides advanceTime
+ * or the get methods is updated one at a time unless
+ * it also lists IndependentTracker among the
+ * interfaces it implements.
+ * @author Jam Jenkins
+ */
+public interface IndependentTracker extends Tracker
+{
+}
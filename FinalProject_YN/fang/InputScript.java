@@ -0,0 +1,25 @@
+package fang;
+
+/**
+ * Supplies the keyboard and mouse input of one
+ * player when a game is run by the HeadlessDriver.
+ * The script is called before every update from
+ * the driver and may press keys or move and click
+ * the mouse in place of a real player.  Input set
+ * by the script is seen by the game in the same
+ * way as input arriving from the server.
+ * @author Jam Jenkins
+ */
+public interface InputScript
+{
+    /**
+     * sets the input for the next update.
+     * @param time the game time in seconds
+     * the update is advancing to
+     * @param keyboard the player's keyboard, for
+     * example call setLastKey to press a key
+     * @param mouse the player's mouse, for example
+     * call setLocation, press, or release
+     */
+    public void update(double time, Keyboard keyboard, Mouse mouse);
+}
@@ -0,0 +1,352 @@
+package fang;
+
+import java.awt.event.KeyEvent;
+import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The keys, mice and messages of every player as
+ * sent in one update of the binary protocol.  Rather
+ * than sending every field every update, the server
+ * sends only the fields which differ from a snapshot
+ * the Client already has.
+ * <p>
+ * For each player who changed, a short holds which
+ * fields follow and the values of the flags:
+ * <ul>
+ * <li>bit 0: the key changed and follows
+ * <li>bit 1: the mouse is down
+ * <li>bit 2: the message changed and follows
+ * <li>bits 3-7: which mouse points are present
+ * <li>bits 8-12: which present points moved
+ * and follow
+ * </ul>
+ * Mouse points are quantized to 1/SCALE of a screen
+ * and sent as variable length differences from the
+ * same point in the earlier snapshot, or from its
+ * position when that point was not present.
+ * @author Jam Jenkins
+ */
+final class InputSnapshot
+{
+    /**the number of steps mouse points are
+     * quantized to per screen*/
+    static final double SCALE=1<<14;
+
+    /**the number of recent snapshots kept, so that
+     * a later one can be sent as the differences from
+     * any of them*/
+    static final int HISTORY=32;
+
+    /**the number of points in a mouse: the position
+     * and the general, left, middle and right clicks*/
+    private static final int POINTS=5;
+
+    /**flag bits of the change mask*/
+    private static final int KEY=1, DOWN=2, MESSAGE=4;
+
+    /**the first bit of the point presence flags*/
+    private static final int PRESENT=3;
+
+    /**the first bit of the moved point flags*/
+    private static final int MOVED=8;
+
+    /**the number of this snapshot, starting at one*/
+    final int sequence;
+
+    /**the last key of each player*/
+    private final char[] key;
+
+    /**whether each player's mouse is down*/
+    private final boolean[] down;
+
+    /**which points are present, one bit per point*/
+    private final int[] present;
+
+    /**the quantized x and y of every point*/
+    private final int[][] coordinates;
+
+    /**the message of each player*/
+    private final Object[] message;
+
+    /**
+     * makes an empty snapshot
+     * @param sequence the number of the snapshot
+     * @param players the number of players
+     */
+    private InputSnapshot(int sequence, int players)
+    {
+        this.sequence=sequence;
+        key=new char[players];
+        down=new boolean[players];
+        present=new int[players];
+        coordinates=new int[players][2*POINTS];
+        message=new Object[players];
+    }
+
+    /**
+     * takes a snapshot of the input.  The mice should
+     * be quantized first so that Clients receiving the
+     * input another way see the same points.
+     * @param sequence the number of the snapshot
+     * @param keyboard the keyboard of each player
+     * @param mouse the mouse of each player
+     * @param message the message of each player
+     * @return the snapshot
+     */
+    static InputSnapshot capture(int sequence, Keyboard[] keyboard,
+        Mouse[] mouse, Object[] message)
+    {
+        InputSnapshot snapshot=new InputSnapshot(sequence, keyboard.length);
+        for(int i=0; i<keyboard.length; i++)
+        {
+            snapshot.key[i]=keyboard[i].getLastKey();
+            snapshot.down[i]=mouse[i].pressed();
+            for(int p=0; p<POINTS; p++)
+            {
+                Point2D.Double point=mouse[i].getPoint(p);
+                if(point!=null)
+                {
+                    snapshot.present[i]|=1<<p;
+                    snapshot.coordinates[i][2*p]=quantize(point.x);
+                    snapshot.coordinates[i][2*p+1]=quantize(point.y);
+                }
+            }
+            snapshot.message[i]=message[i];
+        }
+        return snapshot;
+    }
+
+    /**quantizes a coordinate
+     * @param value the coordinate in screens
+     * @return the nearest step
+     */
+    static int quantize(double value)
+    {
+        return (int)Math.round(value*SCALE);
+    }
+
+    /**
+     * writes how this snapshot differs from an earlier one
+     * @param out where to write
+     * @param base the snapshot the Client has, or null
+     * to send everything which is set
+     * @throws IOException if a message cannot be written
+     */
+    void writeDelta(DataOutput out, InputSnapshot base) throws IOException
+    {
+        int players=key.length;
+        int[] mask=new int[players];
+        byte[] changed=new byte[(players+7)/8];
+        for(int i=0; i<players; i++)
+        {
+            mask[i]=getMask(i, base);
+            if(isChanged(i, base, mask[i]))
+                changed[i/8]=(byte)(changed[i/8]|(1<<(i%8)));
+        }
+        out.write(changed);
+        for(int i=0; i<players; i++)
+        {
+            if((changed[i/8]&(1<<(i%8)))==0)
+                continue;
+            out.writeShort(mask[i]);
+            if((mask[i]&KEY)!=0)
+                out.writeChar(key[i]);
+            if((mask[i]&MESSAGE)!=0)
+                WireProtocol.writeMessage(out, message[i]);
+            for(int p=0; p<POINTS; p++)
+            {
+                if((mask[i]&(1<<(MOVED+p)))==0)
+                    continue;
+                int[] from=getOrigin(base, i, p);
+                WireProtocol.writeVarInt(out,
+                    zigzag(coordinates[i][2*p]-from[0]));
+                WireProtocol.writeVarInt(out,
+                    zigzag(coordinates[i][2*p+1]-from[1]));
+            }
+        }
+    }
+
+    /**
+     * works out which fields of a player to send
+     * @param i the player
+     * @param base the snapshot the Client has, or null
+     * @return the change mask
+     */
+    private int getMask(int i, InputSnapshot base)
+    {
+        int mask=present[i]<<PRESENT;
+        if(down[i])
+            mask|=DOWN;
+        if(base==null)
+        {
+            if(key[i]!=KeyEvent.CHAR_UNDEFINED)
+                mask|=KEY;
+            if(message[i]!=null)
+                mask|=MESSAGE;
+            return mask|(present[i]<<MOVED);
+        }
+        if(key[i]!=base.key[i])
+            mask|=KEY;
+        if(message[i]==null?base.message[i]!=null:
+            !message[i].equals(base.message[i]))
+            mask|=MESSAGE;
+        for(int p=0; p<POINTS; p++)
+        {
+            if((present[i]&(1<<p))==0)
+                continue;
+            if((base.present[i]&(1<<p))==0 ||
+                coordinates[i][2*p]!=base.coordinates[i][2*p] ||
+                coordinates[i][2*p+1]!=base.coordinates[i][2*p+1])
+                mask|=1<<(MOVED+p);
+        }
+        return mask;
+    }
+
+    /**
+     * determines if a player needs to be sent
+     * @param i the player
+     * @param base the snapshot the Client has, or null
+     * @param mask the change mask of the player
+     * @return true if anything differs from base
+     */
+    private boolean isChanged(int i, InputSnapshot base, int mask)
+    {
+        if(base==null)
+            return mask!=0;
+        return (mask&~(DOWN|(((1<<POINTS)-1)<<PRESENT)))!=0 ||
+            down[i]!=base.down[i] || present[i]!=base.present[i];
+    }
+
+    /**
+     * reads a snapshot written by writeDelta
+     * @param in where to read from
+     * @param sequence the number of the new snapshot
+     * @param base the snapshot it differs from, or null
+     * @param players the number of players
+     * @return the new snapshot
+     * @throws IOException if the snapshot is corrupt
+     */
+    static InputSnapshot readDelta(DataInput in, int sequence,
+        InputSnapshot base, int players) throws IOException
+    {
+        InputSnapshot snapshot=new InputSnapshot(sequence, players);
+        byte[] changed=new byte[(players+7)/8];
+        in.readFully(changed);
+        for(int i=0; i<players; i++)
+        {
+            if(base!=null)
+                snapshot.copy(base, i);
+            else
+                snapshot.key[i]=KeyEvent.CHAR_UNDEFINED;
+            if((changed[i/8]&(1<<(i%8)))==0)
+                continue;
+            int mask=in.readUnsignedShort();
+            snapshot.down[i]=(mask&DOWN)!=0;
+            snapshot.present[i]=(mask>>PRESENT)&((1<<POINTS)-1);
+            if((mask&KEY)!=0)
+                snapshot.key[i]=in.readChar();
+            if((mask&MESSAGE)!=0)
+                snapshot.message[i]=WireProtocol.readMessage(in);
+            for(int p=0; p<POINTS; p++)
+            {
+                if((mask&(1<<(MOVED+p)))==0)
+                    continue;
+                int[] from=getOrigin(base, i, p);
+                snapshot.coordinates[i][2*p]=from[0]+
+                    unzigzag(WireProtocol.readVarInt(in));
+                snapshot.coordinates[i][2*p+1]=from[1]+
+                    unzigzag(WireProtocol.readVarInt(in));
+            }
+        }
+        return snapshot;
+    }
+
+    /**copies a player's fields from another snapshot
+     * @param base the snapshot to copy from
+     * @param i the player
+     */
+    private void copy(InputSnapshot base, int i)
+    {
+        key[i]=base.key[i];
+        down[i]=base.down[i];
+        present[i]=base.present[i];
+        System.arraycopy(base.coordinates[i], 0, coordinates[i], 0,
+            2*POINTS);
+        message[i]=base.message[i];
+    }
+
+    /**
+     * gets the point a moved point is sent relative to:
+     * the same point in the earlier snapshot, or else
+     * its position, or else the origin
+     * @param base the earlier snapshot, or null
+     * @param i the player
+     * @param p the point
+     * @return the quantized x and y of the origin
+     */
+    private static int[] getOrigin(InputSnapshot base, int i, int p)
+    {
+        if(base==null)
+            return new int[2];
+        if((base.present[i]&(1<<p))==0)
+            p=0;
+        if((base.present[i]&(1<<p))==0)
+            return new int[2];
+        return new int[] {base.coordinates[i][2*p],
+            base.coordinates[i][2*p+1]};
+    }
+
+    /**
+     * sets the keyboards, mice and messages to this
+     * snapshot, the same way the Client reads a full
+     * update: keys and clicks not in the snapshot are
+     * cleared while a mouse position not in the
+     * snapshot is left where it was.
+     * @param keyboard the keyboard of each player
+     * @param mouse the mouse of each player
+     * @param message the message of each player
+     */
+    void apply(Keyboard[] keyboard, Mouse[] mouse, Object[] message)
+    {
+        Point2D.Double[] points=new Point2D.Double[POINTS];
+        for(int i=0; i<key.length; i++)
+        {
+            keyboard[i].clear();
+            if(key[i]!=KeyEvent.CHAR_UNDEFINED)
+                keyboard[i].setLastKey(key[i]);
+            for(int p=0; p<POINTS; p++)
+            {
+                if((present[i]&(1<<p))==0)
+                    points[p]=null;
+                else
+                    points[p]=new Point2D.Double(
+                        coordinates[i][2*p]/SCALE,
+                        coordinates[i][2*p+1]/SCALE);
+            }
+            mouse[i].setInput(down[i], points);
+            message[i]=this.message[i];
+        }
+    }
+
+    /**maps small negative and positive numbers
+     * to small positive numbers
+     * @param value the number
+     * @return 0, -1, 1, -2, 2... as 0, 1, 2, 3, 4...
+     */
+    private static int zigzag(int value)
+    {
+        return (value<<1)^(value>>31);
+    }
+
+    /**undoes zigzag
+     * @param value the mapped number
+     * @return the original number
+     */
+    private static int unzigzag(int value)
+    {
+        return (value>>>1)^-(value&1);
+    }
+}
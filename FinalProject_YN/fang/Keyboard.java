@@ -43,6 +43,28 @@ public class Keyboard implements
             key = temp;
     }
 
+    /**writes the key for the binary protocol
+     * @param out where to write the key
+     * @throws java.io.IOException if the key cannot be written
+     */
+    void writeCompact(java.io.DataOutput out)
+            throws java.io.IOException
+    {
+        out.writeChar(key);
+    }
+
+    /**reads the key written by writeCompact
+     * @param in where to read the key
+     * @throws java.io.IOException if the key cannot be read
+     */
+    void readCompact(java.io.DataInput in)
+            throws java.io.IOException
+    {
+        char temp = in.readChar();
+        if (temp != KeyEvent.CHAR_UNDEFINED)
+            key = temp;
+    }
+
     /** Creates a new instance of Keyboard */
     public Keyboard()
     {
@@ -0,0 +1,405 @@
+package fang;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The games waiting for players on a server, shared
+ * by every thread answering lobby commands.  The
+ * commands are:
+ * <ul>
+ * <li>List Games
+ * <li>Join [gameName] [sessionName] [players]
+ * <li>Quick Match [gameName] [players]
+ * <li>Quit
+ * </ul>
+ * Joining a session which does not exist creates it,
+ * and two players joining at once always end up in
+ * the same session.  Players are added to a session
+ * one at a time, and a session leaves the lobby as
+ * soon as it is full.  Quick Match joins whichever
+ * open session of the game for that many players
+ * needs the fewest more players, or starts a new one.
+ * A place in the session is reserved while holding
+ * the session's lock, and the client is told it has
+ * joined after the lock is let go, so a slow client
+ * does not hold up the other players.  Malformed
+ * commands are answered with an error rather than
+ * joining anything.
+ * <p>
+ * The number of open sessions of each game and the
+ * listing are kept up to date as sessions come and go.
+ * @author Jam Jenkins
+ */
+final class Lobby
+{
+    /**the prefix of the sessions made by Quick Match*/
+    static final String QUICK_MATCH="Quick";
+
+    /**the most players a session may be for*/
+    static final int MAX_PLAYERS=64;
+
+    /**
+     * a client in the lobby
+     * @author Jam Jenkins
+     */
+    interface Member
+    {
+        /**sends an answer to a lobby command
+         * @param text the answer
+         * @throws IOException if the connection is closed
+         */
+        void reply(String text) throws IOException;
+
+        /**adds the client to a place reserved in a game
+         * @param connections the game
+         * @param place the place reserved, or -1 to tell
+         * the client the game is full
+         * @return true if the client joined, false if
+         * the game was full
+         * @throws IOException if the connection is closed
+         */
+        boolean joinTo(GameConnections connections, int place)
+            throws IOException;
+    }
+
+    /**map of ids of the games waiting for players
+     * to their GameConnections*/
+    private final ConcurrentMap<String, GameConnections> open=
+        new ConcurrentHashMap<String, GameConnections>();
+
+    /**map of game names to the number of sessions
+     * of that game waiting for players*/
+    private final ConcurrentMap<String, AtomicInteger> openCounts=
+        new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**the number of Quick Match sessions made*/
+    private final AtomicInteger quickSessions=new AtomicInteger();
+
+    /**one line for each open session, in the order
+     * they opened*/
+    private final StringBuilder lines=new StringBuilder();
+
+    /**the answer to List Games, or null if lines
+     * has changed since it was made*/
+    private String listing;
+
+    /**true if the server sends the updates itself*/
+    private final boolean writtenByServer;
+
+    /**
+     * makes an empty lobby
+     * @param writtenByServer true if the server calls
+     * GameConnections.write itself rather than having
+     * each game start its own updates
+     */
+    Lobby(boolean writtenByServer)
+    {
+        this.writtenByServer=writtenByServer;
+    }
+
+    /**makes the id a session is listed under
+     * @param gameName the name of the game
+     * @param sessionName the name of the session
+     * @return the id
+     */
+    static String getId(String gameName, String sessionName)
+    {
+        return "Game: "+gameName+" Session: "+sessionName;
+    }
+
+    /**
+     * responds to a join command.  The format of the join command is:
+     * Join [gameName] [sessionName] [players]
+     * players is optional.  If not specified, 2 players is assumed.
+     * @param member the client joining
+     * @param command the line in the format described above
+     * @return the game joined, or null if joining failed
+     * @throws IOException if the connection is closed
+     */
+    GameConnections join(Member member, String command) throws IOException
+    {
+        String[] parts=command.split(" ");
+        int players=getPlayers(parts, 3);
+        if(parts.length<3 || players==0)
+        {
+            member.reply("Bad command: "+command);
+            return null;
+        }
+        return join(member, parts[1], parts[2], players);
+    }
+
+    /**reads the number of players from a command
+     * @param parts the words of the command
+     * @param index where the number of players is
+     * @return the number of players, 2 if not given,
+     * or 0 if it is not a number up to MAX_PLAYERS
+     */
+    private static int getPlayers(String[] parts, int index)
+    {
+        if(parts.length<=index)
+            return 2;
+        try
+        {
+            int players=Math.max(1, Integer.parseInt(parts[index]));
+            return players<=MAX_PLAYERS?players:0;
+        }
+        catch(NumberFormatException nfe)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * adds a client to a session, creating the session
+     * if it is not waiting for players
+     * @param member the client joining
+     * @param gameName the name of the game
+     * @param sessionName the name of the session
+     * @param players the number of players for a new session
+     * @return the game joined, or null if joining failed
+     * @throws IOException if the connection is closed
+     */
+    GameConnections join(Member member, String gameName,
+        String sessionName, int players) throws IOException
+    {
+        String id=getId(gameName, sessionName);
+        while(true)
+        {
+            GameConnections session=open.get(id);
+            if(session==null)
+            {
+                GameConnections created=new GameConnections(gameName,
+                    sessionName, players);
+                if(writtenByServer)
+                    created.setWrittenByServer();
+                session=list(id, gameName, created);
+                if(session==null)
+                    session=created;
+            }
+            int place;
+            synchronized(session)
+            {
+                //filled or abandoned while waiting for the lock
+                if(open.get(id)!=session)
+                    continue;
+                place=session.reserve();
+                if(session.isFull())
+                    close(id, gameName, session);
+            }
+            return add(member, id, gameName, session, place);
+        }
+    }
+
+    /**adds a client to the place reserved for it.
+     * The session left the lobby when its last place
+     * was reserved, so if adding the client fails it
+     * is put back.
+     * @param member the client joining
+     * @param id the id of the session
+     * @param gameName the name of the game
+     * @param session the session
+     * @param place the place reserved, or -1 if the
+     * session was full
+     * @return the game joined, or null if joining failed
+     * @throws IOException if the connection is closed
+     */
+    private GameConnections add(Member member, String id, String gameName,
+        GameConnections session, int place) throws IOException
+    {
+        boolean joined=false;
+        try
+        {
+            joined=member.joinTo(session, place);
+        }
+        finally
+        {
+            if(place>=0 && !joined)
+                reopen(id, gameName, session);
+        }
+        return joined?session:null;
+    }
+
+    /**
+     * responds to a quick match command.  The format of the
+     * command is:
+     * Quick Match [gameName] [players]
+     * players is optional.  If not specified, 2 players is assumed.
+     * @param member the client joining
+     * @param command the line in the format described above
+     * @return the game joined, or null if joining failed
+     * @throws IOException if the connection is closed
+     */
+    GameConnections quickMatch(Member member, String command)
+        throws IOException
+    {
+        String[] parts=command.split(" ");
+        int players=getPlayers(parts, 3);
+        if(parts.length<3 || players==0)
+        {
+            member.reply("Bad command: "+command);
+            return null;
+        }
+        String gameName=parts[2];
+        while(true)
+        {
+            String best=null;
+            int fewest=Integer.MAX_VALUE;
+            for(Map.Entry<String, GameConnections> entry: open.entrySet())
+            {
+                GameConnections session=entry.getValue();
+                if(!session.getGameName().equals(gameName) ||
+                    session.getPlayers()!=players)
+                    continue;
+                int left;
+                synchronized(session)
+                {
+                    left=session.getPlayersLeft();
+                }
+                if(left>0 && left<fewest)
+                {
+                    fewest=left;
+                    best=entry.getKey();
+                }
+            }
+            if(best==null)
+                return join(member, gameName,
+                    QUICK_MATCH+quickSessions.incrementAndGet(), players);
+            GameConnections session=open.get(best);
+            if(session==null)
+                continue;
+            int place;
+            synchronized(session)
+            {
+                if(open.get(best)!=session)
+                    continue;
+                place=session.reserve();
+                if(session.isFull())
+                    close(best, gameName, session);
+            }
+            //filled while waiting for the lock
+            if(place<0)
+                continue;
+            return add(member, best, gameName, session, place);
+        }
+    }
+
+    /**
+     * lists the games waiting for players.
+     * The format of the list is:
+     * Game: [gameName] Session: [sessionName]
+     * with one line per session.
+     * @return the answer to List Games
+     */
+    synchronized String getListing()
+    {
+        if(listing==null)
+            listing=lines.toString();
+        return listing;
+    }
+
+    /**gets the number of sessions of a game waiting
+     * for players
+     * @param gameName the name of the game
+     * @return the number of open sessions
+     */
+    int getOpenSessions(String gameName)
+    {
+        AtomicInteger count=openCounts.get(gameName);
+        return count==null?0:count.get();
+    }
+
+    /**gets rid of the games whose players have all left*/
+    void clean()
+    {
+        for(Iterator<Map.Entry<String, GameConnections>> all=
+            open.entrySet().iterator(); all.hasNext();)
+        {
+            Map.Entry<String, GameConnections> entry=all.next();
+            GameConnections session=entry.getValue();
+            //isActive writes to the clients, so it is
+            //checked without holding the session's lock
+            if(session.isActive())
+                continue;
+            synchronized(session)
+            {
+                //no player has joined or reserved a place since
+                if(session.getPlayersLeft()==session.getPlayers())
+                    close(entry.getKey(), session.getGameName(), session);
+            }
+        }
+    }
+
+    /**puts a session in the lobby, counting and
+     * listing it, unless a session with the same id
+     * is already there.  The listing is changed
+     * together with the open sessions so that a
+     * session closed as soon as it opens is not left
+     * in the listing.
+     * @param id the id of the session
+     * @param gameName the name of the session's game
+     * @param session the session
+     * @return the session already there, or null if
+     * this one was put in
+     */
+    private synchronized GameConnections list(String id, String gameName,
+        GameConnections session)
+    {
+        GameConnections existing=open.putIfAbsent(id, session);
+        if(existing!=null)
+            return existing;
+        AtomicInteger count=openCounts.get(gameName);
+        if(count==null)
+        {
+            count=new AtomicInteger();
+            openCounts.put(gameName, count);
+        }
+        count.incrementAndGet();
+        lines.append(id).append('\n');
+        listing=null;
+        return null;
+    }
+
+    /**puts a session back in the lobby after a client
+     * failed to join it, if it has room, has not started
+     * and no other session has taken its name
+     * @param id the id of the session
+     * @param gameName the name of the session's game
+     * @param session the session
+     */
+    private void reopen(String id, String gameName, GameConnections session)
+    {
+        synchronized(session)
+        {
+            if(!session.isFull() && !session.isStarted() &&
+                session.getPlayersLeft()<session.getPlayers())
+                list(id, gameName, session);
+        }
+    }
+
+    /**takes a session out of the lobby
+     * @param id the id of the session
+     * @param gameName the name of the session's game
+     * @param session the session
+     */
+    private synchronized void close(String id, String gameName,
+        GameConnections session)
+    {
+        if(open.remove(id, session))
+        {
+            openCounts.get(gameName).decrementAndGet();
+            //ids have no line breaks, so this is the
+            //whole line of the session
+            int start=lines.indexOf(id+'\n');
+            while(start>0 && lines.charAt(start-1)!='\n')
+                start=lines.indexOf(id+'\n', start+1);
+            if(start>=0)
+                lines.delete(start, start+id.length()+1);
+            listing=null;
+        }
+    }
+}
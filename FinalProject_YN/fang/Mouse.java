@@ -155,6 +155,137 @@ public class Mouse implements MouseListener, MouseMotionListener,
         rightClick = readPoint(in, rightClick);
     }
 
+    /**writes the mouse for the binary protocol.
+     * Instead of a boolean before each point, one
+     * byte holds whether the mouse is down and
+     * which of the points follow.
+     * @param out the output to write to
+     * @throws java.io.IOException if the mouse
+     * cannot be written
+     */
+    void writeCompact(java.io.DataOutput out)
+            throws java.io.IOException
+    {
+        Point2D.Double[] points={mousePosition, mouseClick,
+                leftClick, middleClick, rightClick};
+        int flags=mouseDown?1:0;
+        for(int i=0; i<points.length; i++)
+            if(points[i]!=null)
+                flags|=2<<i;
+        out.writeByte(flags);
+        for(Point2D.Double point: points)
+        {
+            if(point!=null)
+            {
+                out.writeDouble(point.x);
+                out.writeDouble(point.y);
+            }
+        }
+    }
+
+    /**reads the mouse written by writeCompact.
+     * Like readExternal, points which are not sent
+     * keep their previous values.
+     * @param in the input to read from
+     * @throws java.io.IOException if the mouse
+     * cannot be read
+     */
+    void readCompact(java.io.DataInput in)
+            throws java.io.IOException
+    {
+        int flags=in.readUnsignedByte();
+        mouseDown=(flags&1)!=0;
+        mousePosition=readCompactPoint(in, flags, 0, mousePosition);
+        if(mousePosition!=null)
+        {
+            lastMousePosition.x=mousePosition.x;
+            lastMousePosition.y=mousePosition.y;
+        }
+        mouseClick=readCompactPoint(in, flags, 1, mouseClick);
+        leftClick=readCompactPoint(in, flags, 2, leftClick);
+        middleClick=readCompactPoint(in, flags, 3, middleClick);
+        rightClick=readCompactPoint(in, flags, 4, rightClick);
+    }
+
+    /**reads a point written by writeCompact
+     * @param in the input to read from
+     * @param flags which points were written
+     * @param index which point this is
+     * @param point the place to store the point
+     * @return the point read, or point if it was
+     * not written
+     * @throws java.io.IOException if the point
+     * cannot be read
+     */
+    private Point2D.Double readCompactPoint(java.io.DataInput in,
+            int flags, int index, Point2D.Double point)
+            throws java.io.IOException
+    {
+        if((flags&(2<<index))==0)
+            return point;
+        if(point==null)
+            return new Point2D.Double(in.readDouble(), in.readDouble());
+        point.x=in.readDouble();
+        point.y=in.readDouble();
+        return point;
+    }
+
+    /**gets one of the points without copying it
+     * @param index 0 for the position, 1 for the
+     * click, then 2, 3 and 4 for the left, middle
+     * and right clicks
+     * @return the point, or null if it is not set
+     */
+    Point2D.Double getPoint(int index)
+    {
+        switch(index)
+        {
+            case 0: return mousePosition;
+            case 1: return mouseClick;
+            case 2: return leftClick;
+            case 3: return middleClick;
+            default: return rightClick;
+        }
+    }
+
+    /**sets the mouse the same way readCompact does
+     * after the clicks have been cleared: a position
+     * of null leaves the position where it was
+     * @param down true if the mouse is down
+     * @param points the points in the order used
+     * by getPoint, each of which may be null
+     */
+    void setInput(boolean down, Point2D.Double[] points)
+    {
+        mouseDown=down;
+        if(points[0]!=null)
+        {
+            mousePosition=points[0];
+            lastMousePosition.x=mousePosition.x;
+            lastMousePosition.y=mousePosition.y;
+        }
+        mouseClick=points[1];
+        leftClick=points[2];
+        middleClick=points[3];
+        rightClick=points[4];
+    }
+
+    /**rounds every point to the nearest step
+     * @param scale the number of steps per screen
+     */
+    void quantize(double scale)
+    {
+        for(int i=0; i<5; i++)
+        {
+            Point2D.Double point=getPoint(i);
+            if(point!=null)
+            {
+                point.x=Math.round(point.x*scale)/scale;
+                point.y=Math.round(point.y*scale)/scale;
+            }
+        }
+    }
+
     /** returns a string representation of the mouse position */
     public String toString()
     {
@@ -395,6 +526,60 @@ public class Mouse implements MouseListener, MouseMotionListener,
         observer.update(null, null);
     }
     
+    /**moves the mouse to a position without
+     * a MouseEvent.  This is used for scripted
+     * input, such as when running a game without
+     * a display.
+     * @param x the horizontal position in screens
+     * @param y the vertical position in screens
+     */
+    public void setLocation(double x, double y)
+    {
+        mousePosition=new Point2D.Double(x, y);
+        lastMousePosition.x=x;
+        lastMousePosition.y=y;
+        if(observer!=null)
+            observer.update(null, null);
+    }
+
+    /**presses the mouse at a position without
+     * a MouseEvent.  This is used for scripted
+     * input, such as when running a game without
+     * a display.
+     * @param x the horizontal position in screens
+     * @param y the vertical position in screens
+     * @param button one of MouseEvent.BUTTON1,
+     * BUTTON2 or BUTTON3
+     */
+    public void press(double x, double y, int button)
+    {
+        mouseDown = true;
+        mouseClick = new Point2D.Double(x, y);
+        if (button == MouseEvent.BUTTON1)
+        {
+            leftClick = mouseClick;
+        } else if (button == MouseEvent.BUTTON2)
+        {
+            middleClick = mouseClick;
+        } else if (button == MouseEvent.BUTTON3)
+        {
+            rightClick = mouseClick;
+        }
+        if(observer!=null)
+            observer.update(null, null);
+    }
+
+    /**releases the mouse without a MouseEvent.
+     * This is used for scripted input, such as
+     * when running a game without a display.
+     */
+    public void release()
+    {
+        mouseDown = false;
+        if(observer!=null)
+            observer.update(null, null);
+    }
+    
     /** sets the observer to update when the mouse changes*/
     public void setObserver(Observer observer)
     {
@@ -0,0 +1,1162 @@
+package fang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A Server which handles every connection with a
+ * small, fixed number of threads.  The Server starts
+ * a thread for every connection, so a busy Server
+ * needs hundreds of threads.  The NioServer instead uses
+ * non-blocking channels: each of a few event loop
+ * threads waits on many connections at once and
+ * handles whichever have something to read or room
+ * to write, and sends the updates for the games its
+ * connections are in.  The lobby commands are the
+ * same as for the Server:
+ * <ul>
+ * <li>List Games
+ * <li>Join [gameName] [sessionName] [players]
+ * <li>Quick Match [gameName] [players]
+ * <li>Quit
+ * </ul>
+ * Everything sent either way is split into
+ * length-prefixed frames, so that a frame can be
+ * read once it has fully arrived without waiting
+ * on the connection.  Clients use this framing when
+ * Server.USE_NIO is true.  The frames carry either
+ * the WireProtocol or, for older Clients, the same
+ * object streams as for the Server, depending on
+ * whether a Client's first frame is a HELLO.
+ * <p>
+ * When Server.USE_UDP is true, binary Clients may
+ * instead send their frames as datagrams to the same
+ * port, each Client being served through a UdpLink.
+ * The first event loop receives the datagrams.
+ * @author Jam Jenkins
+ */
+public class NioServer extends Thread
+{
+    /**the most bytes waiting to be sent to one
+     * connection before it is dropped as too slow*/
+    static final int MAX_PENDING=1<<22;
+
+    /**the most frames written to a channel at once*/
+    static final int GATHER=16;
+
+    /**the games waiting for players*/
+    private final Lobby lobby=new Lobby(true);
+
+    /**the channel listening for new connections*/
+    private final ServerSocketChannel serverChannel;
+
+    /**the threads handling the connections*/
+    private final EventLoop[] loops;
+
+    /**the loop given the next new connection*/
+    private int nextLoop=0;
+
+    /**receives the datagrams of UDP clients,
+     * or null if UDP is not used*/
+    private final Datagrams datagrams;
+
+    /**true while accepting new connections*/
+    private volatile boolean connected=true;
+
+    /**
+     * makes a server on Server.PORT with one event
+     * loop per processor, up to four
+     * @throws IOException if the port cannot be opened
+     */
+    public NioServer() throws IOException
+    {
+        this(Server.PORT, Math.min(4,
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * makes a server
+     * @param port the port to accept connections on
+     * @param threads the number of event loops
+     * @throws IOException if the port cannot be opened
+     */
+    public NioServer(int port, int threads) throws IOException
+    {
+        super("FANG NioServer");
+        serverChannel=ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        loops=new EventLoop[Math.max(1, threads)];
+        for(int i=0; i<loops.length; i++)
+            loops[i]=new EventLoop(i);
+        if(Server.USE_UDP)
+        {
+            datagrams=new Datagrams(loops[0], getPort());
+            loops[0].datagrams=datagrams;
+        }
+        else
+            datagrams=null;
+        for(EventLoop loop: loops)
+            loop.start();
+    }
+
+    /**gets the port connections are accepted on
+     * @return the local port
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**accepts connections and hands each to the
+     * next event loop in turn*/
+    public void run()
+    {
+        while(connected)
+        {
+            try
+            {
+                SocketChannel channel=serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[nextLoop].add(channel);
+                nextLoop=(nextLoop+1)%loops.length;
+            }
+            catch(IOException ioe)
+            {
+                if(connected)
+                    ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * stops accepting connections and stops the event
+     * loops, closing every connection
+     */
+    public void disconnect()
+    {
+        connected=false;
+        try
+        {
+            serverChannel.close();
+        }
+        catch(IOException ioe)
+        {
+        }
+        for(EventLoop loop: loops)
+            loop.shutdown();
+    }
+
+    /**
+     * answers a lobby command
+     * @param member the client sending the command
+     * @param command the command
+     * @param loop the loop to send the game's updates
+     * if it starts
+     * @return the game joined, or null if still in the lobby
+     * @throws IOException if the connection is closed
+     */
+    private GameConnections answer(Member member, String command,
+        EventLoop loop) throws IOException
+    {
+        lobby.clean();
+        GameConnections session=null;
+        if(command.startsWith("Join"))
+            session=lobby.join(member, command);
+        else if(command.startsWith("Quick Match"))
+            session=lobby.quickMatch(member, command);
+        else if(command.startsWith("List Games"))
+            member.reply(lobby.getListing());
+        else if(command.startsWith("Quit"))
+            member.close();
+        if(session!=null && session.claimUpdates())
+            loop.startSession(session);
+        return session;
+    }
+
+    /**
+     * a client in the lobby which can leave
+     * @author Jam Jenkins
+     */
+    private interface Member extends Lobby.Member
+    {
+        /**closes the connection*/
+        void close();
+    }
+
+    /**
+     * something registered with an event loop's selector
+     * @author Jam Jenkins
+     */
+    private interface Handler
+    {
+        /**reads what has arrived*/
+        void read();
+
+        /**sends what is waiting to be sent*/
+        void flushWrites();
+
+        /**closes the channel*/
+        void close();
+    }
+
+    /**
+     * one thread waiting on many connections and
+     * sending the updates for the games started by
+     * its connections
+     * @author Jam Jenkins
+     */
+    private class EventLoop extends Thread
+    {
+        /**waits for the connections to be ready*/
+        private final Selector selector;
+
+        /**channels waiting to be registered*/
+        private final ConcurrentLinkedQueue<SocketChannel> added=
+            new ConcurrentLinkedQueue<SocketChannel>();
+
+        /**connections with frames waiting to be sent*/
+        private final ConcurrentLinkedQueue<Connection> writers=
+            new ConcurrentLinkedQueue<Connection>();
+
+        /**the games this loop sends updates for*/
+        private final ArrayList<GameConnections> sessions=
+            new ArrayList<GameConnections>();
+
+        /**when each game is next due an update,
+         * in System.nanoTime*/
+        private final ArrayList<Long> due=new ArrayList<Long>();
+
+        /**the datagrams received by this loop, or null*/
+        Datagrams datagrams;
+
+        /**false once shut down*/
+        private volatile boolean running=true;
+
+        /**
+         * makes an event loop
+         * @param number used to name the thread
+         * @throws IOException if no selector can be opened
+         */
+        EventLoop(int number) throws IOException
+        {
+            super("FANG NioServer loop "+number);
+            setDaemon(true);
+            selector=Selector.open();
+        }
+
+        /**hands a new connection to this loop
+         * @param channel the connection
+         */
+        void add(SocketChannel channel)
+        {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**asks this loop to send a connection's frames
+         * @param connection the connection with frames
+         */
+        void wantWrite(Connection connection)
+        {
+            writers.add(connection);
+            if(Thread.currentThread()!=this)
+                selector.wakeup();
+        }
+
+        /**stops the loop and closes its connections*/
+        void shutdown()
+        {
+            running=false;
+            selector.wakeup();
+        }
+
+        /**handles connections and sends game updates
+         * until shut down*/
+        public void run()
+        {
+            try
+            {
+                while(running)
+                {
+                    long wait=timeToNextUpdate();
+                    if(datagrams!=null)
+                        wait=wait==0?Datagrams.RESEND_CHECK:
+                            Math.min(wait, Datagrams.RESEND_CHECK);
+                    selector.select(wait);
+                    registerAdded();
+                    for(Iterator<SelectionKey> keys=
+                        selector.selectedKeys().iterator(); keys.hasNext();)
+                    {
+                        SelectionKey key=keys.next();
+                        keys.remove();
+                        Handler handler=(Handler)key.attachment();
+                        try
+                        {
+                            if(key.isValid() && key.isReadable())
+                                handler.read();
+                            if(key.isValid() && key.isWritable())
+                                handler.flushWrites();
+                        }
+                        catch(RuntimeException re)
+                        {
+                            drop(handler, re);
+                        }
+                    }
+                    Connection writer;
+                    while((writer=writers.poll())!=null)
+                    {
+                        try
+                        {
+                            writer.flushWrites();
+                        }
+                        catch(RuntimeException re)
+                        {
+                            drop(writer, re);
+                        }
+                    }
+                    if(datagrams!=null)
+                        datagrams.resend();
+                    sendUpdates();
+                }
+            }
+            catch(IOException ioe)
+            {
+                ioe.printStackTrace();
+            }
+            finally
+            {
+                for(SelectionKey key: selector.keys())
+                    ((Handler)key.attachment()).close();
+                try
+                {
+                    selector.close();
+                }
+                catch(IOException ioe)
+                {
+                }
+            }
+        }
+
+        /**closes a connection which failed unexpectedly,
+         * so that one bad client does not stop the loop
+         * and every other connection on it.  The UDP
+         * channel is shared by every UDP client, so it is
+         * left open.
+         * @param handler the connection which failed
+         * @param re what went wrong
+         */
+        private void drop(Handler handler, RuntimeException re)
+        {
+            re.printStackTrace();
+            if(handler!=datagrams)
+                handler.close();
+        }
+
+        /**registers the connections handed to this loop
+         * @throws ClosedChannelException if a channel
+         * closed before it could be registered
+         */
+        private void registerAdded() throws ClosedChannelException
+        {
+            SocketChannel channel;
+            while((channel=added.poll())!=null)
+            {
+                Connection connection=new Connection(this, channel);
+                connection.key=channel.register(selector,
+                    SelectionKey.OP_READ, connection);
+            }
+        }
+
+        /**starts sending updates for a game which
+         * has all of its players
+         * @param session the game
+         */
+        void startSession(GameConnections session)
+        {
+            sessions.add(session);
+            due.add(System.nanoTime());
+        }
+
+        /**determines how long to wait for the connections
+         * @return the milliseconds until the next game
+         * update is due, or zero to wait indefinitely
+         */
+        private long timeToNextUpdate()
+        {
+            if(sessions.isEmpty())
+                return 0;
+            long first=Long.MAX_VALUE;
+            for(long time: due)
+                first=Math.min(first, time);
+            long wait=(first-System.nanoTime())/1000000;
+            return Math.max(1, wait);
+        }
+
+        /**sends the updates which are due and drops
+         * the games no longer in progress*/
+        private void sendUpdates()
+        {
+            long now=System.nanoTime();
+            long period=GameConnections.TIME_BETWEEN_UPDATES*1000000L;
+            for(int i=sessions.size()-1; i>=0; i--)
+            {
+                if(due.get(i)>now)
+                    continue;
+                GameConnections session=sessions.get(i);
+                boolean active;
+                try
+                {
+                    session.write();
+                    active=session.isActive();
+                }
+                catch(RuntimeException re)
+                {
+                    //stop this game rather than every game
+                    //on the loop
+                    re.printStackTrace();
+                    active=false;
+                }
+                if(!active)
+                {
+                    sessions.remove(i);
+                    due.remove(i);
+                }
+                else
+                    due.set(i, due.get(i)+period);
+            }
+        }
+    }
+
+    /**
+     * one client's connection.  Until the client joins
+     * a game, frames from it are read as lobby commands
+     * by its event loop.  After it joins, they are left
+     * for its GameConnections to read.
+     * @author Jam Jenkins
+     */
+    private class Connection implements GameLink, Member, Handler
+    {
+        /**the loop handling this connection*/
+        private final EventLoop loop;
+
+        /**the connection to the client*/
+        private final SocketChannel channel;
+
+        /**the key for this connection's channel*/
+        SelectionKey key;
+
+        /**holds bytes read until a whole frame arrives*/
+        private ByteBuffer readBuffer=ByteBuffer.allocate(1024);
+
+        /**frames waiting to be sent*/
+        private final ConcurrentLinkedQueue<ByteBuffer> pending=
+            new ConcurrentLinkedQueue<ByteBuffer>();
+
+        /**the number of bytes waiting to be sent*/
+        private long pendingBytes=0;
+
+        /**the frames handed to the channel at once*/
+        private final ByteBuffer[] gather=new ByteBuffer[GATHER];
+
+        /**true once the first frame has shown
+         * which protocol the client speaks*/
+        private boolean decided=false;
+
+        /**true if the client speaks the WireProtocol*/
+        boolean binary=false;
+
+        /**the frames received from a binary client*/
+        private final ConcurrentLinkedQueue<byte[]> received=
+            new ConcurrentLinkedQueue<byte[]>();
+
+        /**writes the lobby's answers to a binary client*/
+        private WireProtocol.Writer writer;
+
+        /**the bytes of the frames received from an
+         * object stream client*/
+        private final Inbound inbound=new Inbound();
+
+        /**reads the frames received from an object
+         * stream client*/
+        ObjectInputStream in;
+
+        /**writes frames to an object stream client*/
+        ObjectOutputStream out;
+
+        /**true to close once everything queued is sent*/
+        private boolean closing=false;
+
+        /**the game joined, or null while in the lobby*/
+        private GameConnections session;
+
+        /**true once the connection has been closed*/
+        private volatile boolean closed=false;
+
+        /**
+         * makes a connection
+         * @param loop the loop handling the connection
+         * @param channel the connection to the client
+         */
+        Connection(EventLoop loop, SocketChannel channel)
+        {
+            this.loop=loop;
+            this.channel=channel;
+        }
+
+        /**passes on a whole frame received
+         * @param frame the frame without its length
+         * @throws IOException if the client speaks an
+         * unknown version of the protocol
+         */
+        private void receiveFrame(byte[] frame) throws IOException
+        {
+            if(!decided)
+            {
+                decided=true;
+                binary=WireProtocol.isHello(frame);
+                if(binary)
+                {
+                    writer=new WireProtocol.Writer();
+                    if(WireProtocol.getVersion(frame)!=WireProtocol.VERSION)
+                    {
+                        reply("Unsupported protocol version");
+                        closing=true;
+                    }
+                    return;
+                }
+                out=new ObjectOutputStream(
+                    new FrameOutputStream(new Outbound()));
+                out.flush();
+            }
+            if(binary)
+            {
+                if(frame.length>0)
+                    received.add(frame);
+            }
+            else
+                inbound.add(frame);
+        }
+
+        /**sends an answer to a lobby command
+         * @param text the answer
+         * @throws IOException if the connection is closed
+         */
+        public void reply(String text) throws IOException
+        {
+            if(binary)
+                send(writer.begin(WireProtocol.TEXT).text(text));
+            else
+            {
+                out.writeObject(text);
+                out.flush();
+            }
+        }
+
+        /**adds this connection to a place reserved in a game
+         * @param connections the game
+         * @param place the place reserved, or -1
+         * @return true if the client joined, false if
+         * the game was full
+         * @throws IOException if the connection is closed
+         */
+        public boolean joinTo(GameConnections connections, int place)
+            throws IOException
+        {
+            if(binary)
+                return connections.addConnection(place, this);
+            return connections.addConnection(place, out, in);
+        }
+
+        /**reads what has arrived, passing whole frames on*/
+        public void read()
+        {
+            try
+            {
+                if(channel.read(readBuffer)<0)
+                {
+                    close();
+                    return;
+                }
+                readBuffer.flip();
+                while(readBuffer.remaining()>=4)
+                {
+                    int length=readBuffer.getInt(readBuffer.position());
+                    if(length<0 || length>FrameOutputStream.MAX_FRAME)
+                        throw new IOException("Bad frame length: "+length);
+                    if(readBuffer.remaining()<4+length)
+                        break;
+                    readBuffer.position(readBuffer.position()+4);
+                    byte[] frame=new byte[length];
+                    readBuffer.get(frame);
+                    receiveFrame(frame);
+                }
+                readBuffer.compact();
+                if(readBuffer.remaining()==0)
+                {
+                    ByteBuffer larger=ByteBuffer.allocate(
+                        2*readBuffer.capacity());
+                    readBuffer.flip();
+                    larger.put(readBuffer);
+                    readBuffer=larger;
+                }
+                if(session==null && !closing)
+                    readCommands();
+            }
+            catch(Exception e)
+            {
+                close();
+            }
+        }
+
+        /**answers the lobby commands received
+         * @throws Exception if a command cannot be read
+         */
+        private void readCommands() throws Exception
+        {
+            while(session==null && !closed)
+            {
+                String command;
+                if(binary)
+                {
+                    byte[] frame=received.poll();
+                    if(frame==null)
+                        return;
+                    if(frame[0]!=WireProtocol.COMMAND)
+                        continue;
+                    command=WireProtocol.reader(frame).readUTF();
+                }
+                else
+                {
+                    if(in==null && inbound.available()>0)
+                        in=new ObjectInputStream(inbound);
+                    if(inbound.available()<=0)
+                        return;
+                    command=(String)in.readObject();
+                }
+                session=answer(this, command, loop);
+            }
+        }
+
+        /**queues a frame to be sent
+         * @param frame the bytes of the frame
+         * @throws IOException if the connection is closed
+         * or too far behind
+         */
+        public void send(ByteBuffer frame) throws IOException
+        {
+            if(closed)
+                throw new IOException("Connection closed");
+            //the same frame may be sent to many connections
+            frame=frame.duplicate();
+            synchronized(this)
+            {
+                pendingBytes+=frame.remaining();
+                if(pendingBytes>MAX_PENDING)
+                {
+                    close();
+                    throw new IOException("Connection too slow");
+                }
+            }
+            pending.add(frame);
+            loop.wantWrite(this);
+        }
+
+        /**sends as many queued frames as the channel
+         * will take, waiting to be writable if some
+         * are left over.  Up to GATHER frames are
+         * handed to the channel in a single write.*/
+        public void flushWrites()
+        {
+            if(closed)
+                return;
+            try
+            {
+                while(!pending.isEmpty())
+                {
+                    int count=0;
+                    for(Iterator<ByteBuffer> frames=pending.iterator();
+                        frames.hasNext() && count<GATHER;)
+                        gather[count++]=frames.next();
+                    long written=channel.write(gather, 0, count);
+                    synchronized(this)
+                    {
+                        pendingBytes-=written;
+                    }
+                    while(!pending.isEmpty() &&
+                        !pending.peek().hasRemaining())
+                        pending.poll();
+                    boolean full=gather[count-1].hasRemaining();
+                    Arrays.fill(gather, 0, count, null);
+                    if(full)
+                        break;
+                }
+                if(closing && pending.isEmpty())
+                    close();
+                if(key.isValid())
+                    key.interestOps(pending.isEmpty()?SelectionKey.OP_READ:
+                        SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+            }
+            catch(IOException ioe)
+            {
+                close();
+            }
+        }
+
+        /**takes the next frame from a binary client
+         * @return the frame, or null if none has arrived
+         * @throws IOException if the connection is closed
+         */
+        public byte[] receive() throws IOException
+        {
+            byte[] frame=received.poll();
+            if(frame==null && closed)
+                throw new IOException("Connection closed");
+            return frame;
+        }
+
+        /**determines if every frame sent arrives
+         * @return true, since the connection is TCP
+         */
+        public boolean isReliable()
+        {
+            return true;
+        }
+
+        /**closes the connection*/
+        public void close()
+        {
+            closed=true;
+            pending.clear();
+            if(key!=null)
+                key.cancel();
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ioe)
+            {
+            }
+        }
+
+        /**
+         * queues what the ObjectOutputStream writes.
+         * The FrameOutputStream writes each frame
+         * in one piece.
+         * @author Jam Jenkins
+         */
+        private class Outbound extends OutputStream
+        {
+            /**queues one byte as a frame
+             * @param b the byte
+             */
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            /**queues a copy of the bytes
+             * @param bytes holds the bytes
+             * @param offset where the bytes start
+             * @param length the number of bytes
+             */
+            public void write(byte[] bytes, int offset, int length)
+                throws IOException
+            {
+                byte[] copy=new byte[length];
+                System.arraycopy(bytes, offset, copy, 0, length);
+                send(ByteBuffer.wrap(copy));
+            }
+        }
+    }
+
+    /**
+     * the UDP clients, all sending their datagrams to
+     * one channel.  Each is given a UdpLink the first
+     * time it is heard from.
+     * @author Jam Jenkins
+     */
+    private class Datagrams implements Handler
+    {
+        /**the most milliseconds between checks for
+         * datagrams to send again*/
+        static final long RESEND_CHECK=10;
+
+        /**the channel the datagrams arrive on*/
+        private final DatagramChannel channel;
+
+        /**the loop receiving the datagrams*/
+        private final EventLoop loop;
+
+        /**map of addresses to the clients there*/
+        private final HashMap<SocketAddress, Peer> peers=
+            new HashMap<SocketAddress, Peer>();
+
+        /**holds each datagram received*/
+        private final ByteBuffer buffer=ByteBuffer.allocate(65536);
+
+        /**
+         * opens the channel and registers it with a loop
+         * which has not yet started
+         * @param loop the loop to receive the datagrams
+         * @param port the port to receive them on
+         * @throws IOException if the port cannot be opened
+         */
+        Datagrams(EventLoop loop, int port) throws IOException
+        {
+            this.loop=loop;
+            channel=DatagramChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            channel.register(loop.selector, SelectionKey.OP_READ, this);
+        }
+
+        /**passes the datagrams which have arrived to
+         * their clients' links and answers the lobby
+         * commands of clients not yet in a game*/
+        public void read()
+        {
+            try
+            {
+                SocketAddress from;
+                while(true)
+                {
+                    buffer.clear();
+                    from=channel.receive(buffer);
+                    if(from==null)
+                        break;
+                    buffer.flip();
+                    Peer peer=peers.get(from);
+                    try
+                    {
+                        if(peer==null)
+                        {
+                            if(!UdpLink.isFirst(buffer))
+                                continue;
+                            peer=new Peer(new UdpLink(channel, from));
+                            peers.put(from, peer);
+                        }
+                        peer.link.receiveDatagram(buffer);
+                        if(peer.session==null)
+                            peer.readCommands();
+                    }
+                    catch(Exception e)
+                    {
+                        //forget only the client which sent
+                        //the bad datagram
+                        e.printStackTrace();
+                        peers.remove(from);
+                        if(peer!=null)
+                            peer.close();
+                    }
+                }
+            }
+            catch(IOException ioe)
+            {
+                ioe.printStackTrace();
+            }
+        }
+
+        /**sends again what the clients have not
+         * acknowledged and forgets the clients whose
+         * links have closed*/
+        void resend()
+        {
+            long now=System.nanoTime();
+            for(Iterator<Peer> all=peers.values().iterator(); all.hasNext();)
+            {
+                UdpLink link=all.next().link;
+                link.resend(now);
+                if(link.isClosed())
+                    all.remove();
+            }
+        }
+
+        /**datagrams are sent as soon as they are queued*/
+        public void flushWrites()
+        {
+        }
+
+        /**closes the channel and every client's link*/
+        public void close()
+        {
+            for(Peer peer: peers.values())
+                peer.close();
+            peers.clear();
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ioe)
+            {
+            }
+        }
+
+        /**
+         * one UDP client
+         * @author Jam Jenkins
+         */
+        private class Peer implements Member
+        {
+            /**the link to the client*/
+            final UdpLink link;
+
+            /**writes the lobby's answers*/
+            private final WireProtocol.Writer writer=
+                new WireProtocol.Writer();
+
+            /**true once the client's HELLO has arrived*/
+            private boolean greeted=false;
+
+            /**true if the client speaks another version,
+             * in which case its frames are ignored until
+             * its link times out*/
+            private boolean refused=false;
+
+            /**the game joined, or null while in the lobby*/
+            GameConnections session;
+
+            /**
+             * makes a client
+             * @param link the link to the client
+             */
+            Peer(UdpLink link)
+            {
+                this.link=link;
+            }
+
+            /**answers the lobby commands received
+             * @throws IOException if the link is closed
+             */
+            void readCommands() throws IOException
+            {
+                byte[] frame;
+                while(session==null && (frame=link.receive())!=null)
+                {
+                    if(refused)
+                        continue;
+                    if(!greeted)
+                    {
+                        greeted=true;
+                        if(!WireProtocol.isHello(frame) ||
+                            WireProtocol.getVersion(frame)!=
+                            WireProtocol.VERSION)
+                        {
+                            refused=true;
+                            reply("Unsupported protocol version");
+                        }
+                    }
+                    else if(frame[0]==WireProtocol.COMMAND)
+                        session=answer(this,
+                            WireProtocol.reader(frame).readUTF(), loop);
+                }
+            }
+
+            /**sends an answer to a lobby command
+             * @param text the answer
+             * @throws IOException if the link is closed
+             */
+            public void reply(String text) throws IOException
+            {
+                link.send(writer.begin(WireProtocol.TEXT).text(text));
+            }
+
+            /**adds the client to a place reserved in a game
+             * @param connections the game
+             * @param place the place reserved, or -1
+             * @return true if the client joined
+             */
+            public boolean joinTo(GameConnections connections, int place)
+            {
+                return connections.addConnection(place, link);
+            }
+
+            /**closes the link*/
+            public void close()
+            {
+                link.close();
+            }
+        }
+    }
+
+    /**
+     * the bytes of the frames received on a connection.
+     * Reading never waits: since only whole frames are
+     * added, a well-formed reader finds everything it
+     * needs, and a read past the end returns -1.
+     * @author Jam Jenkins
+     */
+    private static class Inbound extends InputStream
+    {
+        /**the frames not yet fully read*/
+        private final LinkedList<byte[]> frames=new LinkedList<byte[]>();
+
+        /**how much of the first frame has been read*/
+        private int position=0;
+
+        /**the number of bytes not yet read*/
+        private int available=0;
+
+        /**adds a frame
+         * @param frame the frame without its length
+         */
+        synchronized void add(byte[] frame)
+        {
+            if(frame.length==0)
+                return;
+            frames.add(frame);
+            available+=frame.length;
+        }
+
+        /**reads one byte
+         * @return the byte, or -1 if none is left
+         */
+        public synchronized int read()
+        {
+            if(available==0)
+                return -1;
+            byte[] frame=frames.getFirst();
+            int b=frame[position++]&0xff;
+            advance(1, frame);
+            return b;
+        }
+
+        /**reads bytes
+         * @param bytes where to put the bytes
+         * @param offset where to start putting them
+         * @param length the most bytes to read
+         * @return the number of bytes read, or -1
+         * if none is left
+         */
+        public synchronized int read(byte[] bytes, int offset, int length)
+        {
+            if(length==0)
+                return 0;
+            if(available==0)
+                return -1;
+            byte[] frame=frames.getFirst();
+            int count=Math.min(length, frame.length-position);
+            System.arraycopy(frame, position, bytes, offset, count);
+            position+=count;
+            advance(count, frame);
+            return count;
+        }
+
+        /**moves past bytes which have been read
+         * @param count the number of bytes read
+         * @param frame the frame read from
+         */
+        private void advance(int count, byte[] frame)
+        {
+            available-=count;
+            if(position==frame.length)
+            {
+                frames.removeFirst();
+                position=0;
+            }
+        }
+
+        /**gets the number of bytes which can be read
+         * @return the bytes received and not yet read
+         */
+        public synchronized int available()
+        {
+            return available;
+        }
+    }
+
+    /**
+     * sends a lobby command over a UDP link
+     * @param link the link to the server
+     * @param command the command
+     * @throws IOException if the link is closed
+     */
+    private static void command(UdpLink link, String command)
+        throws IOException
+    {
+        link.send(new WireProtocol.Writer().begin(WireProtocol.COMMAND)
+            .text(command));
+    }
+
+    /**
+     * tests that a UDP client sending a malformed
+     * command does not stop the server answering
+     * the other clients
+     * @throws Exception if the test fails
+     */
+    private static void checkBadDatagram() throws Exception
+    {
+        boolean udp=Server.USE_UDP;
+        Server.USE_UDP=true;
+        NioServer server;
+        try
+        {
+            server=new NioServer(0, 1);
+        }
+        finally
+        {
+            Server.USE_UDP=udp;
+        }
+        server.start();
+        try
+        {
+            UdpLink bad=UdpLink.connect("localhost", server.getPort());
+            command(bad, "Join");
+            UdpLink good=UdpLink.connect("localhost", server.getPort());
+            command(good, "Join check session 2");
+            long end=System.currentTimeMillis()+5000;
+            String answer=null;
+            while(answer==null && System.currentTimeMillis()<end)
+            {
+                byte[] frame=good.receive();
+                if(frame==null)
+                    Thread.sleep(10);
+                else if(frame[0]==WireProtocol.TEXT)
+                    answer=WireProtocol.reader(frame).readUTF();
+            }
+            if(!"Success".equals(answer))
+                throw new IOException("Join after a bad datagram answered "+
+                    answer);
+            System.out.println("join after a bad datagram: "+answer);
+            bad.close();
+            good.close();
+        }
+        finally
+        {
+            server.disconnect();
+        }
+    }
+
+    /**starts the server accepting new connections
+     * @param argv "check" to test the server instead
+     * @throws Exception if the port cannot be opened
+     * or the test fails
+     */
+    public static void main(String[] argv) throws Exception
+    {
+        if(argv.length>0 && argv[0].equals("check"))
+            checkBadDatagram();
+        else
+            new NioServer().start();
+    }
+}
@@ -0,0 +1,276 @@
+package fang;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+import static java.awt.geom.PathIterator.*;
+
+/**
+ * The flattened outline of a Shape as used by
+ * OutlineTracker, along with the distance along the
+ * outline to every point in both directions.  The
+ * distances allow finding where a given distance
+ * along the outline ends up by binary search instead
+ * of walking every segment.  Paths are shared: all
+ * trackers following outlines with the same points
+ * use one OutlinePath, so many Sprites following one
+ * track do not each keep a copy.  OutlinePaths never
+ * change once made.
+ * @author Jam Jenkins
+ */
+final class OutlinePath
+{
+    /**the paths in use, so that equal paths can be shared*/
+    private static final WeakHashMap<OutlinePath, WeakReference<OutlinePath>>
+        shared=new WeakHashMap<OutlinePath, WeakReference<OutlinePath>>();
+
+    /**the horizontal location of each point*/
+    final double[] x;
+
+    /**the vertical location of each point*/
+    final double[] y;
+
+    /**the type of each point, SEG_MOVETO or SEG_LINETO.
+     * Moving toward a SEG_MOVETO point jumps there
+     * without using up any distance.*/
+    final int[] type;
+
+    /**the distance travelled going forward from the
+     * first point to each point*/
+    final double[] forward;
+
+    /**the distance travelled going backward from the
+     * last point to each point*/
+    final double[] backward;
+
+    /**the distance from the last point to the first
+     * when looping forward*/
+    final double wrapForward;
+
+    /**the distance from the first point to the last
+     * when looping backward*/
+    final double wrapBackward;
+
+    /**computed once, since paths are compared when shared*/
+    private final int hash;
+
+    /**
+     * gets the path around a Shape, shared with any
+     * other tracker following the same outline
+     * @param shape the shape to trace the outline of
+     * @return the path
+     */
+    static OutlinePath getPath(Shape shape)
+    {
+        OutlinePath path=new OutlinePath(shape);
+        synchronized(shared)
+        {
+            WeakReference<OutlinePath> existing=shared.get(path);
+            OutlinePath same=existing==null ? null : existing.get();
+            if(same!=null)
+                return same;
+            shared.put(path, new WeakReference<OutlinePath>(path));
+        }
+        return path;
+    }
+
+    /**
+     * makes a path around the Shape such that the
+     * points can be traversed both forward and
+     * backward.  This is done in two primary ways.
+     * First, every SEG_CLOSE is replaced by a SEG_LINETO
+     * since closing would be different when traversing
+     * in the opposite direction.  Secondly, each SEG_MOVETO
+     * is replaced by a SEG_MOVETO and SEG_LINETO so that
+     * lines to close shapes actually draw the final closing
+     * line and not just move toward it.
+     * @param shape the shape to trace the outline of
+     */
+    private OutlinePath(Shape shape)
+    {
+        double[] curve=new double[6];
+        PathIterator path=shape.getPathIterator(new AffineTransform(), 0.001);
+        path.currentSegment(curve);
+        double startX=curve[0];
+        double startY=curve[1];
+        int capacity=64;
+        double[] pointsX=new double[capacity];
+        double[] pointsY=new double[capacity];
+        int[] pointsType=new int[capacity];
+        int size=0;
+        pointsType[size]=SEG_MOVETO;
+        pointsX[size]=curve[0];
+        pointsY[size++]=curve[1];
+        pointsType[size]=SEG_LINETO;
+        pointsX[size]=curve[0];
+        pointsY[size++]=curve[1];
+        path.next();
+        boolean fixReverse=false;
+        while(!path.isDone())
+        {
+            int curveType=path.currentSegment(curve);
+            if(curveType==SEG_CLOSE)
+            {
+                curve[0]=startX;
+                curve[1]=startY;
+                if(!fixReverse)
+                {
+                    curveType=SEG_LINETO;
+                    fixReverse=true;
+                }
+                else
+                {
+                    fixReverse=false;
+                    curveType=SEG_MOVETO;
+                }
+            }
+            else if(curveType==SEG_MOVETO)
+            {
+                startX=curve[0];
+                startY=curve[1];
+                if(!fixReverse)
+                {
+                    fixReverse=true;
+                }
+                else
+                {
+                    fixReverse=false;
+                    curveType=SEG_LINETO;
+                }
+            }
+            if(size==capacity)
+            {
+                capacity*=2;
+                pointsX=Arrays.copyOf(pointsX, capacity);
+                pointsY=Arrays.copyOf(pointsY, capacity);
+                pointsType=Arrays.copyOf(pointsType, capacity);
+            }
+            pointsType[size]=curveType;
+            pointsX[size]=curve[0];
+            pointsY[size++]=curve[1];
+            if(!fixReverse)
+                path.next();
+        }
+        x=Arrays.copyOf(pointsX, size);
+        y=Arrays.copyOf(pointsY, size);
+        type=Arrays.copyOf(pointsType, size);
+        forward=new double[size];
+        for(int i=1; i<size; i++)
+            forward[i]=forward[i-1]+length(i-1, i);
+        backward=new double[size];
+        for(int i=size-2; i>=0; i--)
+            backward[i]=backward[i+1]+length(i+1, i);
+        wrapForward=length(size-1, 0);
+        wrapBackward=length(0, size-1);
+        int code=Arrays.hashCode(x);
+        code=31*code+Arrays.hashCode(y);
+        hash=31*code+Arrays.hashCode(type);
+    }
+
+    /**gets the distance used up moving from one
+     * point to another
+     * @param from the index of the starting point
+     * @param to the index of the point moved toward
+     * @return the length of the line between the points,
+     * or zero if the point moved toward is a SEG_MOVETO
+     */
+    private double length(int from, int to)
+    {
+        if(type[to]!=SEG_LINETO)
+            return 0;
+        double dx=x[to]-x[from];
+        double dy=y[to]-y[from];
+        return Math.sqrt(dx*dx+dy*dy);
+    }
+
+    /**gets the number of points
+     * @return the number of points in the path
+     */
+    int size()
+    {
+        return type.length;
+    }
+
+    /**gets the distance around the entire outline
+     * @return the distance going forward from the first
+     * point to the last
+     */
+    double getPerimeter()
+    {
+        return forward[forward.length-1];
+    }
+
+    /**finds the first point reached going forward
+     * once a distance has been travelled
+     * @param from the first index to consider
+     * @param distance the distance from the first point
+     * @return the smallest index at or after from whose
+     * forward distance is at least the distance given
+     */
+    int searchForward(int from, double distance)
+    {
+        int low=from;
+        int high=forward.length-1;
+        while(low<high)
+        {
+            int middle=(low+high)>>>1;
+            if(forward[middle]>=distance)
+                high=middle;
+            else
+                low=middle+1;
+        }
+        return low;
+    }
+
+    /**finds the first point reached going backward
+     * once a distance has been travelled
+     * @param from the last index to consider
+     * @param distance the distance from the last point
+     * @return the largest index at or before from whose
+     * backward distance is at least the distance given
+     */
+    int searchBackward(int from, double distance)
+    {
+        int low=0;
+        int high=from;
+        while(low<high)
+        {
+            int middle=(low+high+1)>>>1;
+            if(backward[middle]>=distance)
+                low=middle;
+            else
+                high=middle-1;
+        }
+        return low;
+    }
+
+    /**determines if two paths have the same points
+     * @param other the path to compare to
+     * @return true if the points and their types are
+     * the same, false otherwise
+     */
+    public boolean equals(Object other)
+    {
+        if(this==other)
+            return true;
+        if(!(other instanceof OutlinePath))
+            return false;
+        OutlinePath path=(OutlinePath)other;
+        return hash==path.hash &&
+            Arrays.equals(type, path.type) &&
+            Arrays.equals(x, path.x) &&
+            Arrays.equals(y, path.y);
+    }
+
+    /**gets a hash code based on the points
+     * @return the hash code
+     */
+    public int hashCode()
+    {
+        return hash;
+    }
+}
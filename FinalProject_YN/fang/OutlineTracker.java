@@ -2,7 +2,6 @@ package fang;
 
 import java.awt.Shape;
 import java.awt.geom.*;
-import java.util.ArrayList;
 
 import static java.awt.geom.FlatteningPathIterator.*;
 
@@ -14,9 +13,8 @@ import fang.*;
  *
  */
 public class OutlineTracker extends TrackerAdapter
+    implements IndependentTracker, PrimitiveTracker
 {
-	/**the distance around the outline*/
-	private double perimeter;
 	/**whether to keep moving around the
 	 * outline once the shape has been traversed*/
 	private boolean looping=false;
@@ -29,10 +27,9 @@ public class OutlineTracker extends TrackerAdapter
 	private Point2D.Double currentPoint;
 	/**how far to move the next time step*/
 	private Point2D.Double delta;
-	/**the points along the outline*/
-	private double[][] allPoints;
-	/**the type of each point, SEG_MOVETO or SEG_LINETO*/
-	private int[] pointType;
+	/**the points along the outline, shared with
+	 * other trackers following the same outline*/
+	private OutlinePath path;
 	/**which is the current point in the array*/
 	private int pointIndex;
 
@@ -114,89 +111,18 @@ public class OutlineTracker extends TrackerAdapter
 	}
 
 	/**
-	 * makes a path around the Shape/Sprite such that
+	 * gets the path around the Shape/Sprite such that
 	 * the points can be traversed both forward and
-	 * backward.  This is done in two primary ways.
-	 * First, every SEG_CLOSE is replaced by a SEG_LINETO
-	 * since closing would be different when traversing
-	 * in the opposite direction.  Secondly, each SEG_MOVETO
-	 * is replaced by a SEG_MOVETO and SEG_LINETO so that
-	 * lines to close shapes actually draw the final closing
-	 * line and not just move toward it.
+	 * backward, and moves to the start of the path.
+	 * The path is shared with any other tracker
+	 * following the same outline.
 	 */
 	private void initializeReversablePath()
 	{
+		path=OutlinePath.getPath(shape);
 		pointIndex=0;
-		perimeter=0;
-		Point2D.Double startPoint=new Point2D.Double();
-		double[] curve=new double[6];
-		PathIterator path;
-		path=shape.getPathIterator(new AffineTransform(), 0.001);
-		path.currentSegment(curve);
-		currentPoint.x=curve[0];
-		currentPoint.y=curve[1];
-		startPoint.x=curve[0];
-		startPoint.y=curve[1];
-
-		ArrayList<Integer> pointsType=new ArrayList<Integer>();
-		ArrayList<double[]> points=new ArrayList<double[]>();
-		pointsType.add(SEG_MOVETO);
-		points.add(new double[]{curve[0], curve[1]});
-		pointsType.add(SEG_LINETO);
-		points.add(new double[]{curve[0], curve[1]});
-		path.next();
-		Point2D.Double last=new Point2D.Double(curve[0], curve[1]);
-		boolean fixReverse=false;
-		while(!path.isDone())
-		{
-			int curveType=path.currentSegment(curve);
-			if(curveType==SEG_CLOSE)
-			{
-				curve[0]=startPoint.x;
-				curve[1]=startPoint.y;
-				if(!fixReverse)
-				{
-					curveType=SEG_LINETO;
-					fixReverse=true;
-				}
-				else
-				{
-					fixReverse=false;
-					curveType=SEG_MOVETO;
-				}
-			}
-			else if(curveType==SEG_MOVETO)
-			{
-				startPoint.x=curve[0];
-				startPoint.y=curve[1];
-				if(!fixReverse)
-				{
-					fixReverse=true;
-				}
-				else
-				{
-					fixReverse=false;
-					curveType=SEG_LINETO;
-				}
-			}
-			if(curveType==SEG_LINETO)
-			{
-				perimeter+=last.distance(curve[0], curve[1]);
-			}
-			last.x=curve[0];
-			last.y=curve[1];
-			pointsType.add(curveType);
-			points.add(new double[]{curve[0], curve[1]});
-			if(!fixReverse)
-				path.next();
-		}
-		this.allPoints=new double[pointsType.size()][2];
-		this.pointType=new int[pointsType.size()];
-		for(int i=0; i<this.pointType.length; i++)
-		{
-			this.pointType[i]=pointsType.get(i);
-			this.allPoints[i]=points.get(i);
-		}
+		currentPoint.x=path.x[0];
+		currentPoint.y=path.y[0];
 	}
 
 	/**
@@ -234,7 +160,7 @@ public class OutlineTracker extends TrackerAdapter
 	 */
 	public double getPathDistance()
 	{
-		return perimeter;
+		return path.getPerimeter();
 	}
 
 	/**
@@ -261,20 +187,141 @@ public class OutlineTracker extends TrackerAdapter
 	 * moves along the outline a given distance.
 	 * Unlike shipDistance, this has the effect of
 	 * moving the tracker and it changes currentPoint.
+	 * Once the current line is finished, the rest of
+	 * the distance is found by binary search, so long
+	 * distances take little more time than short ones.
 	 * @param distance the amount to move around
 	 * the outline
 	 */
 	public void advanceDistance(double distance)
 	{
-		while(distance>0)
-		{
+		if(distance>0)
 			distance-=moveAlongCurrentLine(distance);
-			if(distance>0)
+		if(distance>0)
+		{
+			if(speed>0)
+				moveForward(distance);
+			else
+				moveBackward(distance);
+		}
+	}
+
+	/**
+	 * moves forward from the current point, which
+	 * must be one of the points in the path.
+	 * @param distance the amount to move, more than zero
+	 */
+	private void moveForward(double distance)
+	{
+		double[] forward=path.forward;
+		int last=path.size()-1;
+		double target=forward[pointIndex]+distance;
+		int index;
+		if(target>forward[last])
+		{
+			double lap=forward[last]+path.wrapForward;
+			if(!looping || !(lap>0))
+			{
+				moveTo(last, path.x[last], path.y[last]);
+				return;
+			}
+			double left=target-forward[last];
+			left-=lap*Math.floor(left/lap);
+			if(left<=0)
 			{
-				if(!advancePointIndex())
-					distance=0;
+				moveTo(last, path.x[last], path.y[last]);
+				return;
 			}
+			if(left<=path.wrapForward)
+			{
+				double part=left/path.wrapForward;
+				moveTo(0,
+						path.x[last]+part*(path.x[0]-path.x[last]),
+						path.y[last]+part*(path.y[0]-path.y[last]));
+				return;
+			}
+			target=left-path.wrapForward;
+			index=path.searchForward(0, target);
+		}
+		else
+			index=path.searchForward(pointIndex+1, target);
+		double length=forward[index]-forward[index-1];
+		if(length>0)
+		{
+			double part=(target-forward[index-1])/length;
+			moveTo(index,
+					path.x[index-1]+part*(path.x[index]-path.x[index-1]),
+					path.y[index-1]+part*(path.y[index]-path.y[index-1]));
 		}
+		else
+			moveTo(index, path.x[index], path.y[index]);
+	}
+
+	/**
+	 * moves backward from the current point, which
+	 * must be one of the points in the path.
+	 * @param distance the amount to move, more than zero
+	 */
+	private void moveBackward(double distance)
+	{
+		double[] backward=path.backward;
+		int last=path.size()-1;
+		double target=backward[pointIndex]+distance;
+		int index;
+		if(target>backward[0])
+		{
+			double lap=backward[0]+path.wrapBackward;
+			if(!looping || !(lap>0))
+			{
+				moveTo(0, path.x[0], path.y[0]);
+				return;
+			}
+			double left=target-backward[0];
+			left-=lap*Math.floor(left/lap);
+			if(left<=0)
+			{
+				moveTo(0, path.x[0], path.y[0]);
+				return;
+			}
+			if(left<=path.wrapBackward)
+			{
+				double part=left/path.wrapBackward;
+				moveTo(last,
+						path.x[0]+part*(path.x[last]-path.x[0]),
+						path.y[0]+part*(path.y[last]-path.y[0]));
+				return;
+			}
+			target=left-path.wrapBackward;
+			index=path.searchBackward(last, target);
+		}
+		else
+			index=path.searchBackward(pointIndex-1, target);
+		double length=backward[index]-backward[index+1];
+		if(length>0)
+		{
+			double part=(target-backward[index+1])/length;
+			moveTo(index,
+					path.x[index+1]+part*(path.x[index]-path.x[index+1]),
+					path.y[index+1]+part*(path.y[index]-path.y[index+1]));
+		}
+		else
+			moveTo(index, path.x[index], path.y[index]);
+	}
+
+	/**
+	 * moves the current point, adding the movement
+	 * to the amount to move this time step
+	 * @param index the point being moved toward
+	 * @param x the new horizontal location
+	 * @param y the new vertical location
+	 */
+	private void moveTo(int index, double x, double y)
+	{
+		delta.x+=x-currentPoint.x;
+		delta.y+=y-currentPoint.y;
+		currentPoint.x=x;
+		currentPoint.y=y;
+		pointIndex=index;
 	}
 
 	/**
@@ -291,71 +338,40 @@ public class OutlineTracker extends TrackerAdapter
 	private double moveAlongCurrentLine(double distance)
 	{
 		double originalDistance=distance;
-		if(pointType[pointIndex]==SEG_MOVETO)
+		if(path.type[pointIndex]==SEG_MOVETO)
 		{
-			delta.x+=allPoints[pointIndex][0]-currentPoint.x;
-			delta.y+=allPoints[pointIndex][1]-currentPoint.y;
-			currentPoint.x=allPoints[pointIndex][0];
-			currentPoint.y=allPoints[pointIndex][1];
+			delta.x+=path.x[pointIndex]-currentPoint.x;
+			delta.y+=path.y[pointIndex]-currentPoint.y;
+			currentPoint.x=path.x[pointIndex];
+			currentPoint.y=path.y[pointIndex];
 		}
 		else
 		{
 			double lineDistance=
 			    currentPoint.distance(
-			        allPoints[pointIndex][0],
-			        allPoints[pointIndex][1]);
+			        path.x[pointIndex],
+			        path.y[pointIndex]);
 			if(lineDistance<distance)
 			{
-				delta.x+=allPoints[pointIndex][0]-currentPoint.x;
-				delta.y+=allPoints[pointIndex][1]-currentPoint.y;
-				currentPoint.x=allPoints[pointIndex][0];
-				currentPoint.y=allPoints[pointIndex][1];
+				delta.x+=path.x[pointIndex]-currentPoint.x;
+				delta.y+=path.y[pointIndex]-currentPoint.y;
+				currentPoint.x=path.x[pointIndex];
+				currentPoint.y=path.y[pointIndex];
 				distance-=lineDistance;
 			}
 			else
 			{
 				double part=distance/lineDistance;
-				delta.x+=part*(allPoints[pointIndex][0]-currentPoint.x);
-				delta.y+=part*(allPoints[pointIndex][1]-currentPoint.y);
-				currentPoint.x+=part*(allPoints[pointIndex][0]-currentPoint.x);
-				currentPoint.y+=part*(allPoints[pointIndex][1]-currentPoint.y);
+				delta.x+=part*(path.x[pointIndex]-currentPoint.x);
+				delta.y+=part*(path.y[pointIndex]-currentPoint.y);
+				currentPoint.x+=part*(path.x[pointIndex]-currentPoint.x);
+				currentPoint.y+=part*(path.y[pointIndex]-currentPoint.y);
 				distance=0;
 			}
 		}
 		return originalDistance-distance;
 	}
 
-	/**
-	 * moves the current pointIndex forward or
-	 * backward depending on the speed and whether it
-	 * is looping or not.
-	 * @return true if there is a next point, false
-	 * otherwise
-	 */
-	private boolean advancePointIndex()
-	{
-		boolean didAdvance=true;
-		if(speed>0)
-		{
-			if(pointIndex<allPoints.length-1)
-				pointIndex++;
-			else if(looping)
-				pointIndex=0;
-			else
-				didAdvance=false;
-		}
-		else
-		{
-			if(pointIndex>0)
-				pointIndex--;
-			else if(looping)
-				pointIndex=allPoints.length-1;
-			else
-				didAdvance=false;
-		}
-		return didAdvance;
-	}
-
 	/**
 	 * sets the shape to traverse
 	 * @param sprite the sprite to trace the outline of
@@ -393,8 +409,8 @@ public class OutlineTracker extends TrackerAdapter
 	public void setSpeed(double speed)
 	{
 		if(speed<0 && pointIndex==0)
-			pointIndex=allPoints.length-1;
-		if(speed>0 && pointIndex==allPoints.length-1)
+			pointIndex=path.size()-1;
+		if(speed>0 && pointIndex==path.size()-1)
 			pointIndex=0;
 		this.speed=speed;
 	}
@@ -415,6 +431,18 @@ public class OutlineTracker extends TrackerAdapter
 		return delta;
 	}
 
+	@Override
+	public double getTranslationX()
+	{
+		return delta.x;
+	}
+
+	@Override
+	public double getTranslationY()
+	{
+		return delta.y;
+	}
+
 	@Override
 	public void advanceTime(double time)
 	{
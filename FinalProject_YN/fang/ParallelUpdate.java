@@ -0,0 +1,241 @@
+package fang;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Advances independent trackers and updates the
+ * Sprites they move on several threads at once.
+ * Each tracker and Sprite is only ever touched by
+ * one thread and the arithmetic is the same as
+ * when updating one at a time, so the results are
+ * exactly the same as the sequential update.
+ * @author Jam Jenkins
+ */
+final class ParallelUpdate extends RecursiveAction
+{
+    /**used for serialization versioning*/
+    private static final long serialVersionUID = 1L;
+
+    /**fewer items than this are updated on the
+     * calling thread*/
+    static final int THRESHOLD=1024;
+
+    /**the most items one thread updates at once*/
+    private static final int CHUNK=256;
+
+    /**the Sprite methods which update calls or which
+     * read the transform it changes.  Sprites which
+     * override any of these may do more than change
+     * or read their own transform.*/
+    private static final String[] UPDATE_METHODS=
+    {
+        "update", "translate", "setLocation", "scale",
+        "setScale", "getScale", "rotate", "setRotation",
+        "getRotation"
+    };
+
+    /**whether each class of Sprite keeps the
+     * update methods of Sprite*/
+    private static final ClassValue<Boolean> plainUpdate=
+        new ClassValue<Boolean>()
+        {
+            protected Boolean computeValue(Class<?> type)
+            {
+                return keepsUpdateMethods(type);
+            }
+        };
+
+    /**whether every Tracker method of each class of
+     * tracker comes from a class marked independent*/
+    private static final ClassValue<Boolean> independent=
+        new ClassValue<Boolean>()
+        {
+            protected Boolean computeValue(Class<?> type)
+            {
+                return isIndependent(type);
+            }
+        };
+
+    /**the trackers to advance, or null when updating Sprites*/
+    private final transient List<Tracker> trackers;
+
+    /**the Sprites to update, or null when advancing trackers*/
+    private final transient List<Sprite> sprites;
+
+    /**the first index to update*/
+    private final int from;
+
+    /**one past the last index to update*/
+    private final int to;
+
+    /**the time passed in seconds*/
+    private final double time;
+
+    /**makes the work for part of a list
+     * @param trackers the trackers to advance, or null
+     * @param sprites the Sprites to update, or null
+     * @param from the first index
+     * @param to one past the last index
+     * @param time the time passed in seconds
+     */
+    private ParallelUpdate(List<Tracker> trackers, List<Sprite> sprites,
+            int from, int to, double time)
+    {
+        this.trackers=trackers;
+        this.sprites=sprites;
+        this.from=from;
+        this.to=to;
+        this.time=time;
+    }
+
+    /**advances the trackers, splitting the list
+     * in half until the parts are small*/
+    protected void compute()
+    {
+        if(to-from<=CHUNK)
+        {
+            if(trackers!=null)
+                for(int i=from; i<to; i++)
+                    trackers.get(i).advanceTime(time);
+            else
+                for(int i=from; i<to; i++)
+                    sprites.get(i).update();
+            return;
+        }
+        int middle=(from+to)>>>1;
+        invokeAll(new ParallelUpdate(trackers, sprites, from, middle, time),
+                new ParallelUpdate(trackers, sprites, middle, to, time));
+    }
+
+    /**advances independent trackers
+     * @param trackers the trackers to advance
+     * @param time the time passed in seconds
+     */
+    static void advance(ArrayList<Tracker> trackers, double time)
+    {
+        if(trackers.size()<THRESHOLD)
+        {
+            for(Tracker tracker: trackers)
+                tracker.advanceTime(time);
+        }
+        else
+            ForkJoinPool.commonPool().invoke(new ParallelUpdate(
+                    trackers, null, 0, trackers.size(), time));
+    }
+
+    /**updates Sprites moved by independent trackers
+     * @param sprites the Sprites to update
+     */
+    static void update(ArrayList<Sprite> sprites)
+    {
+        if(sprites.size()<THRESHOLD)
+        {
+            for(Sprite sprite: sprites)
+                sprite.update();
+        }
+        else
+            ForkJoinPool.commonPool().invoke(new ParallelUpdate(
+                    null, sprites, 0, sprites.size(), 0));
+    }
+
+    /**determines if a Sprite only changes its own
+     * transform when updated
+     * @param sprite the Sprite to check
+     * @return true if the Sprite may be updated at the
+     * same time as other such Sprites, false otherwise
+     */
+    static boolean canUpdateInParallel(Sprite sprite)
+    {
+        if(sprite.optimizeForBitmap || !isIndependent(sprite.getTracker()))
+            return false;
+        return plainUpdate.get(sprite.getClass());
+    }
+
+    /**determines if a tracker may be advanced at the
+     * same time as other independent trackers.  A
+     * subclass of an IndependentTracker which changes
+     * how it advances or moves is not independent
+     * unless it is marked independent itself, since it
+     * may read things which change during the update.
+     * @param tracker the tracker to check, or null
+     * @return true if the tracker is independent,
+     * false otherwise
+     */
+    static boolean isIndependent(Tracker tracker)
+    {
+        return tracker instanceof IndependentTracker &&
+            independent.get(tracker.getClass());
+    }
+
+    /**determines if each Tracker method of a class of
+     * tracker is declared by a class which is itself
+     * marked independent, rather than inheriting the
+     * mark from a superclass.  The methods of
+     * TrackerAdapter only return constants, so they
+     * are allowed as long as the methods they call
+     * are too.
+     * @param type the class of tracker
+     * @return true if so, false otherwise
+     */
+    private static boolean isIndependent(Class<?> type)
+    {
+        ArrayList<Method> methods=new ArrayList<Method>();
+        for(Method method: Tracker.class.getMethods())
+            methods.add(method);
+        if(PrimitiveTracker.class.isAssignableFrom(type))
+            for(Method method: PrimitiveTracker.class.getDeclaredMethods())
+                methods.add(method);
+        if(TrackerAdapter.class.isAssignableFrom(type))
+            for(Method method: TrackerAdapter.class.getDeclaredMethods())
+                methods.add(method);
+        try
+        {
+            for(Method method: methods)
+                if(!marksIndependent(type.getMethod(method.getName(),
+                        method.getParameterTypes()).getDeclaringClass()))
+                    return false;
+            return true;
+        }
+        catch(NoSuchMethodException nsme)
+        {
+            return false;
+        }
+    }
+
+    /**determines if a class itself says it implements
+     * IndependentTracker
+     * @param type the class
+     * @return true if IndependentTracker, or an interface
+     * extending it, is among the interfaces the class
+     * lists, or the class is TrackerAdapter, false
+     * otherwise
+     */
+    private static boolean marksIndependent(Class<?> type)
+    {
+        if(type==TrackerAdapter.class)
+            return true;
+        for(Class<?> marked: type.getInterfaces())
+            if(IndependentTracker.class.isAssignableFrom(marked))
+                return true;
+        return false;
+    }
+
+    /**determines if a class of Sprite overrides any
+     * of the methods used by update
+     * @param type the class of Sprite
+     * @return true if none are overridden, false otherwise
+     */
+    private static boolean keepsUpdateMethods(Class<?> type)
+    {
+        for(Class<?> c=type; c!=Sprite.class; c=c.getSuperclass())
+            for(Method method: c.getDeclaredMethods())
+                for(String name: UPDATE_METHODS)
+                    if(method.getName().equals(name))
+                        return false;
+        return true;
+    }
+}
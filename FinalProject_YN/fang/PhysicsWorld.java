@@ -0,0 +1,481 @@
+package fang;
+
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Moves Sprites as solid bodies which fall, bounce,
+ * slide and rest on each other.  Add each Sprite to
+ * the world with a mass, and the world becomes its
+ * tracker:
+ * <pre>
+ * PhysicsWorld world=new PhysicsWorld();
+ * world.setGravity(0, 1);
+ * world.add(floor, 0);
+ * RigidBody ball=world.add(ballSprite, 1);
+ * ball.setRestitution(0.8);
+ * </pre>
+ * Each model step the world finds which bodies
+ * overlap, as Sprite.intersects does, and takes the
+ * contact direction the same way as
+ * Sprite.getNormalVector, except that bodies
+ * touching along a flat side are pushed straight
+ * across it.  It then pushes touching bodies apart
+ * with impulses, repeating several times and
+ * starting from the push each pair needed last
+ * step, so that stacks of bodies settle and stand.
+ * Bodies only move, they do not tip over.
+ * @author Jam Jenkins
+ */
+public class PhysicsWorld
+    implements TrackerGroup
+{
+    /**how positions and velocities are advanced*/
+    public enum Integration
+    {
+        /**update the velocity, then move at the new velocity*/
+        SEMI_IMPLICIT_EULER,
+        /**move at the average of the old and new velocities*/
+        VERLET
+    }
+
+    /**a pair of touching bodies*/
+    private static class Contact
+    {
+        /**the two bodies, the normal points from a to b*/
+        RigidBody a, b;
+        /**the direction to push b away from a*/
+        double normalX, normalY;
+        /**how far the bodies overlap along the normal*/
+        double depth;
+        /**the total push along the normal so far this step*/
+        double normalImpulse;
+        /**the total push against sliding so far this step*/
+        double tangentImpulse;
+        /**how bouncy the contact is*/
+        double restitution;
+        /**how much the contact resists sliding*/
+        double friction;
+        /**the speed the bodies should separate at*/
+        double bounce;
+
+        /**contacts are the same if they are between
+         * the same bodies
+         * @param other the contact to compare to
+         * @return true if between the same bodies
+         */
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof Contact))
+                return false;
+            Contact contact=(Contact)other;
+            return a==contact.a && b==contact.b;
+        }
+
+        /**gets a hash code for the pair of bodies
+         * @return the hash code
+         */
+        public int hashCode()
+        {
+            return 31*System.identityHashCode(a)+System.identityHashCode(b);
+        }
+    }
+
+    /**orders bodies by the left edge of their bounds*/
+    private static final Comparator<RigidBody> LEFT_EDGE=
+        new Comparator<RigidBody>()
+        {
+            public int compare(RigidBody one, RigidBody two)
+            {
+                return Double.compare(one.bounds.getMinX(),
+                        two.bounds.getMinX());
+            }
+        };
+
+    /**all of the bodies in the order added*/
+    private ArrayList<RigidBody> bodies=new ArrayList<RigidBody>();
+
+    /**the contacts found this step*/
+    private ArrayList<Contact> contacts=new ArrayList<Contact>();
+
+    /**the contacts found last step, used to start
+     * each contact with the push it needed last time*/
+    private HashMap<Contact, Contact> lastContacts=
+        new HashMap<Contact, Contact>();
+
+    /**the acceleration of every moving body*/
+    private double gravityX=0, gravityY=0;
+
+    /**how positions and velocities are advanced*/
+    private Integration integration=Integration.SEMI_IMPLICIT_EULER;
+
+    /**how many times per step contacts are resolved*/
+    private int iterations=10;
+
+    /**the portion of any overlap removed each step*/
+    private double correction=0.4;
+
+    /**overlap allowed without correcting, which
+     * keeps resting bodies from jittering*/
+    private double slop=0.002;
+
+    /**
+     * adds a Sprite to the world.  Bodies with mass
+     * become the tracker for their Sprite; bodies with
+     * no mass never move and keep their tracker.
+     * @param sprite the Sprite to add
+     * @param mass the mass, zero for floors and walls
+     * @return the body, used to set velocity and
+     * surface properties
+     */
+    public RigidBody add(Sprite sprite, double mass)
+    {
+        RigidBody body=new RigidBody(this, sprite, mass);
+        bodies.add(body);
+        if(!body.isStatic())
+            sprite.setTracker(body);
+        return body;
+    }
+
+    /**
+     * removes a body from the world.  The Sprite
+     * keeps the body as its tracker but stops moving.
+     * Bodies of destroyed Sprites are removed
+     * automatically.
+     * @param body the body to remove
+     */
+    public void remove(RigidBody body)
+    {
+        bodies.remove(body);
+        body.translationX=0;
+        body.translationY=0;
+        body.rotation=0;
+    }
+
+    /**gets the bodies in the world
+     * @return the bodies in the order added
+     */
+    public RigidBody[] getBodies()
+    {
+        return bodies.toArray(new RigidBody[0]);
+    }
+
+    /**
+     * sets the acceleration of every moving body
+     * @param x the horizontal acceleration in screens/second/second
+     * @param y the vertical acceleration in screens/second/second,
+     * positive is down
+     */
+    public void setGravity(double x, double y)
+    {
+        gravityX=x;
+        gravityY=y;
+    }
+
+    /**
+     * sets how positions and velocities are advanced
+     * @param integration the integration method
+     */
+    public void setIntegration(Integration integration)
+    {
+        this.integration=integration;
+    }
+
+    /**gets how positions and velocities are advanced
+     * @return the integration method
+     */
+    public Integration getIntegration()
+    {
+        return integration;
+    }
+
+    /**
+     * sets how many times per step contacts are
+     * resolved.  More makes tall stacks steadier
+     * but takes longer.
+     * @param iterations the number of passes, at least one
+     */
+    public void setIterations(int iterations)
+    {
+        this.iterations=Math.max(1, iterations);
+    }
+
+    /**gets how many times per step contacts are resolved
+     * @return the number of passes
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * advances every body by a step: finds contacts,
+     * applies gravity and forces, resolves the
+     * contacts, then moves.
+     * Negative time moves the bodies backward at their
+     * current velocities without any collisions.
+     * @param time the time passed in seconds
+     */
+    public void advanceGroup(double time)
+    {
+        for(int i=bodies.size()-1; i>=0; i--)
+            if(bodies.get(i).sprite.isDestroyed())
+                bodies.remove(i);
+        if(time<=0)
+        {
+            for(RigidBody body: bodies)
+            {
+                body.translationX=body.velocityX*time;
+                body.translationY=body.velocityY*time;
+                body.spin(time);
+            }
+            return;
+        }
+        //contacts are found before gravity is added so
+        //that bounces are worked out from the speed the
+        //bodies arrived at, which keeps bouncing bodies
+        //from gaining energy
+        findContacts(time);
+        double oldX[]=new double[bodies.size()];
+        double oldY[]=new double[bodies.size()];
+        for(int i=0; i<bodies.size(); i++)
+        {
+            RigidBody body=bodies.get(i);
+            oldX[i]=body.velocityX;
+            oldY[i]=body.velocityY;
+            body.translationX=0;
+            body.translationY=0;
+            if(body.inverseMass>0 && body.sprite.isEnabled())
+            {
+                body.velocityX+=time*(gravityX+body.forceX*body.inverseMass);
+                body.velocityY+=time*(gravityY+body.forceY*body.inverseMass);
+            }
+            body.forceX=0;
+            body.forceY=0;
+        }
+        for(Contact contact: contacts)
+            warmStart(contact);
+        for(int pass=0; pass<iterations; pass++)
+            for(Contact contact: contacts)
+                resolve(contact);
+        for(Contact contact: contacts)
+            separate(contact);
+        for(int i=0; i<bodies.size(); i++)
+        {
+            RigidBody body=bodies.get(i);
+            if(body.inverseMass==0 || !body.sprite.isEnabled())
+            {
+                body.translationX=0;
+                body.translationY=0;
+                body.rotation=0;
+                continue;
+            }
+            double velocityX=body.velocityX;
+            double velocityY=body.velocityY;
+            if(integration==Integration.VERLET)
+            {
+                velocityX=0.5*(velocityX+oldX[i]);
+                velocityY=0.5*(velocityY+oldY[i]);
+            }
+            body.translationX+=time*velocityX;
+            body.translationY+=time*velocityY;
+            body.spin(time);
+        }
+    }
+
+    /**finds the touching pairs of bodies.  The bodies
+     * are sorted by their left edges so that only
+     * bodies whose bounds overlap horizontally are
+     * tested against each other.
+     * @param time the time passed in seconds
+     */
+    private void findContacts(double time)
+    {
+        lastContacts.clear();
+        for(Contact contact: contacts)
+            lastContacts.put(contact, contact);
+        contacts.clear();
+        ArrayList<RigidBody> active=new ArrayList<RigidBody>();
+        for(RigidBody body: bodies)
+        {
+            body.area=null;
+            if(body.sprite.isEnabled())
+            {
+                body.bounds=body.sprite.getBounds2D();
+                active.add(body);
+            }
+        }
+        RigidBody[] sorted=active.toArray(new RigidBody[0]);
+        Arrays.sort(sorted, LEFT_EDGE);
+        double resting=2*time*Math.sqrt(gravityX*gravityX+gravityY*gravityY);
+        for(int i=0; i<sorted.length; i++)
+        {
+            RigidBody a=sorted[i];
+            double right=a.bounds.getMaxX();
+            for(int j=i+1; j<sorted.length && sorted[j].bounds.getMinX()<=right; j++)
+            {
+                RigidBody b=sorted[j];
+                if(a.inverseMass==0 && b.inverseMass==0)
+                    continue;
+                if(a.bounds.getMaxY()<b.bounds.getMinY() ||
+                        b.bounds.getMaxY()<a.bounds.getMinY())
+                    continue;
+                Contact contact=makeContact(a, b);
+                if(contact==null)
+                    continue;
+                double approach=(b.velocityX-a.velocityX)*contact.normalX+
+                    (b.velocityY-a.velocityY)*contact.normalY;
+                if(approach<-resting)
+                    contact.bounce=-contact.restitution*approach;
+                contacts.add(contact);
+            }
+        }
+    }
+
+    /**works out the direction and depth of the
+     * overlap between two bodies
+     * @param a the first body
+     * @param b the second body
+     * @return the contact, or null if the shapes
+     * do not overlap
+     */
+    private Contact makeContact(RigidBody a, RigidBody b)
+    {
+        Area overlap=new Area(a.getArea());
+        overlap.intersect(b.getArea());
+        if(overlap.isEmpty())
+            return null;
+        Rectangle2D overlapBounds=overlap.getBounds2D();
+        double width=overlapBounds.getWidth();
+        double height=overlapBounds.getHeight();
+        //the normal points from the overlap toward the
+        //center of b, as in Sprite.getNormalVector
+        double x=b.bounds.getCenterX()-overlapBounds.getCenterX();
+        double y=b.bounds.getCenterY()-overlapBounds.getCenterY();
+        if(x==0 && y==0)
+        {
+            x=b.bounds.getCenterX()-a.bounds.getCenterX();
+            y=b.bounds.getCenterY()-a.bounds.getCenterY();
+        }
+        Contact contact=new Contact();
+        //a long thin overlap means the bodies are touching
+        //along a flat side, so push straight across it
+        if(width>2*height)
+        {
+            contact.normalY=y<0 ? -1 : 1;
+            contact.depth=height;
+        }
+        else if(height>2*width)
+        {
+            contact.normalX=x<0 ? -1 : 1;
+            contact.depth=width;
+        }
+        else
+        {
+            double length=Math.sqrt(x*x+y*y);
+            if(length==0)
+                return null;
+            contact.normalX=x/length;
+            contact.normalY=y/length;
+            contact.depth=width*Math.abs(contact.normalX)+
+                height*Math.abs(contact.normalY);
+        }
+        contact.a=a;
+        contact.b=b;
+        contact.restitution=Math.max(a.restitution, b.restitution);
+        contact.friction=0.5*(a.friction+b.friction);
+        return contact;
+    }
+
+    /**starts a contact with the push the same pair of
+     * bodies needed last step, so that resting bodies
+     * do not need to build up their support again
+     * every step.  This is what lets stacks stand.
+     * @param contact the touching bodies
+     */
+    private void warmStart(Contact contact)
+    {
+        Contact last=lastContacts.get(contact);
+        if(last==null || last.normalX*contact.normalX+
+                last.normalY*contact.normalY<0.9)
+            return;
+        contact.normalImpulse=last.normalImpulse;
+        contact.tangentImpulse=last.tangentImpulse;
+        push(contact, contact.normalImpulse*contact.normalX-
+                contact.tangentImpulse*contact.normalY,
+                contact.normalImpulse*contact.normalY+
+                contact.tangentImpulse*contact.normalX);
+    }
+
+    /**pushes two touching bodies so that they stop
+     * moving into each other, and slows their sliding.
+     * The total push is never allowed to pull the
+     * bodies together, and the total push against
+     * sliding is limited by the friction.
+     * @param contact the touching bodies
+     */
+    private void resolve(Contact contact)
+    {
+        RigidBody a=contact.a;
+        RigidBody b=contact.b;
+        double mass=a.inverseMass+b.inverseMass;
+        double relativeX=b.velocityX-a.velocityX;
+        double relativeY=b.velocityY-a.velocityY;
+        double normalSpeed=relativeX*contact.normalX+relativeY*contact.normalY;
+        double impulse=(contact.bounce-normalSpeed)/mass;
+        double total=Math.max(0, contact.normalImpulse+impulse);
+        impulse=total-contact.normalImpulse;
+        contact.normalImpulse=total;
+        push(contact, impulse*contact.normalX, impulse*contact.normalY);
+
+        relativeX=b.velocityX-a.velocityX;
+        relativeY=b.velocityY-a.velocityY;
+        double tangentX=-contact.normalY;
+        double tangentY=contact.normalX;
+        double slide=relativeX*tangentX+relativeY*tangentY;
+        double limit=contact.friction*contact.normalImpulse;
+        total=Math.max(-limit, Math.min(limit,
+                contact.tangentImpulse-slide/mass));
+        impulse=total-contact.tangentImpulse;
+        contact.tangentImpulse=total;
+        push(contact, impulse*tangentX, impulse*tangentY);
+    }
+
+    /**changes the velocities of two touching bodies
+     * @param contact the touching bodies
+     * @param x the horizontal impulse on b, and the
+     * opposite on a
+     * @param y the vertical impulse on b, and the
+     * opposite on a
+     */
+    private void push(Contact contact, double x, double y)
+    {
+        contact.a.velocityX-=x*contact.a.inverseMass;
+        contact.a.velocityY-=y*contact.a.inverseMass;
+        contact.b.velocityX+=x*contact.b.inverseMass;
+        contact.b.velocityY+=y*contact.b.inverseMass;
+    }
+
+    /**moves overlapping bodies part of the way apart,
+     * lighter bodies moving further.  Bodies which are
+     * bouncing apart are left alone, since lifting them
+     * out of the overlap as well would add energy and
+     * keep them bouncing forever.
+     * @param contact the touching bodies
+     */
+    private void separate(Contact contact)
+    {
+        if(contact.bounce>0)
+            return;
+        double mass=contact.a.inverseMass+contact.b.inverseMass;
+        double amount=correction*Math.max(0, contact.depth-slop)/mass;
+        contact.a.translationX-=amount*contact.normalX*contact.a.inverseMass;
+        contact.a.translationY-=amount*contact.normalY*contact.a.inverseMass;
+        contact.b.translationX+=amount*contact.normalX*contact.b.inverseMass;
+        contact.b.translationY+=amount*contact.normalY*contact.b.inverseMass;
+    }
+}
@@ -0,0 +1,33 @@
+package fang;
+
+/**
+ * A Tracker which can report its translation as
+ * two numbers instead of a Point2D.Double.  Sprites
+ * use these methods when they are available, so
+ * that updating a Sprite does not make a new object
+ * every model step.  The values returned must be the
+ * same as those in getTranslation.  A subclass which
+ * overrides getTranslation without overriding these
+ * methods is moved by getTranslation instead.
+ * @author Jam Jenkins
+ */
+public interface PrimitiveTracker extends Tracker
+{
+    /**
+     * determines the amount to move horizontally.
+     * This method must return the same value every
+     * time until the next time the advanceTime
+     * method is called.
+     * @return the x of getTranslation
+     */
+    double getTranslationX();
+
+    /**
+     * determines the amount to move vertically.
+     * This method must return the same value every
+     * time until the next time the advanceTime
+     * method is called.
+     * @return the y of getTranslation
+     */
+    double getTranslationY();
+}
@@ -0,0 +1,91 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Decides which trackers can be read through
+ * getTranslationX and getTranslationY.  A subclass of
+ * a PrimitiveTracker may override only getTranslation,
+ * in which case the inherited getTranslationX and
+ * getTranslationY no longer agree with it and
+ * getTranslation must be used instead.  The answer is
+ * worked out once for each class of tracker.
+ * @author Jam Jenkins
+ */
+final class PrimitiveTrackers
+{
+    /**whether each class of tracker gets its
+     * getTranslationX and getTranslationY from a
+     * class at least as specific as the one its
+     * getTranslation comes from*/
+    private static final ClassValue<Boolean> primitive=
+        new ClassValue<Boolean>()
+        {
+            protected Boolean computeValue(Class<?> type)
+            {
+                try
+                {
+                    Class<?> point=type.getMethod("getTranslation")
+                        .getDeclaringClass();
+                    return point.isAssignableFrom(type.getMethod(
+                            "getTranslationX").getDeclaringClass()) &&
+                        point.isAssignableFrom(type.getMethod(
+                            "getTranslationY").getDeclaringClass());
+                }
+                catch(NoSuchMethodException nsme)
+                {
+                    return false;
+                }
+            }
+        };
+
+    /**not used, all methods are static*/
+    private PrimitiveTrackers()
+    {
+    }
+
+    /**gets a tracker as a PrimitiveTracker if its
+     * getTranslationX and getTranslationY give the
+     * same movement as its getTranslation
+     * @param tracker the tracker
+     * @return the tracker, or null if getTranslation
+     * must be used
+     */
+    static PrimitiveTracker get(Tracker tracker)
+    {
+        if(tracker instanceof PrimitiveTracker &&
+                primitive.get(tracker.getClass()))
+            return (PrimitiveTracker)tracker;
+        return null;
+    }
+
+    /**
+     * tests that a Sprite follows a tracker which
+     * overrides only getTranslation
+     * @param argv not used
+     */
+    public static void main(String[] argv)
+    {
+        ProjectileTracker tracker=new ProjectileTracker(0, 0)
+        {
+            public Point2D.Double getTranslation()
+            {
+                return new Point2D.Double(0.25, 0);
+            }
+        };
+        Sprite sprite=new RectangleSprite(0.1, 0.1);
+        sprite.setLocation(0, 0);
+        sprite.setTracker(tracker);
+        tracker.advanceTime(1);
+        sprite.update();
+        if(sprite.getLocation().x!=0.25 || get(tracker)!=null)
+            throw new IllegalStateException(
+                "Overridden getTranslation ignored, x="+
+                sprite.getLocation().x);
+        if(get(new ProjectileTracker(0, 0))==null)
+            throw new IllegalStateException(
+                "ProjectileTracker not read as primitive");
+        System.out.println("overridden getTranslation moved to x="+
+            sprite.getLocation().x);
+    }
+}
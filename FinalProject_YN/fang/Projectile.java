@@ -0,0 +1,242 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * The tracker for one Sprite moved by a
+ * ProjectileSystem.  A Projectile holds no motion
+ * of its own; it only refers to its place in the
+ * system, so it is cheap to make and to use.  Its
+ * methods match those of ProjectileTracker.  Once a
+ * Projectile is released it no longer moves its
+ * Sprite and changing its motion has no effect.
+ * @author Jam Jenkins
+ */
+public class Projectile
+    implements GroupedTracker, PrimitiveTracker
+{
+    /**the system holding the motion*/
+    private final ProjectileSystem system;
+
+    /**the place in the system's arrays,
+     * or -1 once released*/
+    int index;
+
+    /**reused for returning the translation*/
+    private final Point2D.Double translation=new Point2D.Double();
+
+    /**makes a handle for a projectile
+     * @param system the system holding the motion
+     * @param index the place in the system's arrays
+     */
+    Projectile(ProjectileSystem system, int index)
+    {
+        this.system=system;
+        this.index=index;
+    }
+
+    /**gets the system which advances this projectile
+     * @return the ProjectileSystem
+     */
+    public TrackerGroup getGroup()
+    {
+        return system;
+    }
+
+    /**
+     * removes this projectile from the system so
+     * that its space can be reused.  Releasing a
+     * projectile twice is ignored.
+     */
+    public void release()
+    {
+        if(index>=0)
+            system.release(this);
+    }
+
+    /**determines if the projectile is still in the system
+     * @return true if not yet released, false otherwise
+     */
+    public boolean isActive()
+    {
+        return index>=0;
+    }
+
+    /**does nothing, the system advances all of
+     * its projectiles together
+     * @param time the time passed in seconds
+     */
+    public void advanceTime(double time)
+    {
+    }
+
+    /**
+     * determines how far to move the Sprite
+     * @return the movement in the last step
+     * @see fang.Tracker#getTranslation()
+     */
+    public Point2D.Double getTranslation()
+    {
+        if(index<0)
+            translation.setLocation(0, 0);
+        else
+            translation.setLocation(system.translationX[index],
+                    system.translationY[index]);
+        return translation;
+    }
+
+    /**
+     * determines the horizontal movement
+     * @return the movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return index<0 ? 0 : system.translationX[index];
+    }
+
+    /**
+     * determines the vertical movement
+     * @return the movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return index<0 ? 0 : system.translationY[index];
+    }
+
+    /**
+     * returns 1
+     * @return one
+     * @see fang.Tracker#getScaleFactor()
+     */
+    public double getScaleFactor()
+    {
+        return 1.0;
+    }
+
+    /**
+     * returns the amount to rotate this time interval
+     * @return the amount to rotate in radians
+     * @see fang.Tracker#getRotationAddition()
+     */
+    public double getRotationAddition()
+    {
+        if(index<0)
+            return 0;
+        return system.rotation[index];
+    }
+
+    /**
+     * determines the velocity
+     * @return the velocity in screens/second
+     */
+    public Point2D.Double getVelocity()
+    {
+        if(index<0)
+            return new Point2D.Double();
+        return new Point2D.Double(system.getVelocityX(index),
+                system.getVelocityY(index));
+    }
+
+    /**
+     * sets the velocity
+     * @param v the (x, y) velocity in screens/second
+     */
+    public void setVelocity(Point2D.Double v)
+    {
+        setVelocity(v.x, v.y);
+    }
+
+    /**
+     * sets the velocity
+     * @param x the horizontal velocity in screens/second
+     * @param y the vertical velocity in screens/second
+     */
+    public void setVelocity(double x, double y)
+    {
+        if(index>=0)
+            system.setVelocity(index, x, y);
+    }
+
+    /**
+     * sets the acceleration, such as gravity
+     * @param x the horizontal acceleration in screens/second/second
+     * @param y the vertical acceleration in screens/second/second
+     */
+    public void setAcceleration(double x, double y)
+    {
+        if(index>=0)
+            system.setAcceleration(index, x, y);
+    }
+
+    /**
+     * determines the acceleration
+     * @return the acceleration in screens/second/second
+     */
+    public Point2D.Double getAcceleration()
+    {
+        if(index<0)
+            return new Point2D.Double();
+        return new Point2D.Double(system.getAccelerationX(index),
+                system.getAccelerationY(index));
+    }
+
+    /**
+     * set how much to rotate per time
+     * @param radPerSecond the magnitude and direction of
+     * rotation around the object's center, in radians/second
+     */
+    public void setAngularVelocity(double radPerSecond)
+    {
+        if(index>=0)
+            system.setAngularVelocity(index, radPerSecond);
+    }
+
+    /**
+     * gets the rotational velocity
+     * @return the rotational velocity in radians/second
+     */
+    public double getAngularVelocity()
+    {
+        if(index<0)
+            return 0;
+        return system.getAngularVelocity(index);
+    }
+
+    /**
+     * sets the direction of the velocity in radians while
+     * keeping the magnitude of the velocity constant
+     * @param angle the direction in radians
+     */
+    public void setVelocityDirection(double angle)
+    {
+        if(index<0)
+            return;
+        double x=system.getVelocityX(index);
+        double y=system.getVelocityY(index);
+        double magnitude=Math.sqrt(x*x+y*y);
+        system.setVelocity(index, magnitude*Math.cos(angle),
+                magnitude*Math.sin(angle));
+    }
+
+    /**
+     * reflect as if off a wall with the given normal.
+     * This method keeps the magnitude of the velocity
+     * unchanged and only changes the direction.
+     * @param normal the perpendicular to the flat
+     * surface in radians
+     */
+    public void bounce(double normal)
+    {
+        if(index<0)
+            return;
+        double x=system.getVelocityX(index);
+        double y=system.getVelocityY(index);
+        if (Double.isNaN(normal) ||
+                Math.cos(normal)*x+Math.sin(normal)*y>=0)
+            return;
+        double velocityAngle=Math.atan2(y, x);
+        setVelocityDirection(Math.PI+normal-velocityAngle+normal);
+    }
+}
@@ -0,0 +1,285 @@
+package fang;
+
+/**
+ * Moves a large number of Sprites in projectile motion.
+ * Unlike ProjectileTracker, where every Sprite has its
+ * own tracker object, a ProjectileSystem keeps the
+ * velocity, acceleration and angular velocity of all
+ * of its projectiles in arrays and advances them all
+ * together in a single loop each model step.  This
+ * makes scenes with tens of thousands of moving Sprites
+ * practical.  Each Sprite is given a Projectile from
+ * the system as its tracker:
+ * <pre>
+ * ProjectileSystem bullets=new ProjectileSystem();
+ * bullets.setGravity(0, 0.5);
+ * sprite.setTracker(bullets.add(0.3, -0.4));
+ * </pre>
+ * When a Sprite is no longer needed, release its
+ * Projectile so that the space can be reused.
+ * Projectiles are advanced whenever any Sprite
+ * using the system is enabled.
+ * @author Jam Jenkins
+ */
+public class ProjectileSystem
+    implements TrackerGroup
+{
+    /**the number of projectiles in use*/
+    private int size=0;
+
+    /**the handle for each index*/
+    private Projectile[] handles;
+
+    /**horizontal velocity in screens/second*/
+    private double[] velocityX;
+
+    /**vertical velocity in screens/second*/
+    private double[] velocityY;
+
+    /**horizontal acceleration in screens/second/second*/
+    private double[] accelerationX;
+
+    /**vertical acceleration in screens/second/second*/
+    private double[] accelerationY;
+
+    /**angular velocity in radians/second*/
+    private double[] angularVelocity;
+
+    /**horizontal movement in the last step*/
+    double[] translationX;
+
+    /**vertical movement in the last step*/
+    double[] translationY;
+
+    /**rotation in the last step*/
+    double[] rotation;
+
+    /**the acceleration given to new projectiles*/
+    private double gravityX=0, gravityY=0;
+
+    /**makes a system with room for 64 projectiles,
+     * which grows as needed*/
+    public ProjectileSystem()
+    {
+        this(64);
+    }
+
+    /**makes a system with room for a given number
+     * of projectiles, which grows as needed
+     * @param capacity the expected number of projectiles
+     */
+    public ProjectileSystem(int capacity)
+    {
+        allocate(Math.max(1, capacity));
+    }
+
+    /**makes the arrays large enough for a number
+     * of projectiles, keeping the current ones
+     * @param capacity the new length of the arrays
+     */
+    private void allocate(int capacity)
+    {
+        handles=copy(handles, new Projectile[capacity]);
+        velocityX=copy(velocityX, capacity);
+        velocityY=copy(velocityY, capacity);
+        accelerationX=copy(accelerationX, capacity);
+        accelerationY=copy(accelerationY, capacity);
+        angularVelocity=copy(angularVelocity, capacity);
+        translationX=copy(translationX, capacity);
+        translationY=copy(translationY, capacity);
+        rotation=copy(rotation, capacity);
+    }
+
+    /**copies an array into a longer one
+     * @param old the array to copy, may be null
+     * @param capacity the length of the new array
+     * @return the new array
+     */
+    private double[] copy(double[] old, int capacity)
+    {
+        double[] larger=new double[capacity];
+        if(old!=null)
+            System.arraycopy(old, 0, larger, 0, size);
+        return larger;
+    }
+
+    /**copies handles into a longer array
+     * @param old the array to copy, may be null
+     * @param larger the array to copy into
+     * @return the larger array
+     */
+    private Projectile[] copy(Projectile[] old, Projectile[] larger)
+    {
+        if(old!=null)
+            System.arraycopy(old, 0, larger, 0, size);
+        return larger;
+    }
+
+    /**
+     * sets the acceleration given to projectiles added
+     * from now on.  Projectiles already added keep
+     * their own acceleration.
+     * @param x the horizontal acceleration in screens/second/second
+     * @param y the vertical acceleration in screens/second/second,
+     * positive is down
+     */
+    public void setGravity(double x, double y)
+    {
+        gravityX=x;
+        gravityY=y;
+    }
+
+    /**
+     * adds a projectile
+     * @param x the horizontal velocity in screens/second
+     * @param y the vertical velocity in screens/second
+     * @return the tracker for the Sprite to move
+     */
+    public Projectile add(double x, double y)
+    {
+        if(size==handles.length)
+            allocate(2*size);
+        int index=size++;
+        velocityX[index]=x;
+        velocityY[index]=y;
+        accelerationX[index]=gravityX;
+        accelerationY[index]=gravityY;
+        angularVelocity[index]=0;
+        translationX[index]=0;
+        translationY[index]=0;
+        rotation[index]=0;
+        handles[index]=new Projectile(this, index);
+        return handles[index];
+    }
+
+    /**
+     * removes a projectile.  The last projectile is
+     * moved into its place so that the projectiles
+     * stay together at the start of the arrays.
+     * @param projectile the projectile to remove
+     */
+    void release(Projectile projectile)
+    {
+        int index=projectile.index;
+        int last=--size;
+        if(index!=last)
+        {
+            velocityX[index]=velocityX[last];
+            velocityY[index]=velocityY[last];
+            accelerationX[index]=accelerationX[last];
+            accelerationY[index]=accelerationY[last];
+            angularVelocity[index]=angularVelocity[last];
+            translationX[index]=translationX[last];
+            translationY[index]=translationY[last];
+            rotation[index]=rotation[last];
+            handles[index]=handles[last];
+            handles[index].index=index;
+        }
+        handles[last]=null;
+        projectile.index=-1;
+    }
+
+    /**gets the number of projectiles in the system
+     * @return the number added and not yet released
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * advances every projectile.  The movement uses
+     * the velocity at the start of the step plus
+     * the effect of the acceleration over the step,
+     * so the path is exact regardless of the step size.
+     * @param time the time passed in seconds
+     */
+    public void advanceGroup(double time)
+    {
+        double half=0.5*time*time;
+        for(int i=0; i<size; i++)
+        {
+            translationX[i]=time*velocityX[i]+half*accelerationX[i];
+            translationY[i]=time*velocityY[i]+half*accelerationY[i];
+            velocityX[i]+=time*accelerationX[i];
+            velocityY[i]+=time*accelerationY[i];
+            rotation[i]=time*angularVelocity[i];
+        }
+    }
+
+    /**gets the horizontal velocity
+     * @param index the projectile
+     * @return the velocity in screens/second
+     */
+    double getVelocityX(int index)
+    {
+        return velocityX[index];
+    }
+
+    /**gets the vertical velocity
+     * @param index the projectile
+     * @return the velocity in screens/second
+     */
+    double getVelocityY(int index)
+    {
+        return velocityY[index];
+    }
+
+    /**sets the velocity
+     * @param index the projectile
+     * @param x the horizontal velocity in screens/second
+     * @param y the vertical velocity in screens/second
+     */
+    void setVelocity(int index, double x, double y)
+    {
+        velocityX[index]=x;
+        velocityY[index]=y;
+    }
+
+    /**gets the horizontal acceleration
+     * @param index the projectile
+     * @return the acceleration in screens/second/second
+     */
+    double getAccelerationX(int index)
+    {
+        return accelerationX[index];
+    }
+
+    /**gets the vertical acceleration
+     * @param index the projectile
+     * @return the acceleration in screens/second/second
+     */
+    double getAccelerationY(int index)
+    {
+        return accelerationY[index];
+    }
+
+    /**sets the acceleration
+     * @param index the projectile
+     * @param x the horizontal acceleration in screens/second/second
+     * @param y the vertical acceleration in screens/second/second
+     */
+    void setAcceleration(int index, double x, double y)
+    {
+        accelerationX[index]=x;
+        accelerationY[index]=y;
+    }
+
+    /**gets the angular velocity
+     * @param index the projectile
+     * @return the angular velocity in radians/second
+     */
+    double getAngularVelocity(int index)
+    {
+        return angularVelocity[index];
+    }
+
+    /**sets the angular velocity
+     * @param index the projectile
+     * @param radPerSecond the angular velocity in radians/second
+     */
+    void setAngularVelocity(int index, double radPerSecond)
+    {
+        angularVelocity[index]=radPerSecond;
+    }
+}
@@ -9,7 +9,8 @@ import fang.*;
  * 
  * @author Jam Jenkins
  */
-public class ProjectileTracker implements Tracker
+public class ProjectileTracker
+    implements IndependentTracker, PrimitiveTracker, Reversible
 {
     Point2D.Double translation;
     
@@ -128,6 +129,28 @@ public class ProjectileTracker implements Tracker
         return translation;
     }
 
+    /**
+     * determines the horizontal movement
+     * 
+     * @return the amount to move horizontally
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return translation.x;
+    }
+
+    /**
+     * determines the vertical movement
+     * 
+     * @return the amount to move vertically
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return translation.y;
+    }
+
     /**
      * returns 1
      * 
@@ -0,0 +1,23 @@
+package fang;
+
+/**
+ * Receives the outcome of work done off of the
+ * model thread by submitAsync.  Exactly one of
+ * the methods is called, on the model thread at
+ * the start of a model step, unless the task is
+ * cancelled first, in which case neither is called.
+ * @author Jam Jenkins
+ */
+public interface ResultConsumer<T>
+{
+    /**called when the work finishes normally
+     * @param result the value computed by the work
+     */
+    public void resultReady(T result);
+
+    /**called when the work throws an exception
+     * or could not be run
+     * @param cause the exception thrown
+     */
+    public void taskFailed(Exception cause);
+}
@@ -0,0 +1,557 @@
+package fang;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Records how the Sprites change each model step so
+ * that time can be run backward, for rewinding a
+ * mistake or showing an instant replay.  Rather than
+ * copying the whole canvas every step, only the
+ * movement, scaling and turning of the Sprites which
+ * changed are kept.  Sprites whose tracker is
+ * Reversible are rewound by advancing their tracker
+ * with negative time, which also puts the tracker
+ * back the way it was; other Sprites are simply moved
+ * back.  The oldest steps are forgotten once more
+ * than the given number of seconds is recorded.
+ * <pre>
+ * setRewindBuffer(new RewindBuffer(canvas, 5));
+ * ...
+ * setRewinding(keyboard.getLastKey()=='r');
+ * </pre>
+ * Rewinding changes only the Sprites.  Sprites added
+ * or removed, alarms, and the game's own fields are
+ * not put back.  Sprites added during a step are
+ * recorded from the next step on.
+ * @author Jam Jenkins
+ */
+public class RewindBuffer
+{
+    /**the canvas holding the Sprites*/
+    private final AnimationCanvas canvas;
+
+    /**the most time to keep in seconds*/
+    private double budget;
+
+    /**the length of each recorded step*/
+    private double[] frameTime=new double[64];
+
+    /**where each step's records start*/
+    private int[] frameFirst=new int[64];
+
+    /**how many records each step has*/
+    private int[] frameCount=new int[64];
+
+    /**the place of the oldest step*/
+    private int frameHead=0;
+
+    /**the number of steps recorded*/
+    private int frames=0;
+
+    /**the number of recorded steps which have not
+     * been undone, counting from the oldest*/
+    private int applied=0;
+
+    /**the total length of the recorded steps*/
+    private double recordedTime=0;
+
+    /**the Sprite each record changes*/
+    private Sprite[] recordSprite=new Sprite[256];
+
+    /**the tracker to run backward for each record,
+     * or null to only move the Sprite back*/
+    private Tracker[] recordTracker=new Tracker[256];
+
+    /**the movement, log of the scaling and turning of
+     * each record, four to a record.  For Sprites with
+     * a Reversible tracker, only the changes made after
+     * the tracker moved the Sprite.*/
+    private float[] recordDelta=new float[4*256];
+
+    /**the changes made to each record's Sprite before
+     * its tracker moved it, four to a record*/
+    private float[] recordEarly=new float[4*256];
+
+    /**the place of the oldest record*/
+    private int recordHead=0;
+
+    /**the number of records*/
+    private int records=0;
+
+    /**the Sprites at the start of the step being recorded*/
+    private final ArrayList<Sprite> stepSprites=new ArrayList<Sprite>();
+
+    /**the Reversible tracker of each Sprite being
+     * recorded, or null*/
+    private Tracker[] stepTracker=new Tracker[0];
+
+    /**the location, scale and rotation of each Sprite
+     * at the start of the step, then after its tracker
+     * has moved it, four to a Sprite*/
+    private double[] stepStart=new double[0];
+
+    /**the changes made to each Sprite with a Reversible
+     * tracker before the tracker moved it, four to
+     * a Sprite*/
+    private double[] stepEarly=new double[0];
+
+    /**the trackers already run this rewind step*/
+    private final HashSet<Tracker> stepped=new HashSet<Tracker>();
+
+    /**time asked for but not yet rewound or replayed,
+     * because it was less than a whole step*/
+    private double carry=0;
+
+    /**
+     * makes an empty buffer
+     * @param canvas the canvas holding the Sprites
+     * @param seconds how much time to keep
+     */
+    public RewindBuffer(AnimationCanvas canvas, double seconds)
+    {
+        this.canvas=canvas;
+        setBudget(seconds);
+    }
+
+    /**
+     * sets how much time to keep.  Older steps
+     * are forgotten.
+     * @param seconds the time to keep
+     */
+    public void setBudget(double seconds)
+    {
+        budget=seconds;
+        trim();
+    }
+
+    /**gets how much time is kept
+     * @return the time in seconds
+     */
+    public double getBudget()
+    {
+        return budget;
+    }
+
+    /**gets how much time can be rewound
+     * @return the time in seconds of the
+     * steps recorded and not undone
+     */
+    public double getRewindableTime()
+    {
+        double time=0;
+        for(int i=0; i<applied; i++)
+            time+=frameTime[frame(i)];
+        return time;
+    }
+
+    /**gets how much time is recorded
+     * @return the time in seconds, including steps
+     * which have been undone and can be replayed
+     */
+    public double getRecordedTime()
+    {
+        return recordedTime;
+    }
+
+    /**gets the number of steps which can be undone
+     * @return the number of steps
+     */
+    public int getRewindableSteps()
+    {
+        return applied;
+    }
+
+    /**gets the number of undone steps which can
+     * be replayed
+     * @return the number of steps
+     */
+    public int getReplayableSteps()
+    {
+        return frames-applied;
+    }
+
+    /**forgets everything recorded*/
+    public void clear()
+    {
+        for(int i=0; i<records; i++)
+        {
+            recordSprite[record(i)]=null;
+            recordTracker[record(i)]=null;
+        }
+        frames=0;
+        applied=0;
+        records=0;
+        frameHead=0;
+        recordHead=0;
+        recordedTime=0;
+        carry=0;
+    }
+
+    /**finds the place of a step
+     * @param i the step, zero for the oldest
+     * @return the place in the step arrays
+     */
+    private int frame(int i)
+    {
+        return (frameHead+i)%frameTime.length;
+    }
+
+    /**finds the place of a record
+     * @param i the record, zero for the oldest
+     * @return the place in the record arrays
+     */
+    private int record(int i)
+    {
+        return (recordHead+i)%recordSprite.length;
+    }
+
+    /**
+     * notes where every Sprite is at the start of a
+     * model step
+     */
+    void beginStep()
+    {
+        stepSprites.clear();
+        canvas.collectSprites(stepSprites);
+        int count=stepSprites.size();
+        if(stepTracker.length<count)
+        {
+            stepTracker=new Tracker[count*2];
+            stepStart=new double[count*8];
+            stepEarly=new double[count*8];
+        }
+        for(int i=0; i<count; i++)
+        {
+            Sprite sprite=stepSprites.get(i);
+            Tracker tracker=sprite.getTracker();
+            if(sprite.isEnabled() && tracker instanceof Reversible
+                    && !(tracker instanceof GroupedTracker))
+                stepTracker[i]=tracker;
+            else
+                stepTracker[i]=null;
+            remember(sprite, i);
+        }
+    }
+
+    /**
+     * notes how the Sprites with Reversible trackers
+     * were changed by alarms, scripts and other work
+     * just before the trackers move them
+     */
+    void updatingSprites()
+    {
+        for(int i=0; i<stepSprites.size(); i++)
+        {
+            if(stepTracker[i]==null)
+                continue;
+            Sprite sprite=stepSprites.get(i);
+            stepEarly[4*i]=sprite.transform.getTranslateX()-stepStart[4*i];
+            stepEarly[4*i+1]=sprite.transform.getTranslateY()-stepStart[4*i+1];
+            stepEarly[4*i+2]=Math.log(sprite.getScale()/stepStart[4*i+2]);
+            stepEarly[4*i+3]=Math.IEEEremainder(
+                sprite.getRotation()-stepStart[4*i+3], 2*Math.PI);
+        }
+    }
+
+    /**
+     * notes where the Sprites with Reversible trackers
+     * are after the trackers have moved them, so that
+     * any other changes made during the step can be
+     * told apart
+     */
+    void spritesUpdated()
+    {
+        for(int i=0; i<stepSprites.size(); i++)
+            if(stepTracker[i]!=null)
+                remember(stepSprites.get(i), i);
+    }
+
+    /**keeps the location, scale and rotation of a Sprite
+     * @param sprite the Sprite
+     * @param i where to keep it
+     */
+    private void remember(Sprite sprite, int i)
+    {
+        stepStart[4*i]=sprite.transform.getTranslateX();
+        stepStart[4*i+1]=sprite.transform.getTranslateY();
+        stepStart[4*i+2]=sprite.getScale();
+        stepStart[4*i+3]=sprite.getRotation();
+    }
+
+    /**
+     * records the changes made during a model step.
+     * Any steps which were undone are forgotten, since
+     * the game has gone a different way since then.
+     * @param time the length of the step in seconds
+     */
+    void endStep(double time)
+    {
+        if(time<=0)
+            return;
+        while(frames>applied)
+            dropNewest();
+        int first=records;
+        for(int i=0; i<stepSprites.size(); i++)
+        {
+            Sprite sprite=stepSprites.get(i);
+            if(sprite.isDestroyed())
+                continue;
+            double dx=sprite.transform.getTranslateX()-stepStart[4*i];
+            double dy=sprite.transform.getTranslateY()-stepStart[4*i+1];
+            double scale=Math.log(sprite.getScale()/stepStart[4*i+2]);
+            double turn=Math.IEEEremainder(
+                sprite.getRotation()-stepStart[4*i+3], 2*Math.PI);
+            if(stepTracker[i]==null && dx==0 && dy==0
+                    && scale==0 && turn==0)
+                continue;
+            if(records==recordSprite.length)
+                growRecords();
+            int r=record(records++);
+            recordSprite[r]=sprite;
+            recordTracker[r]=stepTracker[i];
+            recordDelta[4*r]=(float)dx;
+            recordDelta[4*r+1]=(float)dy;
+            recordDelta[4*r+2]=(float)scale;
+            recordDelta[4*r+3]=(float)turn;
+            for(int j=0; j<4; j++)
+                recordEarly[4*r+j]=stepTracker[i]==null?
+                    0:(float)stepEarly[4*i+j];
+        }
+        if(frames==frameTime.length)
+            growFrames();
+        int f=frame(frames++);
+        frameTime[f]=time;
+        frameFirst[f]=first;
+        frameCount[f]=records-first;
+        applied=frames;
+        recordedTime+=time;
+        stepSprites.clear();
+        trim();
+    }
+
+    /**forgets the oldest steps until no more than
+     * the budget is recorded, always keeping the
+     * newest step*/
+    private void trim()
+    {
+        while(frames>1 && recordedTime-frameTime[frameHead]>=budget)
+        {
+            int count=frameCount[frameHead];
+            for(int i=0; i<count; i++)
+            {
+                recordSprite[record(i)]=null;
+                recordTracker[record(i)]=null;
+            }
+            recordHead=record(count);
+            records-=count;
+            recordedTime-=frameTime[frameHead];
+            frameHead=frame(1);
+            frames--;
+            applied=Math.max(0, applied-1);
+            for(int i=0; i<frames; i++)
+                frameFirst[frame(i)]-=count;
+        }
+    }
+
+    /**forgets the newest step*/
+    private void dropNewest()
+    {
+        int f=frame(frames-1);
+        for(int i=0; i<frameCount[f]; i++)
+        {
+            int r=record(frameFirst[f]+i);
+            recordSprite[r]=null;
+            recordTracker[r]=null;
+        }
+        records-=frameCount[f];
+        recordedTime-=frameTime[f];
+        frames--;
+    }
+
+    /**doubles the room for records, putting the
+     * oldest record first*/
+    private void growRecords()
+    {
+        int capacity=2*recordSprite.length;
+        Sprite[] sprites=new Sprite[capacity];
+        Tracker[] trackers=new Tracker[capacity];
+        float[] deltas=new float[4*capacity];
+        float[] early=new float[4*capacity];
+        for(int i=0; i<records; i++)
+        {
+            int r=record(i);
+            sprites[i]=recordSprite[r];
+            trackers[i]=recordTracker[r];
+            System.arraycopy(recordDelta, 4*r, deltas, 4*i, 4);
+            System.arraycopy(recordEarly, 4*r, early, 4*i, 4);
+        }
+        recordSprite=sprites;
+        recordTracker=trackers;
+        recordDelta=deltas;
+        recordEarly=early;
+        recordHead=0;
+    }
+
+    /**doubles the room for steps, putting the
+     * oldest step first*/
+    private void growFrames()
+    {
+        int capacity=2*frameTime.length;
+        double[] times=new double[capacity];
+        int[] firsts=new int[capacity];
+        int[] counts=new int[capacity];
+        for(int i=0; i<frames; i++)
+        {
+            int f=frame(i);
+            times[i]=frameTime[f];
+            firsts[i]=frameFirst[f];
+            counts[i]=frameCount[f];
+        }
+        frameTime=times;
+        frameFirst=firsts;
+        frameCount=counts;
+        frameHead=0;
+    }
+
+    /**
+     * undoes the newest step which has not been undone
+     * @return the length of the step undone in seconds,
+     * or zero if there is nothing left to rewind
+     */
+    public double stepBack()
+    {
+        if(applied==0)
+            return 0;
+        canvas.rememberTransforms();
+        int f=frame(--applied);
+        int first=frameFirst[f];
+        int count=frameCount[f];
+        for(int i=count-1; i>=0; i--)
+            move(recordDelta, record(first+i), -1);
+        stepped.clear();
+        for(int i=0; i<count; i++)
+        {
+            Tracker tracker=recordTracker[record(first+i)];
+            if(tracker!=null && stepped.add(tracker))
+                tracker.advanceTime(-frameTime[f]);
+        }
+        for(int i=0; i<count; i++)
+        {
+            int r=record(first+i);
+            if(recordTracker[r]!=null && !recordSprite[r].isDestroyed())
+                recordSprite[r].update();
+        }
+        for(int i=count-1; i>=0; i--)
+            move(recordEarly, record(first+i), -1);
+        return frameTime[f];
+    }
+
+    /**
+     * plays again the oldest step which was undone
+     * @return the length of the step replayed in seconds,
+     * or zero if there is nothing to replay
+     */
+    public double stepForward()
+    {
+        if(applied==frames)
+            return 0;
+        canvas.rememberTransforms();
+        int f=frame(applied++);
+        int first=frameFirst[f];
+        int count=frameCount[f];
+        for(int i=0; i<count; i++)
+            move(recordEarly, record(first+i), 1);
+        stepped.clear();
+        for(int i=0; i<count; i++)
+        {
+            Tracker tracker=recordTracker[record(first+i)];
+            if(tracker!=null && stepped.add(tracker))
+                tracker.advanceTime(frameTime[f]);
+        }
+        for(int i=0; i<count; i++)
+        {
+            int r=record(first+i);
+            if(recordTracker[r]!=null && !recordSprite[r].isDestroyed())
+                recordSprite[r].update();
+        }
+        for(int i=0; i<count; i++)
+            move(recordDelta, record(first+i), 1);
+        return frameTime[f];
+    }
+
+    /**
+     * moves a Sprite by a recorded change.  For Sprites
+     * with a Reversible tracker, this is only a change
+     * made before or after the tracker moved it.
+     * @param deltas the recorded changes, either
+     * recordDelta or recordEarly
+     * @param r the place of the record
+     * @param direction 1 to make the change, -1 to undo it
+     */
+    private void move(float[] deltas, int r, int direction)
+    {
+        Sprite sprite=recordSprite[r];
+        if(sprite.isDestroyed())
+            return;
+        double dx=deltas[4*r];
+        double dy=deltas[4*r+1];
+        double scale=deltas[4*r+2];
+        double turn=deltas[4*r+3];
+        if(dx!=0 || dy!=0)
+            sprite.translate(direction*dx, direction*dy);
+        if(scale!=0)
+            sprite.scale(Math.exp(direction*scale));
+        if(turn!=0)
+            sprite.rotate(direction*turn);
+    }
+
+    /**
+     * undoes whole steps adding up to a length of time.
+     * Time left over which is less than a step is kept
+     * and added to the next call, so rewinding a little
+     * each model step goes back at the speed the game
+     * was played.
+     * @param seconds how much time to go back
+     * @return the time actually gone back in seconds
+     */
+    public double rewind(double seconds)
+    {
+        if(carry<0)
+            carry=0;
+        carry+=seconds;
+        double undone=0;
+        while(applied>0 && frameTime[frame(applied-1)]<=carry*(1+1e-9))
+        {
+            double time=stepBack();
+            carry-=time;
+            undone+=time;
+        }
+        if(applied==0)
+            carry=0;
+        return undone;
+    }
+
+    /**
+     * replays whole undone steps adding up to a length
+     * of time, in the same way rewind goes back
+     * @param seconds how much time to go forward
+     * @return the time actually replayed in seconds
+     */
+    public double replay(double seconds)
+    {
+        if(carry>0)
+            carry=0;
+        carry-=seconds;
+        double redone=0;
+        while(applied<frames && frameTime[frame(applied)]<=-carry*(1+1e-9))
+        {
+            double time=stepForward();
+            carry+=time;
+            redone+=time;
+        }
+        if(applied==frames)
+            carry=0;
+        return redone;
+    }
+}
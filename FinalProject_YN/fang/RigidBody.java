@@ -0,0 +1,309 @@
+package fang;
+
+import java.awt.geom.Area;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A Sprite moved by a PhysicsWorld.  The body has
+ * a mass, a velocity, and surface properties which
+ * decide how it bounces and slides when it touches
+ * other bodies.  A body with no mass never moves;
+ * use these for floors and walls.  Bodies do not
+ * tip over or spin from collisions, but they can be
+ * given a constant angular velocity.
+ * @author Jam Jenkins
+ */
+public class RigidBody
+    implements GroupedTracker, PrimitiveTracker
+{
+    /**the world which moves this body*/
+    private final PhysicsWorld world;
+
+    /**the Sprite this body moves*/
+    final Sprite sprite;
+
+    /**one over the mass, zero for bodies which never move*/
+    double inverseMass;
+
+    /**velocity in screens/second*/
+    double velocityX, velocityY;
+
+    /**the forces to apply during the next step*/
+    double forceX, forceY;
+
+    /**how much speed is kept when bouncing, from 0 to 1*/
+    double restitution=0.2;
+
+    /**resistance to sliding, zero for none*/
+    double friction=0.3;
+
+    /**angular velocity in radians/second*/
+    private double angularVelocity=0;
+
+    /**movement in the last step*/
+    double translationX, translationY;
+
+    /**rotation in the last step*/
+    double rotation;
+
+    /**the Sprite's bounds at the start of the step*/
+    Rectangle2D bounds;
+
+    /**the Sprite's shape at the start of the step,
+     * made when first needed*/
+    Area area;
+
+    /**reused for returning the translation*/
+    private final Point2D.Double translation=new Point2D.Double();
+
+    /**makes a body
+     * @param world the world which moves this body
+     * @param sprite the Sprite to move
+     * @param mass the mass, zero for a body which never moves
+     */
+    RigidBody(PhysicsWorld world, Sprite sprite, double mass)
+    {
+        this.world=world;
+        this.sprite=sprite;
+        setMass(mass);
+    }
+
+    /**gets the world which moves this body
+     * @return the PhysicsWorld
+     */
+    public TrackerGroup getGroup()
+    {
+        return world;
+    }
+
+    /**gets the Sprite moved by this body
+     * @return the Sprite
+     */
+    public Sprite getSprite()
+    {
+        return sprite;
+    }
+
+    /**
+     * sets the mass
+     * @param mass the mass, zero or less for a body
+     * which never moves
+     */
+    public void setMass(double mass)
+    {
+        inverseMass=mass>0 ? 1/mass : 0;
+        if(inverseMass==0)
+        {
+            velocityX=0;
+            velocityY=0;
+        }
+    }
+
+    /**gets the mass
+     * @return the mass, or zero for bodies which never move
+     */
+    public double getMass()
+    {
+        return inverseMass==0 ? 0 : 1/inverseMass;
+    }
+
+    /**determines if the body never moves
+     * @return true if the body has no mass
+     */
+    public boolean isStatic()
+    {
+        return inverseMass==0;
+    }
+
+    /**
+     * sets how bouncy the body is.  When two bodies
+     * collide, the bouncier of the two is used.
+     * @param restitution zero to stop dead, one to
+     * bounce back at full speed
+     */
+    public void setRestitution(double restitution)
+    {
+        this.restitution=Math.max(0, Math.min(1, restitution));
+    }
+
+    /**gets how bouncy the body is
+     * @return the restitution from zero to one
+     */
+    public double getRestitution()
+    {
+        return restitution;
+    }
+
+    /**
+     * sets how much the body resists sliding.
+     * When two bodies touch, the average of their
+     * friction is used.
+     * @param friction zero for ice, around one for rubber
+     */
+    public void setFriction(double friction)
+    {
+        this.friction=Math.max(0, friction);
+    }
+
+    /**gets how much the body resists sliding
+     * @return the friction
+     */
+    public double getFriction()
+    {
+        return friction;
+    }
+
+    /**
+     * sets the velocity
+     * @param x the horizontal velocity in screens/second
+     * @param y the vertical velocity in screens/second
+     */
+    public void setVelocity(double x, double y)
+    {
+        if(inverseMass==0)
+            return;
+        velocityX=x;
+        velocityY=y;
+    }
+
+    /**
+     * sets the velocity
+     * @param v the (x, y) velocity in screens/second
+     */
+    public void setVelocity(Point2D.Double v)
+    {
+        setVelocity(v.x, v.y);
+    }
+
+    /**
+     * determines the velocity
+     * @return the velocity in screens/second
+     */
+    public Point2D.Double getVelocity()
+    {
+        return new Point2D.Double(velocityX, velocityY);
+    }
+
+    /**
+     * changes the velocity all at once, as in a hit
+     * or a jump.  Heavier bodies change less.
+     * @param x the horizontal impulse
+     * @param y the vertical impulse
+     */
+    public void applyImpulse(double x, double y)
+    {
+        velocityX+=x*inverseMass;
+        velocityY+=y*inverseMass;
+    }
+
+    /**
+     * pushes the body during the next step only, as
+     * with a thruster.  Call this every step for a
+     * steady push.
+     * @param x the horizontal force
+     * @param y the vertical force
+     */
+    public void applyForce(double x, double y)
+    {
+        forceX+=x;
+        forceY+=y;
+    }
+
+    /**
+     * set how much to rotate per time
+     * @param radPerSecond the magnitude and direction of
+     * rotation around the object's center, in radians/second
+     */
+    public void setAngularVelocity(double radPerSecond)
+    {
+        angularVelocity=radPerSecond;
+    }
+
+    /**
+     * gets the rotational velocity
+     * @return the rotational velocity in radians/second
+     */
+    public double getAngularVelocity()
+    {
+        return angularVelocity;
+    }
+
+    /**does nothing, the world advances all of its
+     * bodies together
+     * @param time the time passed in seconds
+     */
+    public void advanceTime(double time)
+    {
+    }
+
+    /**
+     * determines how far to move the Sprite
+     * @return the movement in the last step
+     * @see fang.Tracker#getTranslation()
+     */
+    public Point2D.Double getTranslation()
+    {
+        translation.setLocation(translationX, translationY);
+        return translation;
+    }
+
+    /**
+     * determines the horizontal movement
+     * @return the movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return translationX;
+    }
+
+    /**
+     * determines the vertical movement
+     * @return the movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return translationY;
+    }
+
+    /**
+     * returns 1
+     * @return one
+     * @see fang.Tracker#getScaleFactor()
+     */
+    public double getScaleFactor()
+    {
+        return 1.0;
+    }
+
+    /**
+     * returns the amount to rotate this time interval
+     * @return the amount to rotate in radians
+     * @see fang.Tracker#getRotationAddition()
+     */
+    public double getRotationAddition()
+    {
+        return rotation;
+    }
+
+    /**gets the area covered by the Sprite at the
+     * start of the step
+     * @return the area of the Sprite's shape
+     */
+    Area getArea()
+    {
+        if(area==null)
+            area=new Area(sprite.getShape());
+        return area;
+    }
+
+    /**advances the rotation for a step
+     * @param time the time passed in seconds
+     */
+    void spin(double time)
+    {
+        rotation=angularVelocity*time;
+    }
+}
@@ -0,0 +1,257 @@
+package fang;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A behaviour which takes place over time, written
+ * as ordinary code.  Rather than chaining together
+ * alarms which reschedule each other, a Script can
+ * simply wait in the middle of what it is doing.
+ * For example, blinking a sprite three times is:
+ * <pre>
+ * class Blink extends Script
+ * {
+ *     public void run()
+ *     {
+ *         for(int i=0; i&lt;3; i++)
+ *         {
+ *             sprite.setVisible(false);
+ *             waitSeconds(0.2);
+ *             sprite.setVisible(true);
+ *             waitSeconds(0.2);
+ *         }
+ *     }
+ * }
+ * </pre>
+ * Start a script by calling startScript in the
+ * GameLoop or GameLevel.  The script runs right
+ * away until its first wait, and after that is
+ * continued by the engine while the model is
+ * updated.  Only one script or the game itself
+ * runs at any moment, and scripts are continued in
+ * a fixed order, so scripts behave the same way on
+ * every computer in a multiplayer game.  Each script
+ * has its own virtual thread on Java 21 and later, so
+ * thousands of scripts may wait at once cheaply.  On
+ * earlier versions each script has an ordinary daemon
+ * thread with a small stack instead.  Every waiting
+ * script then holds an operating system thread and
+ * each wait costs a thread switch, so keep to tens or
+ * hundreds of scripts at once there.
+ * A script which is not persistent is stopped at
+ * the end of the level like any other alarm.
+ * @author Jam Jenkins
+ */
+public abstract class Script
+    implements Alarm
+{
+    /**thrown inside a cancelled script to
+     * unwind it at its next wait*/
+    private static final class Stop extends Error
+    {
+        /**used for serialization versioning*/
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**the engine running this script*/
+    private FrameAdvancer scheduler;
+
+    /**the thread the script runs on*/
+    private Thread thread;
+
+    /**the thread which continued the script
+     * and is waiting for it to wait again*/
+    private Thread modelThread;
+
+    /**true while the script is running and the
+     * model is waiting for it*/
+    private volatile boolean scriptTurn=false;
+
+    /**whether the script thread has been started*/
+    private boolean started=false;
+
+    /**whether the script has run to the end*/
+    private boolean finished=false;
+
+    /**whether the script has been cancelled*/
+    private boolean cancelled=false;
+
+    /**anything thrown by the script, passed
+     * on to the model thread*/
+    private Throwable failure;
+
+    /**the alarm which ends the current waitSeconds*/
+    private AlarmHandle wakeAlarm;
+
+    /**the model frame which ends the current waitFrames*/
+    long wakeFrame;
+
+    /**
+     * the behaviour of the script.  Call waitSeconds
+     * or waitFrames to let time pass in the game.
+     */
+    public abstract void run();
+
+    /**starts the script running until its first wait
+     * @param scheduler the engine which continues the script
+     */
+    void start(FrameAdvancer scheduler)
+    {
+        if(started)
+            throw new IllegalStateException("Script already started");
+        this.scheduler=scheduler;
+        thread=VirtualThreads.newThread("FANG Script", new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if(!cancelled)
+                        Script.this.run();
+                }
+                catch(Stop stop)
+                {
+                }
+                catch(Throwable t)
+                {
+                    failure=t;
+                }
+                finally
+                {
+                    finished=true;
+                    scriptTurn=false;
+                    LockSupport.unpark(modelThread);
+                }
+            }
+        });
+        resume();
+    }
+
+    /**continues the script when its waitSeconds
+     * is over.  This is called by the engine and
+     * should not be called directly.
+     */
+    public final void alarm()
+    {
+        wakeAlarm=null;
+        resume();
+    }
+
+    /**lets the script run until it waits again or
+     * finishes.  The calling thread is blocked
+     * meanwhile, so the script has the game to itself.
+     */
+    void resume()
+    {
+        if(finished)
+            return;
+        modelThread=Thread.currentThread();
+        scriptTurn=true;
+        if(!started)
+        {
+            started=true;
+            thread.start();
+        }
+        else
+            LockSupport.unpark(thread);
+        while(scriptTurn)
+            LockSupport.park(this);
+        if(finished)
+        {
+            scheduler.scriptFinished(this);
+            if(failure!=null)
+            {
+                Throwable cause=failure;
+                failure=null;
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if(cause instanceof Error)
+                    throw (Error)cause;
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**hands control back to the model and waits
+     * until the engine continues the script*/
+    private void pause()
+    {
+        scriptTurn=false;
+        LockSupport.unpark(modelThread);
+        while(!scriptTurn)
+            LockSupport.park(this);
+        if(cancelled)
+            throw new Stop();
+    }
+
+    /**makes sure the script's own thread is the
+     * one trying to wait*/
+    private void checkWaiting()
+    {
+        if(Thread.currentThread()!=thread)
+            throw new IllegalStateException(
+                    "Only a running Script can wait");
+        if(cancelled)
+            throw new Stop();
+    }
+
+    /**
+     * waits for an amount of game time to pass.
+     * The script continues at the start of the model
+     * step in which the time is reached, in the same
+     * order as an alarm scheduled for that time.
+     * @param seconds how long to wait in seconds
+     */
+    public final void waitSeconds(double seconds)
+    {
+        checkWaiting();
+        wakeAlarm=scheduler.scheduleRelative(this, seconds);
+        pause();
+    }
+
+    /**
+     * waits for a number of model steps to pass.
+     * Waiting for one frame continues the script in
+     * the next model step.
+     * @param frames how many model steps to wait
+     */
+    public final void waitFrames(int frames)
+    {
+        checkWaiting();
+        scheduler.waitForFrames(this, Math.max(1, frames));
+        pause();
+    }
+
+    /**
+     * stops the script.  If the script is waiting, it
+     * ends immediately without running any further.
+     * If a script cancels itself, it ends at its next
+     * wait.  Cancelling a finished script is ignored.
+     */
+    public void cancel()
+    {
+        if(finished || cancelled)
+            return;
+        cancelled=true;
+        if(Thread.currentThread()==thread)
+            return;
+        if(wakeAlarm!=null)
+        {
+            wakeAlarm.cancel();
+            wakeAlarm=null;
+        }
+        if(scheduler!=null)
+            scheduler.stopWaitingForFrames(this);
+        if(started)
+            resume();
+    }
+
+    /**determines if the script has stopped
+     * @return true if the script ran to the end or
+     * was cancelled, false if it is still running
+     */
+    public boolean isFinished()
+    {
+        return finished || (cancelled && !started);
+    }
+}
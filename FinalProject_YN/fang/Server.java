@@ -25,10 +25,46 @@ public class Server extends Thread
     public static int PORT = 1555;
 
     /**
-     * map of currently running games to the GameConnections
+     * true to connect to and start an NioServer
+     * instead of a Server for multiplayer games
      */
-    private HashMap<String, GameConnections> games = 
-        new HashMap<String, GameConnections>();
+    public static boolean USE_NIO = false;
+
+    /**
+     * true for Clients of an NioServer to speak the
+     * compact binary WireProtocol, false for them to
+     * send object streams as they do to a Server
+     */
+    public static boolean BINARY_PROTOCOL = true;
+
+    /**
+     * true for binary Clients of an NioServer to play
+     * over UDP, which sends updates made out of date
+     * by later ones without waiting for lost packets.
+     * The NioServer then also listens for datagrams on
+     * PORT.  The lobby's list of games is still fetched
+     * over TCP.
+     */
+    public static boolean USE_UDP = false;
+
+    /**
+     * true for a Server or HttpServer to answer each
+     * connection on its own virtual thread and to send
+     * each game's updates from a virtual thread which
+     * sleeps until the next update is due.  A blocked
+     * virtual thread costs only a little memory, so
+     * thousands of idle connections are cheap.  Before
+     * Java 21 ordinary threads with small stacks are
+     * used instead.  When false, each connection has
+     * an ordinary thread and the updates of every game
+     * are sent by the shared TickScheduler pool.
+     */
+    public static boolean VIRTUAL_THREADS = false;
+
+    /**
+     * the games waiting for players
+     */
+    private Lobby lobby = new Lobby(false);
 
     /**
      * true indicates still accepting new connections,
@@ -150,13 +186,14 @@ public class Server extends Thread
     			ioe.printStackTrace();
     			break;
     		}
+    		if (VIRTUAL_THREADS)
+    		{
+    			dispatchVirtual(socket);
+    			continue;
+    		}
     		try
     		{
-    			ObjectOutputStream out = new ObjectOutputStream(socket
-    				.getOutputStream());
-    			ObjectInputStream in = new ObjectInputStream(
-    				new BufferedInputStream(socket.getInputStream(), 100));
-    			new Dispatcher(out, in).start();
+    			openDispatcher(socket).start();
     		}
     		catch (IOException ioe)
     		{
@@ -165,6 +202,47 @@ public class Server extends Thread
     	}
     }
 
+    /**
+     * makes the streams for a new connection.  Making
+     * the input stream waits for the client to send
+     * its stream header.
+     * @param socket the connection to the client
+     * @return the Dispatcher for the client, not yet started
+     * @throws IOException if the connection is lost
+     */
+    private Dispatcher openDispatcher(Socket socket) throws IOException
+    {
+        ObjectOutputStream out = new ObjectOutputStream(socket
+            .getOutputStream());
+        ObjectInputStream in = new ObjectInputStream(
+            new BufferedInputStream(socket.getInputStream(), 100));
+        return new Dispatcher(out, in);
+    }
+
+    /**
+     * answers a new connection on a virtual thread,
+     * which also waits for the client's stream header
+     * so that a slow client does not hold up accepting
+     * @param socket the connection to the client
+     */
+    private void dispatchVirtual(final Socket socket)
+    {
+        VirtualThreads.newThread("FANG Dispatcher", new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    openDispatcher(socket).run();
+                }
+                catch (IOException ioe)
+                {
+                    ioe.printStackTrace();
+                }
+            }
+        }).start();
+    }
+
     /**
      * stops the loop from accepting new connections
      */
@@ -188,7 +266,7 @@ public class Server extends Thread
      * to join
      * @author Jam Jenkins
      */
-    class Dispatcher extends Thread
+    class Dispatcher extends Thread implements Lobby.Member
     {
         /**
          * the output stream to the client
@@ -210,84 +288,32 @@ public class Server extends Thread
             this.in = in;
         }
 
-        /**responds to a join command.  The format of the join command is:
-         * Join [gameName] [sessionName] [players]
-         * players is optional.  If not specified, 2 players is assumed.
-         * @param command the line in the format described above
-         * @return true if successful, false otherwise.  Joining can be
-         * unsuccessful if the format is not correct or if the game trying
-         * to join is full.
-         * @throws IOException if the communication chanel becomes corrupt
+        /**sends an answer to a lobby command
+         * @param text the answer
+         * @throws IOException if the connection is closed
          */
-        private boolean joinGame(String command) throws IOException
+        public void reply(String text) throws IOException
         {
-            String[] parts = command.split(" ");
-            String gameName = parts[1];
-            String sessionName = parts[2];
-            String id = "Game: " + gameName + " Session: " + sessionName;
-            int players = 2;
-            if (parts.length > 3)
-                players = Math.max(1, Integer.parseInt(parts[3]));
-            GameConnections connections = games.get(id);
-            if (connections == null)
-            {
-                connections = new GameConnections(gameName, sessionName,
-                        players);
-                games.put(id, connections);
-            }
-            if (connections.isFull())
-            {
-                out.writeObject("Game already full");
-                out.flush();
-                return false;
-            }
-            boolean results=connections.addConnection(out, in);
-            if(connections.isFull())
-                games.remove(id);
-            return results;
-        }
-
-        /**sends a list of the games currently in progress to the client.
-         * The format of the list is:
-         * Game: [gameName] Session: [sessionName]
-         * @throws IOException
-         */
-        private void listGames() throws IOException
-        {
-            String[] gameIDs = games.keySet().toArray(new String[0]);
-            String sum = "";
-            for (String name : gameIDs)
-            {
-                if(!games.get(name).isFull())
-                    sum += name + "\n";
-            }
-            out.writeObject(sum);
+            out.writeObject(text);
             out.flush();
         }
 
-        /**
-         * gets rid of games no longer in progress
+        /**adds the client to a place reserved in a game
+         * @param connections the game
+         * @param place the place reserved, or -1
+         * @return true if the client joined
          */
-        private void cleanEmptyGames()
+        public boolean joinTo(GameConnections connections, int place)
         {
-            Set<Map.Entry<String, GameConnections>> gameSet = games.entrySet();
-            LinkedList<String> toRemove = new LinkedList<String>();
-            for (Map.Entry<String, GameConnections> game : gameSet)
-            {
-                if (!game.getValue().isActive())
-                    toRemove.add(game.getKey());
-            }
-            for (String key : toRemove)
-            {
-                games.remove(key);
-            }
+            return connections.addConnection(place, out, in);
         }
 
         /**reads commands from the client and resonds appropriately
-         * the two commands are
-         * List Games
-         * and
+         * the commands are
+         * List Games,
          * Join [gameName] [sessionName] [players]
+         * and
+         * Quick Match [gameName] [players]
          * @see java.lang.Runnable#run()
          */
         public void run()
@@ -295,17 +321,22 @@ public class Server extends Thread
             try
             {
                 String command;
+                GameConnections joined;
                 while (true)
                 {
                     command = (String) in.readObject();
-                    cleanEmptyGames();
+                    lobby.clean();
                     if (command.startsWith("Join"))
                     {
-                        if (joinGame(command))
+                        if ((joined = lobby.join(this, command)) != null)
+                            break;
+                    } else if (command.startsWith("Quick Match"))
+                    {
+                        if ((joined = lobby.quickMatch(this, command)) != null)
                             break;
                     } else if (command.startsWith("List Games"))
                     {
-                        listGames();
+                        reply(lobby.getListing());
                     }else if(command.startsWith("Quit"))
                     	return;
                 }
@@ -313,8 +344,7 @@ public class Server extends Thread
                 // thread cannot end, or the Pipe breaks.
                 synchronized (this)
                 {
-                    int players=Integer.parseInt(command.split(" ")[3]);
-                    if(players==1)
+                    if(joined.getPlayers()==1)
                     {
                         wait();
                     }
@@ -0,0 +1,101 @@
+package fang;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * The Client's end of a binary connection to an
+ * NioServer, sending and receiving length-prefixed
+ * frames over an ordinary Socket.
+ * @author Jam Jenkins
+ */
+final class SocketLink implements ClientLink
+{
+    /**the connection to the server*/
+    private final Socket socket;
+
+    /**where frames are read from*/
+    private final DataInputStream in;
+
+    /**where frames are written to*/
+    private final OutputStream out;
+
+    /**
+     * makes a link over a connected socket and
+     * sends the HELLO frame
+     * @param socket the connection to the server
+     * @throws IOException if the socket is closed
+     */
+    SocketLink(Socket socket) throws IOException
+    {
+        this.socket=socket;
+        socket.setTcpNoDelay(true);
+        in=new DataInputStream(
+            new BufferedInputStream(socket.getInputStream(), 1000));
+        out=socket.getOutputStream();
+        send(WireProtocol.hello());
+    }
+
+    /**sends a frame
+     * @param frame the frame, including its length
+     * @throws IOException if the connection is closed
+     */
+    public void send(ByteBuffer frame) throws IOException
+    {
+        out.write(frame.array(), frame.arrayOffset()+frame.position(),
+            frame.remaining());
+        out.flush();
+    }
+
+    /**takes the next frame if its length has arrived.
+     * Since the server sends each frame in one piece,
+     * the rest follows at once.
+     * @return the frame without its length, or null
+     * if none has arrived
+     * @throws IOException if the connection is closed
+     */
+    public byte[] receive() throws IOException
+    {
+        if(in.available()<4)
+            return null;
+        return receiveWaiting();
+    }
+
+    /**takes the next frame, waiting for it to arrive
+     * @return the frame without its length
+     * @throws IOException if the connection is closed
+     */
+    public byte[] receiveWaiting() throws IOException
+    {
+        int length=in.readInt();
+        if(length<=0 || length>FrameOutputStream.MAX_FRAME)
+            throw new IOException("Bad frame length: "+length);
+        byte[] frame=new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /**determines if every frame sent arrives
+     * @return true, since the connection is TCP
+     */
+    public boolean isReliable()
+    {
+        return true;
+    }
+
+    /**closes the connection*/
+    public void close()
+    {
+        try
+        {
+            socket.close();
+        }
+        catch(IOException ioe)
+        {
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package fang;
+
+import java.util.Arrays;
+
+/**
+ * Finds the points near a location without checking
+ * every point.  The points are sorted into square
+ * cells of equal size, and a search only looks at the
+ * cells within reach of the location.  The grid has
+ * no edges: cells are kept in a hash table, so points
+ * can be anywhere, on or off the screen.  Building the
+ * grid takes time in proportion to the number of
+ * points and does not make new objects once the grid
+ * has been built with as many points before, so it
+ * can be rebuilt every model step:
+ * <pre>
+ * grid.build(x, y, count);
+ * int found=grid.query(x[i], y[i], 0.1, nearby);
+ * </pre>
+ * Searches work best when the cell size is about the
+ * same as the distance searched.
+ * @author Jam Jenkins
+ */
+public class SpatialGrid
+{
+    /**the width and height of each cell*/
+    private double cellSize;
+
+    /**the horizontal locations of the points*/
+    private double[] x;
+
+    /**the vertical locations of the points*/
+    private double[] y;
+
+    /**the number of points*/
+    private int count=0;
+
+    /**the column of the cell holding each point*/
+    private int[] cellX=new int[0];
+
+    /**the row of the cell holding each point*/
+    private int[] cellY=new int[0];
+
+    /**the hash table entry of each point*/
+    private int[] bucket=new int[0];
+
+    /**the points sorted by hash table entry*/
+    private int[] items=new int[0];
+
+    /**where each hash table entry starts in items,
+     * with one extra entry marking the end*/
+    private int[] bucketStart=new int[1];
+
+    /**one less than the size of the hash table,
+     * which is always a power of two*/
+    private int mask=0;
+
+    /**
+     * makes an empty grid
+     * @param cellSize the width and height of each cell
+     */
+    public SpatialGrid(double cellSize)
+    {
+        setCellSize(cellSize);
+    }
+
+    /**
+     * sets the size of the cells.  The new size is
+     * used the next time the grid is built.
+     * @param cellSize the width and height of each cell
+     */
+    public void setCellSize(double cellSize)
+    {
+        if(!(cellSize>0))
+            throw new IllegalArgumentException(
+                "The cell size must be positive: "+cellSize);
+        this.cellSize=cellSize;
+    }
+
+    /**gets the size of the cells
+     * @return the width and height of each cell
+     */
+    public double getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**gets the number of points in the grid
+     * @return the number of points given to build
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * sorts points into the grid.  The grid keeps the
+     * arrays rather than copying them, so they must not
+     * be changed until the grid is built again.
+     * @param x the horizontal location of each point
+     * @param y the vertical location of each point
+     * @param count the number of points, which are
+     * the first count entries of the arrays
+     */
+    public void build(double[] x, double[] y, int count)
+    {
+        this.x=x;
+        this.y=y;
+        this.count=count;
+        if(cellX.length<count)
+        {
+            cellX=new int[count];
+            cellY=new int[count];
+            bucket=new int[count];
+            items=new int[count];
+        }
+        int tableSize=Integer.highestOneBit(Math.max(1, count)*2-1)*2;
+        if(bucketStart.length!=tableSize+1)
+            bucketStart=new int[tableSize+1];
+        else
+            Arrays.fill(bucketStart, 0);
+        mask=tableSize-1;
+        for(int i=0; i<count; i++)
+        {
+            cellX[i]=(int)Math.floor(x[i]/cellSize);
+            cellY[i]=(int)Math.floor(y[i]/cellSize);
+            bucket[i]=hash(cellX[i], cellY[i]);
+            bucketStart[bucket[i]+1]++;
+        }
+        for(int b=0; b<tableSize; b++)
+            bucketStart[b+1]+=bucketStart[b];
+        for(int i=0; i<count; i++)
+        {
+            int b=bucket[i];
+            items[bucketStart[b]++]=i;
+        }
+        for(int b=tableSize; b>0; b--)
+            bucketStart[b]=bucketStart[b-1];
+        bucketStart[0]=0;
+    }
+
+    /**
+     * finds the hash table entry of a cell
+     * @param column the column of the cell
+     * @param row the row of the cell
+     * @return the entry
+     */
+    private int hash(int column, int row)
+    {
+        return ((column*73856093)^(row*19349663))&mask;
+    }
+
+    /**
+     * finds the points within a distance of a location.
+     * If there are more points than room in the result
+     * array, only as many as fit are found.
+     * @param px the horizontal location to search around
+     * @param py the vertical location to search around
+     * @param radius how far away points may be
+     * @param result filled with the indices of the
+     * points found, in no particular order
+     * @return the number of points found
+     */
+    public int query(double px, double py, double radius, int[] result)
+    {
+        int found=0;
+        if(result.length==0)
+            return found;
+        double limit=radius*radius;
+        int left=(int)Math.floor((px-radius)/cellSize);
+        int right=(int)Math.floor((px+radius)/cellSize);
+        int top=(int)Math.floor((py-radius)/cellSize);
+        int bottom=(int)Math.floor((py+radius)/cellSize);
+        if((double)(right-left+1)*(bottom-top+1)>mask+1)
+        {
+            for(int i=0; i<count && found<result.length; i++)
+                if(near(i, px, py, limit))
+                    result[found++]=i;
+            return found;
+        }
+        for(int row=top; row<=bottom; row++)
+        {
+            for(int column=left; column<=right; column++)
+            {
+                int b=hash(column, row);
+                for(int n=bucketStart[b]; n<bucketStart[b+1]; n++)
+                {
+                    int i=items[n];
+                    if(cellX[i]==column && cellY[i]==row
+                            && near(i, px, py, limit))
+                    {
+                        result[found++]=i;
+                        if(found==result.length)
+                            return found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * determines if a point is close to a location
+     * @param i the index of the point
+     * @param px the horizontal location
+     * @param py the vertical location
+     * @param limit the square of the distance allowed
+     * @return true if the point is close enough
+     */
+    private boolean near(int i, double px, double py, double limit)
+    {
+        double dx=x[i]-px;
+        double dy=y[i]-py;
+        return dx*dx+dy*dy<=limit;
+    }
+}
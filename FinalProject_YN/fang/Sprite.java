@@ -85,6 +85,15 @@ public class Sprite
      * to draw the sprite along it's previous path.*/    
     private Point2D.Double oldLocation;
 
+    /**the transform before the last model step.  This
+     * is only kept when the model advances at a fixed
+     * rate and the display is drawn between model steps.*/
+    private AffineTransform previousTransform;
+
+    /**holds the transform after the last model step
+     * while an in-between transform is being drawn*/
+    private AffineTransform modelTransform;
+
     
     /**
      * initialize to an empty shape and the 
@@ -336,10 +345,14 @@ public class Sprite
     {
         if (tracker != null)
         {
-            Point2D.Double translation = tracker.getTranslation();
+            PrimitiveTracker primitive = PrimitiveTrackers.get(tracker);
+            if (primitive != null)
+                translate(primitive.getTranslationX(),
+                        primitive.getTranslationY());
+            else
+                translate(tracker.getTranslation());
             double scaleFactor = tracker.getScaleFactor();
             double rotationAddition = tracker.getRotationAddition();
-            translate(translation);
             if (scaleFactor != 1)
                 scale(scaleFactor);
             if (rotationAddition != 0)
@@ -617,6 +630,74 @@ public class Sprite
         oldLocation=currentLocation;
     }
 
+    /**
+     * stores the current transform as the one to
+     * draw from when drawing between model steps.
+     * This is called by the AnimationCanvas just
+     * before each fixed model step.
+     */
+    void rememberTransform()
+    {
+        if(previousTransform==null)
+            previousTransform=new AffineTransform(transform);
+        else
+            previousTransform.setTransform(transform);
+    }
+
+    /**
+     * draws the sprite part of the way between where
+     * it was before the last model step and where it is
+     * now.  The location, scale and rotation are each
+     * blended, with the rotation taking the shorter way
+     * around.  The sprite's actual transform is restored
+     * once drawn, so the model is not affected.
+     * @param brush the Graphics2D to draw on
+     * @param alpha zero draws the sprite where it was
+     * before the last model step, one draws it where it
+     * is now
+     */
+    void paintInterpolated(Graphics2D brush, double alpha)
+    {
+        if(previousTransform==null || alpha>=1)
+        {
+            paintInternal(brush);
+            return;
+        }
+        double fromScale=Math.sqrt(Math.abs(previousTransform.getDeterminant()));
+        double toScale=Math.sqrt(Math.abs(transform.getDeterminant()));
+        if(fromScale==0 || toScale==0 ||
+                previousTransform.getDeterminant()*transform.getDeterminant()<0)
+        {
+            paintInternal(brush);
+            return;
+        }
+        if(modelTransform==null)
+            modelTransform=new AffineTransform();
+        modelTransform.setTransform(transform);
+        double fromAngle=Math.atan2(
+                previousTransform.getShearY(), previousTransform.getScaleX());
+        double toAngle=Math.atan2(
+                transform.getShearY(), transform.getScaleX());
+        double turn=Math.IEEEremainder(toAngle-fromAngle, 2*Math.PI);
+        double angle=fromAngle+alpha*turn;
+        double scale=fromScale+alpha*(toScale-fromScale);
+        double x=previousTransform.getTranslateX()+
+            alpha*(transform.getTranslateX()-previousTransform.getTranslateX());
+        double y=previousTransform.getTranslateY()+
+            alpha*(transform.getTranslateY()-previousTransform.getTranslateY());
+        double cos=scale*Math.cos(angle);
+        double sin=scale*Math.sin(angle);
+        transform.setTransform(cos, sin, -sin, cos, x, y);
+        try
+        {
+            paintInternal(brush);
+        }
+        finally
+        {
+            transform.setTransform(modelTransform);
+        }
+    }
+
     /**
      * draws the shape in the proper location, orientation, and size
      * If overridden, this method must not add or
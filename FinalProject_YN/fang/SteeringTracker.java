@@ -0,0 +1,195 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * The tracker for one member of a Flock.  Like a
+ * Projectile, it holds no motion of its own but
+ * refers to its place in the Flock, which moves all
+ * of its members together.  Besides the separation,
+ * alignment and cohesion every member of the Flock
+ * has, each member may steer toward or away from a
+ * point of its own.  Once released, a member no
+ * longer moves its Sprite and changing its steering
+ * has no effect.
+ * @author Jam Jenkins
+ */
+public class SteeringTracker
+    implements GroupedTracker, PrimitiveTracker
+{
+    /**the flock holding the motion*/
+    private final Flock flock;
+
+    /**the place in the flock's arrays,
+     * or -1 once released*/
+    int index;
+
+    /**reused for returning the translation*/
+    private final Point2D.Double translation=new Point2D.Double();
+
+    /**makes a handle for a member of a flock
+     * @param flock the flock holding the motion
+     * @param index the place in the flock's arrays
+     */
+    SteeringTracker(Flock flock, int index)
+    {
+        this.flock=flock;
+        this.index=index;
+    }
+
+    /**gets the flock which advances this member
+     * @return the Flock
+     */
+    public TrackerGroup getGroup()
+    {
+        return flock;
+    }
+
+    /**
+     * removes this member from the flock so that its
+     * space can be reused.  Releasing twice is ignored.
+     */
+    public void release()
+    {
+        if(index>=0)
+            flock.release(this);
+    }
+
+    /**determines if this member is still in the flock
+     * @return true if not yet released, false otherwise
+     */
+    public boolean isActive()
+    {
+        return index>=0;
+    }
+
+    /**
+     * steers straight toward a point at full speed
+     * @param x the horizontal location to head for
+     * @param y the vertical location to head for
+     */
+    public void seek(double x, double y)
+    {
+        if(index>=0)
+            flock.setTarget(index, Flock.SEEK, x, y);
+    }
+
+    /**
+     * steers straight away from a point at full speed
+     * @param x the horizontal location to run from
+     * @param y the vertical location to run from
+     */
+    public void flee(double x, double y)
+    {
+        if(index>=0)
+            flock.setTarget(index, Flock.FLEE, x, y);
+    }
+
+    /**
+     * steers toward a point, slowing down within the
+     * Flock's arrival distance so as to stop on it
+     * @param x the horizontal location to stop at
+     * @param y the vertical location to stop at
+     */
+    public void arrive(double x, double y)
+    {
+        if(index>=0)
+            flock.setTarget(index, Flock.ARRIVE, x, y);
+    }
+
+    /**stops steering toward or away from a point,
+     * leaving only the flocking behaviours*/
+    public void clearTarget()
+    {
+        if(index>=0)
+            flock.setTarget(index, Flock.NONE, 0, 0);
+    }
+
+    /**
+     * sets the velocity
+     * @param x the horizontal velocity in screens/second
+     * @param y the vertical velocity in screens/second
+     */
+    public void setVelocity(double x, double y)
+    {
+        if(index>=0)
+            flock.setVelocity(index, x, y);
+    }
+
+    /**gets the horizontal velocity
+     * @return the velocity in screens/second
+     */
+    public double getVelocityX()
+    {
+        return index<0 ? 0 : flock.velocityX[index];
+    }
+
+    /**gets the vertical velocity
+     * @return the velocity in screens/second
+     */
+    public double getVelocityY()
+    {
+        return index<0 ? 0 : flock.velocityY[index];
+    }
+
+    /**does nothing, the flock advances all of
+     * its members together
+     * @param time the time passed in seconds
+     */
+    public void advanceTime(double time)
+    {
+    }
+
+    /**
+     * determines how far to move the Sprite
+     * @return the movement in the last step
+     * @see fang.Tracker#getTranslation()
+     */
+    public Point2D.Double getTranslation()
+    {
+        translation.x=getTranslationX();
+        translation.y=getTranslationY();
+        return translation;
+    }
+
+    /**
+     * determines how far to move the Sprite horizontally
+     * @return the horizontal movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return index<0 ? 0 : flock.translationX[index];
+    }
+
+    /**
+     * determines how far to move the Sprite vertically
+     * @return the vertical movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return index<0 ? 0 : flock.translationY[index];
+    }
+
+    /**
+     * members do not change size
+     * @return 1
+     * @see fang.Tracker#getScaleFactor()
+     */
+    public double getScaleFactor()
+    {
+        return 1;
+    }
+
+    /**
+     * determines how much to turn the Sprite, which
+     * is zero unless the Flock is orienting
+     * @return the rotation in the last step
+     * @see fang.Tracker#getRotationAddition()
+     */
+    public double getRotationAddition()
+    {
+        return index<0 ? 0 : flock.rotation[index];
+    }
+}
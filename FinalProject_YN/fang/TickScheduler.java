@@ -0,0 +1,224 @@
+package fang;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the updates of every game in progress on a
+ * server from one pool of threads, one per
+ * processor.  Each game used to have a Timer thread
+ * of its own and a thread waiting for the Timer, so
+ * a server with many games in progress needed many
+ * threads which were idle almost all of the time.
+ * <p>
+ * Each game is given a Ticker which records how late
+ * its updates are compared to when they were due, so
+ * that a server which has too many games for its
+ * processors can be noticed.  The Ticker is
+ * cancelled once the game is no longer active.
+ * <p>
+ * When Server.VIRTUAL_THREADS is true, each game's
+ * updates are instead sent by a virtual thread of its
+ * own which sleeps until the next update is due.
+ * @author Jam Jenkins
+ */
+final class TickScheduler
+{
+    /**the threads sending the updates of every game*/
+    private static final ScheduledThreadPoolExecutor pool;
+
+    static
+    {
+        pool=new ScheduledThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory()
+            {
+                /**the number of the next thread*/
+                private int count=0;
+
+                public synchronized Thread newThread(Runnable task)
+                {
+                    Thread thread=new Thread(task,
+                        "FANG TickScheduler "+count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        pool.setRemoveOnCancelPolicy(true);
+    }
+
+    /**not used, all methods are static*/
+    private TickScheduler()
+    {
+    }
+
+    /**
+     * starts sending a game's updates every
+     * TIME_BETWEEN_UPDATES milliseconds until the game
+     * is no longer active.  This method returns at once.
+     * @param session the game
+     * @return the Ticker sending the updates
+     */
+    static Ticker schedule(GameConnections session)
+    {
+        Ticker ticker=new Ticker(session);
+        if(Server.VIRTUAL_THREADS)
+            ticker.startThread();
+        else
+            ticker.start();
+        return ticker;
+    }
+
+    /**
+     * sends one game's updates and records how late
+     * they are
+     * @author Jam Jenkins
+     */
+    static final class Ticker implements Runnable
+    {
+        /**the game*/
+        private final GameConnections session;
+
+        /**the nanoseconds between updates*/
+        private final long period=
+            GameConnections.TIME_BETWEEN_UPDATES*1000000L;
+
+        /**the scheduled updates, until cancelled*/
+        private ScheduledFuture<?> future;
+
+        /**the thread sending the updates when not
+         * using the pool*/
+        private Thread thread;
+
+        /**true once the updates should stop*/
+        private volatile boolean cancelled=false;
+
+        /**when the first update was due*/
+        private long start;
+
+        /**the number of updates sent*/
+        private volatile long ticks=0;
+
+        /**how late the last update was in nanoseconds*/
+        private volatile long lastDrift=0;
+
+        /**the latest any update has been in nanoseconds*/
+        private volatile long maxDrift=0;
+
+        /**
+         * makes a Ticker for a game
+         * @param session the game
+         */
+        private Ticker(GameConnections session)
+        {
+            this.session=session;
+        }
+
+        /**schedules the updates*/
+        private synchronized void start()
+        {
+            start=System.nanoTime();
+            future=pool.scheduleAtFixedRate(this, 0, period,
+                TimeUnit.NANOSECONDS);
+        }
+
+        /**starts a thread of this game's own which
+         * sends each update once it is due*/
+        private synchronized void startThread()
+        {
+            start=System.nanoTime();
+            thread=VirtualThreads.newThread("FANG Ticker", new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while(!cancelled)
+                        {
+                            long wait=start+ticks*period-System.nanoTime();
+                            if(wait>0)
+                                Thread.sleep(wait/1000000,
+                                    (int)(wait%1000000));
+                            Ticker.this.run();
+                        }
+                    }
+                    catch(InterruptedException ie)
+                    {
+                    }
+                }
+            });
+            thread.start();
+        }
+
+        /**sends one update, then stops if the game is
+         * over.  Neither the pool nor the game's own
+         * thread runs this for one game on two threads
+         * at once.*/
+        public void run()
+        {
+            long drift=System.nanoTime()-(start+ticks*period);
+            lastDrift=drift;
+            if(drift>maxDrift)
+                maxDrift=drift;
+            ticks++;
+            try
+            {
+                session.write();
+                if(!session.isActive())
+                    cancel();
+            }
+            catch(RuntimeException re)
+            {
+                //an uncaught exception would silently stop
+                //the updates, so report it and stop them
+                re.printStackTrace();
+                cancel();
+            }
+        }
+
+        /**stops sending the updates*/
+        synchronized void cancel()
+        {
+            cancelled=true;
+            if(future!=null)
+                future.cancel(false);
+        }
+
+        /**determines if updates are still being sent
+         * @return false once the game is over
+         */
+        synchronized boolean isRunning()
+        {
+            if(thread!=null)
+                return thread.isAlive();
+            return future!=null && !future.isDone();
+        }
+
+        /**gets the number of updates sent
+         * @return the updates sent since the game started
+         */
+        long getTicks()
+        {
+            return ticks;
+        }
+
+        /**gets how late the last update was
+         * @return the milliseconds after it was due
+         */
+        double getLastDrift()
+        {
+            return lastDrift/1e6;
+        }
+
+        /**gets how late the latest update was
+         * @return the most milliseconds any update
+         * was sent after it was due
+         */
+        double getMaxDrift()
+        {
+            return maxDrift/1e6;
+        }
+    }
+}
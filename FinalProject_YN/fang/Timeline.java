@@ -0,0 +1,470 @@
+package fang;
+
+import java.awt.geom.Point2D;
+
+/**
+ * A tracker which plays Tweens at set times, for
+ * animations such as a banner sliding in, pausing
+ * and sliding back out, or a score growing and
+ * shrinking as it changes.  Tweens can be played
+ * one after another with then, alongside the one
+ * added before with with, or at any chosen time
+ * with at:
+ * <pre>
+ * Timeline banner=new Timeline();
+ * banner.then(Tween.move(0.5, 0, 0.6, Easing.BACK_OUT))
+ *       .with(Tween.fade(title, 0, 1, 0.3, Easing.LINEAR))
+ *       .then(Tween.delay(2))
+ *       .then(Tween.move(0.5, 0, 0.4, Easing.QUAD_IN));
+ * title.setTracker(banner);
+ * </pre>
+ * A Timeline starts playing as soon as it is made.
+ * Adding tweens to a Timeline which has finished
+ * plays the new tweens.  Timelines sharing a
+ * TweenClock are advanced together, and a Timeline
+ * made without a clock gets one of its own.  Playing
+ * a step does not make any new objects, so hundreds
+ * of Timelines can play at once.
+ * @author Jam Jenkins
+ */
+public class Timeline extends TrackerAdapter
+    implements GroupedTracker, PrimitiveTracker
+{
+    /**the clock which advances this Timeline*/
+    private final TweenClock clock;
+
+    /**the tweens in the order they were added*/
+    private Tween[] tweens=new Tween[4];
+
+    /**the number of tweens*/
+    private int count=0;
+
+    /**when the last of the tweens ends*/
+    private double duration=0;
+
+    /**when the most recently added tween starts*/
+    private double cursor=0;
+
+    /**how far into the Timeline it has played*/
+    private double time=0;
+
+    /**whether to start over at the end*/
+    private boolean looping=false;
+
+    /**whether the clock is advancing this Timeline*/
+    private boolean playing=false;
+
+    /**whether the end has been reached*/
+    private boolean finished=false;
+
+    /**whether stop has been called*/
+    private boolean stopped=false;
+
+    /**the movement in the last step*/
+    private final Point2D.Double translation=new Point2D.Double();
+
+    /**the natural log of the scaling in the last step*/
+    private double logScale=0;
+
+    /**the scaling in the last step*/
+    private double scaleFactor=1;
+
+    /**the rotation in the last step*/
+    private double rotation=0;
+
+    /**makes an empty Timeline with a clock of its own*/
+    public Timeline()
+    {
+        this(new TweenClock());
+    }
+
+    /**
+     * makes an empty Timeline played by a clock
+     * @param clock the clock to advance the Timeline
+     */
+    public Timeline(TweenClock clock)
+    {
+        this.clock=clock;
+        play();
+    }
+
+    /**
+     * adds a tween which starts when all of the tweens
+     * added so far have ended
+     * @param tween the tween to add
+     * @return this Timeline, so that calls can be chained
+     */
+    public Timeline then(Tween tween)
+    {
+        return at(duration, tween);
+    }
+
+    /**
+     * adds a tween which starts at the same time as the
+     * tween added just before it
+     * @param tween the tween to add
+     * @return this Timeline, so that calls can be chained
+     */
+    public Timeline with(Tween tween)
+    {
+        return at(cursor, tween);
+    }
+
+    /**
+     * adds a tween which starts at a given time
+     * @param start the time in seconds from the beginning
+     * of the Timeline
+     * @param tween the tween to add
+     * @return this Timeline, so that calls can be chained
+     */
+    public Timeline at(double start, Tween tween)
+    {
+        if(start<0)
+            throw new IllegalArgumentException(
+                "Tweens cannot start before the Timeline: "+start);
+        if(count==tweens.length)
+        {
+            Tween[] larger=new Tween[count*2];
+            System.arraycopy(tweens, 0, larger, 0, count);
+            tweens=larger;
+        }
+        tween.start=start;
+        tweens[count++]=tween;
+        cursor=start;
+        duration=Math.max(duration, start+tween.duration);
+        if(time<duration)
+            finished=false;
+        if(!stopped)
+            play();
+        return this;
+    }
+
+    /**makes sure the clock is advancing this Timeline*/
+    private void play()
+    {
+        if(!playing)
+        {
+            playing=true;
+            clock.play(this);
+        }
+    }
+
+    /**
+     * sets whether to start over at the beginning
+     * once the end is reached.  Each time through,
+     * the Sprite moves, scales and rotates relative
+     * to where the last time through left it.
+     * @param looping true to repeat, false to stop at
+     * the end
+     */
+    public void setLooping(boolean looping)
+    {
+        this.looping=looping;
+        if(looping && finished && !stopped)
+        {
+            finished=false;
+            play();
+        }
+    }
+
+    /**tells whether the Timeline starts over
+     * at the end
+     * @return true if looping, false otherwise
+     */
+    public boolean isLooping()
+    {
+        return looping;
+    }
+
+    /**tells whether the Timeline has played to
+     * its end or been stopped
+     * @return true if finished, false otherwise
+     */
+    public boolean isFinished()
+    {
+        return finished || stopped;
+    }
+
+    /**
+     * stops playing.  The Sprite stays where it is
+     * and does not move again until restart is called.
+     */
+    public void stop()
+    {
+        stopped=true;
+        clearStep();
+        if(playing)
+        {
+            playing=false;
+            clock.stop(this);
+        }
+    }
+
+    /**
+     * plays the Timeline again from the beginning,
+     * starting from wherever the Sprite is now
+     */
+    public void restart()
+    {
+        time=0;
+        stopped=false;
+        finished=false;
+        play();
+    }
+
+    /**
+     * stops the Timeline and returns all of its tweens
+     * to the pool to be reused.  The tweens must not be
+     * used afterward, but more can be added to the
+     * Timeline and played with restart.
+     */
+    public void release()
+    {
+        stop();
+        for(int i=0; i<count; i++)
+        {
+            Tween.recycle(tweens[i]);
+            tweens[i]=null;
+        }
+        count=0;
+        duration=0;
+        cursor=0;
+        time=0;
+    }
+
+    /**gets when the last tween ends
+     * @return the length of the Timeline in seconds
+     */
+    public double getDuration()
+    {
+        return duration;
+    }
+
+    /**gets how far the Timeline has played
+     * @return the time in seconds from the beginning
+     */
+    public double getTime()
+    {
+        return time;
+    }
+
+    /**gets the number of tweens on the Timeline
+     * @return the number of tweens
+     */
+    public int getTweenCount()
+    {
+        return count;
+    }
+
+    /**gets the clock which advances this Timeline
+     * @return the clock
+     * @see fang.GroupedTracker#getGroup()
+     */
+    public TrackerGroup getGroup()
+    {
+        return clock;
+    }
+
+    /**gets the clock which advances this Timeline
+     * @return the clock
+     */
+    public TweenClock getClock()
+    {
+        return clock;
+    }
+
+    /**does nothing, the clock advances all of
+     * its Timelines together
+     * @param time the time passed in seconds
+     */
+    public void advanceTime(double time)
+    {
+    }
+
+    /**makes the Sprite stay still for the next step*/
+    private void clearStep()
+    {
+        translation.x=0;
+        translation.y=0;
+        logScale=0;
+        scaleFactor=1;
+        rotation=0;
+    }
+
+    /**
+     * plays the next step of the Timeline
+     * @param timePassed the time in seconds since the
+     * last step, already scaled by the clock
+     * @return true to keep playing, false once the
+     * Timeline has finished
+     */
+    boolean advance(double timePassed)
+    {
+        clearStep();
+        if(finished)
+        {
+            playing=false;
+            return false;
+        }
+        double to=time+timePassed;
+        if(looping && duration>0)
+        {
+            playLooping(time, to);
+            time=to-Math.floor(to/duration)*duration;
+        }
+        else
+        {
+            to=Math.max(0, Math.min(duration, to));
+            sweep(time, to);
+            time=to;
+            if(timePassed>0 && time>=duration)
+                finished=true;
+        }
+        scaleFactor=Math.exp(logScale);
+        return true;
+    }
+
+    /**
+     * plays the tweens between two times, going around
+     * as many times as needed
+     * @param from the time at the start of the step,
+     * between zero and the duration
+     * @param to the time at the end of the step, which
+     * may be past either end
+     */
+    private void playLooping(double from, double to)
+    {
+        double laps=Math.floor(to/duration);
+        if(laps==0)
+            sweep(from, to);
+        else if(laps>0)
+        {
+            sweep(from, duration);
+            addLaps(laps-1);
+            sweep(0, to-laps*duration);
+        }
+        else
+        {
+            sweep(from, 0);
+            addLaps(laps+1);
+            sweep(duration, to-laps*duration);
+        }
+    }
+
+    /**
+     * adds the change made by whole times through
+     * the Timeline
+     * @param laps the number of times through,
+     * negative when going backward
+     */
+    private void addLaps(double laps)
+    {
+        if(laps==0)
+            return;
+        for(int i=0; i<count; i++)
+        {
+            Tween tween=tweens[i];
+            if(tween.kind==Tween.MOVE)
+            {
+                translation.x+=tween.first*laps;
+                translation.y+=tween.second*laps;
+            }
+            else if(tween.kind==Tween.SCALE)
+                logScale+=tween.second*laps;
+            else if(tween.kind==Tween.ROTATE)
+                rotation+=tween.first*laps;
+        }
+    }
+
+    /**
+     * adds the change made by the tweens between two
+     * times.  When going backward, the tweens are
+     * visited in reverse so that the earliest fade
+     * sets the final alpha.
+     * @param from the time at the start
+     * @param to the time at the end
+     */
+    private void sweep(double from, double to)
+    {
+        if(from==to)
+            return;
+        boolean forward=to>from;
+        for(int n=0; n<count; n++)
+        {
+            Tween tween=tweens[forward?n:count-1-n];
+            double before=tween.progress(from);
+            double after=tween.progress(to);
+            if(before==after)
+                continue;
+            double change=after-before;
+            switch(tween.kind)
+            {
+                case Tween.MOVE:
+                    translation.x+=tween.first*change;
+                    translation.y+=tween.second*change;
+                    break;
+                case Tween.SCALE:
+                    logScale+=tween.second*change;
+                    break;
+                case Tween.ROTATE:
+                    rotation+=tween.first*change;
+                    break;
+                case Tween.FADE:
+                    tween.applyFade(after);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * determines how far to move the Sprite
+     * @return the movement in the last step
+     * @see fang.Tracker#getTranslation()
+     */
+    public Point2D.Double getTranslation()
+    {
+        return translation;
+    }
+
+    /**
+     * determines how far to move the Sprite horizontally
+     * @return the horizontal movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationX()
+     */
+    public double getTranslationX()
+    {
+        return translation.x;
+    }
+
+    /**
+     * determines how far to move the Sprite vertically
+     * @return the vertical movement in the last step
+     * @see fang.PrimitiveTracker#getTranslationY()
+     */
+    public double getTranslationY()
+    {
+        return translation.y;
+    }
+
+    /**
+     * determines how much to scale the Sprite
+     * @return the scaling in the last step
+     * @see fang.Tracker#getScaleFactor()
+     */
+    public double getScaleFactor()
+    {
+        return scaleFactor;
+    }
+
+    /**
+     * determines how much to rotate the Sprite
+     * @return the rotation in radians in the last step
+     * @see fang.Tracker#getRotationAddition()
+     */
+    public double getRotationAddition()
+    {
+        return rotation;
+    }
+}
@@ -7,11 +7,15 @@ import fang.Tracker;
 
 /**provides a default implementation of the
  * Tracker interface methods except for
- * advanceTime
+ * advanceTime.  Subclasses which keep their
+ * translation as numbers may also implement
+ * PrimitiveTracker.
  * @author Jam Jenkins
  */
 public abstract class TrackerAdapter implements Tracker
 {
+    /**returned by the default getTranslation*/
+    private final Point2D.Double noTranslation=new Point2D.Double();
 
     /**
      * returns (0, 0)
@@ -20,7 +24,9 @@ public abstract class TrackerAdapter implements Tracker
      */
     public Point2D.Double getTranslation()
     {
-        return new Point2D.Double();
+        noTranslation.x=0;
+        noTranslation.y=0;
+        return noTranslation;
     }
 
     /**
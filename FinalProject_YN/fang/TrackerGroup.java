@@ -0,0 +1,23 @@
+package fang;
+
+/**
+ * Advances many trackers at once.  Trackers which
+ * belong to a group implement GroupedTracker, and
+ * rather than calling advanceTime on each of them,
+ * the AnimationCanvas calls advanceGroup once per
+ * model step for every group used by an enabled
+ * Sprite.  This lets a group keep the state of all
+ * of its trackers together and update it in one loop.
+ * @author Jam Jenkins
+ */
+public interface TrackerGroup
+{
+    /**
+     * advances every tracker in the group.
+     * The same rules apply as for advanceTime
+     * in the Tracker interface.
+     * @param timePassed the time in seconds since
+     * the last frame
+     */
+    void advanceGroup(double timePassed);
+}
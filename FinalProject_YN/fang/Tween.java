@@ -0,0 +1,247 @@
+package fang;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+/**
+ * One change made gradually over time, such as
+ * moving a Sprite a certain distance or fading it
+ * out.  Tweens are placed on a Timeline, which plays
+ * them one after another or at the same time.  A
+ * tween moves, scales and rotates relative to where
+ * the Sprite is when the tween plays, just like any
+ * other tracker.  Fading sets the alpha of the
+ * Sprite's color directly.
+ * <p>
+ * Tweens are kept in a pool so that showing many
+ * short animations does not make work for the
+ * garbage collector.  The static methods take a
+ * tween from the pool, and releasing the Timeline
+ * they are on returns them.  A tween may only be
+ * on one Timeline at a time.
+ * @author Jam Jenkins
+ */
+public class Tween
+{
+    /**the kinds of change a tween makes*/
+    static final int DELAY=0, MOVE=1, SCALE=2, ROTATE=3, FADE=4;
+
+    /**the most released tweens kept for reuse*/
+    private static final int POOL_SIZE=1024;
+
+    /**released tweens waiting to be reused*/
+    private static final ArrayList<Tween> pool=
+        new ArrayList<Tween>();
+
+    /**which kind of change this is*/
+    int kind;
+
+    /**how long the change takes in seconds*/
+    double duration;
+
+    /**how the change speeds up and slows down*/
+    Easing easing;
+
+    /**the horizontal movement, or the change in
+     * rotation, or the starting alpha*/
+    double first;
+
+    /**the vertical movement, or the natural log
+     * of the scale factor, or the ending alpha*/
+    double second;
+
+    /**the Sprite to fade*/
+    Sprite sprite;
+
+    /**when the tween starts on its Timeline*/
+    double start;
+
+    /**tweens are made with the static methods*/
+    private Tween()
+    {
+    }
+
+    /**
+     * takes a tween from the pool, or makes one if
+     * the pool is empty
+     * @param kind which kind of change to make
+     * @param duration how long the change takes
+     * @param easing how the change speeds up and slows down
+     * @return the tween
+     */
+    private static Tween obtain(int kind, double duration, Easing easing)
+    {
+        if(duration<0)
+            throw new IllegalArgumentException(
+                "Tweens cannot have a negative duration: "+duration);
+        Tween tween;
+        synchronized(pool)
+        {
+            if(pool.isEmpty())
+                tween=new Tween();
+            else
+                tween=pool.remove(pool.size()-1);
+        }
+        tween.kind=kind;
+        tween.duration=duration;
+        tween.easing=easing==null?Easing.LINEAR:easing;
+        return tween;
+    }
+
+    /**
+     * puts a tween back in the pool to be reused
+     * @param tween the tween which is no longer used
+     */
+    static void recycle(Tween tween)
+    {
+        tween.sprite=null;
+        synchronized(pool)
+        {
+            if(pool.size()<POOL_SIZE)
+                pool.add(tween);
+        }
+    }
+
+    /**
+     * makes a tween which does nothing for a while,
+     * useful for putting a gap between other tweens
+     * @param duration the time to wait in seconds
+     * @return the tween
+     */
+    public static Tween delay(double duration)
+    {
+        return obtain(DELAY, duration, Easing.LINEAR);
+    }
+
+    /**
+     * makes a tween which moves a Sprite a given distance
+     * @param dx the distance to move right
+     * @param dy the distance to move down
+     * @param duration how long the movement takes in seconds
+     * @param easing how the movement speeds up and slows down
+     * @return the tween
+     */
+    public static Tween move(double dx, double dy,
+            double duration, Easing easing)
+    {
+        Tween tween=obtain(MOVE, duration, easing);
+        tween.first=dx;
+        tween.second=dy;
+        return tween;
+    }
+
+    /**
+     * makes a tween which scales a Sprite by a given
+     * factor.  The size changes by the same ratio at
+     * equal steps of the eased time, so growing to
+     * double size and shrinking back look alike.
+     * @param factor how many times larger to become,
+     * must be positive
+     * @param duration how long the scaling takes in seconds
+     * @param easing how the scaling speeds up and slows down
+     * @return the tween
+     */
+    public static Tween scale(double factor,
+            double duration, Easing easing)
+    {
+        if(factor<=0)
+            throw new IllegalArgumentException(
+                "Tweens can only scale by a positive factor: "+factor);
+        Tween tween=obtain(SCALE, duration, easing);
+        tween.first=0;
+        tween.second=Math.log(factor);
+        return tween;
+    }
+
+    /**
+     * makes a tween which rotates a Sprite
+     * @param radians how far to turn clockwise
+     * @param duration how long the turn takes in seconds
+     * @param easing how the turn speeds up and slows down
+     * @return the tween
+     */
+    public static Tween rotate(double radians,
+            double duration, Easing easing)
+    {
+        Tween tween=obtain(ROTATE, duration, easing);
+        tween.first=radians;
+        tween.second=0;
+        return tween;
+    }
+
+    /**
+     * makes a tween which changes the alpha of a
+     * Sprite's color, keeping its red, green and blue
+     * @param sprite the Sprite to fade
+     * @param from the alpha at the start, 0 for clear
+     * through 1 for opaque
+     * @param to the alpha at the end
+     * @param duration how long the fade takes in seconds
+     * @param easing how the fade speeds up and slows down
+     * @return the tween
+     */
+    public static Tween fade(Sprite sprite, double from, double to,
+            double duration, Easing easing)
+    {
+        Tween tween=obtain(FADE, duration, easing);
+        tween.sprite=sprite;
+        tween.first=from;
+        tween.second=to;
+        return tween;
+    }
+
+    /**gets how long the tween takes
+     * @return the duration in seconds
+     */
+    public double getDuration()
+    {
+        return duration;
+    }
+
+    /**gets when the tween starts on its Timeline
+     * @return the start in seconds from the
+     * beginning of the Timeline
+     */
+    public double getStart()
+    {
+        return start;
+    }
+
+    /**gets the easing curve of the tween
+     * @return the easing
+     */
+    public Easing getEasing()
+    {
+        return easing;
+    }
+
+    /**
+     * determines how far through the change the
+     * tween is at a time on its Timeline
+     * @param time the time on the Timeline in seconds
+     * @return the eased portion of the change,
+     * 0 before the start and 1 after the end
+     */
+    double progress(double time)
+    {
+        if(time<=start)
+            return 0;
+        if(time>=start+duration)
+            return 1;
+        return easing.ease((time-start)/duration);
+    }
+
+    /**
+     * sets the alpha of the faded Sprite
+     * @param progress the eased portion of the fade
+     */
+    void applyFade(double progress)
+    {
+        double alpha=first+(second-first)*progress;
+        int value=(int)Math.round(255*Math.max(0, Math.min(1, alpha)));
+        Color color=sprite.getColor();
+        if(color.getAlpha()!=value)
+            sprite.setColor(new Color(color.getRed(),
+                color.getGreen(), color.getBlue(), value));
+    }
+}
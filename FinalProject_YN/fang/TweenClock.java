@@ -0,0 +1,124 @@
+package fang;
+
+import java.util.ArrayList;
+
+/**
+ * Plays many Timelines together.  Each Timeline is
+ * given a clock when it is made, and the clock
+ * advances all of its playing Timelines in a single
+ * loop each model step rather than one tracker at a
+ * time.  Timelines which have finished are dropped
+ * from the loop, so only animations in progress cost
+ * anything.  Sharing one clock between all of the
+ * animations of a menu or status display also lets
+ * them be paused or slowed down together:
+ * <pre>
+ * TweenClock ui=new TweenClock();
+ * Timeline pop=new Timeline(ui);
+ * pop.then(Tween.scale(1.5, 0.1, Easing.QUAD_OUT))
+ *    .then(Tween.scale(1/1.5, 0.3, Easing.BOUNCE_OUT));
+ * score.setTracker(pop);
+ * </pre>
+ * As with a ProjectileSystem, the Timelines are
+ * advanced whenever any Sprite using the clock
+ * is enabled.
+ * @author Jam Jenkins
+ */
+public class TweenClock
+    implements TrackerGroup
+{
+    /**the Timelines in progress*/
+    private final ArrayList<Timeline> playing=
+        new ArrayList<Timeline>();
+
+    /**how many times faster than the game to play*/
+    private double timeScale=1;
+
+    /**whether the Timelines are stopped*/
+    private boolean paused=false;
+
+    /**
+     * sets how fast the Timelines play compared to the
+     * rest of the game
+     * @param timeScale 1 for normal speed, 0.5 for half
+     * speed, 2 for double speed, and so on
+     */
+    public void setTimeScale(double timeScale)
+    {
+        this.timeScale=timeScale;
+    }
+
+    /**gets how fast the Timelines play compared to
+     * the rest of the game
+     * @return the time scale
+     */
+    public double getTimeScale()
+    {
+        return timeScale;
+    }
+
+    /**
+     * stops or continues all of the Timelines
+     * on this clock
+     * @param paused true to stop, false to continue
+     */
+    public void setPaused(boolean paused)
+    {
+        this.paused=paused;
+    }
+
+    /**tells whether the Timelines are stopped
+     * @return true if paused, false otherwise
+     */
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**gets the number of Timelines in progress
+     * @return the number playing
+     */
+    public int getPlayingCount()
+    {
+        return playing.size();
+    }
+
+    /**
+     * starts advancing a Timeline
+     * @param timeline the Timeline to play
+     */
+    void play(Timeline timeline)
+    {
+        playing.add(timeline);
+    }
+
+    /**
+     * stops advancing a Timeline
+     * @param timeline the Timeline to stop
+     */
+    void stop(Timeline timeline)
+    {
+        playing.remove(timeline);
+    }
+
+    /**
+     * advances every Timeline in progress.  Timelines
+     * which finished in the last step are dropped now
+     * that their Sprites have made their last move.
+     * @param timePassed the time in seconds since
+     * the last frame
+     */
+    public void advanceGroup(double timePassed)
+    {
+        double time=paused?0:timePassed*timeScale;
+        int kept=0;
+        for(int i=0; i<playing.size(); i++)
+        {
+            Timeline timeline=playing.get(i);
+            if(timeline.advance(time))
+                playing.set(kept++, timeline);
+        }
+        for(int i=playing.size()-1; i>=kept; i--)
+            playing.remove(i);
+    }
+}
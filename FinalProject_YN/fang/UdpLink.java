@@ -0,0 +1,802 @@
+package fang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * A connection speaking the binary protocol over UDP.
+ * Over TCP one lost packet holds up everything sent
+ * after it, even the updates which are already out of
+ * date by the time the lost packet is sent again.  A
+ * UdpLink instead sends each frame one of two ways:
+ * <ul>
+ * <li>unreliably: updates which only advance the time
+ * and input which only moves the mouse.  These are
+ * numbered, and one which arrives after a later one
+ * is dropped.  Since the time and mouse position in
+ * a later frame replace those in an earlier one,
+ * nothing is lost but a little of the smoothness.
+ * The last mouse move is sent again reliably if no
+ * other input follows it soon, so the mouse never
+ * rests where it was lost.
+ * <li>reliably: everything else, including keys,
+ * clicks, messages, pausing and the updates carrying
+ * them.  These are numbered separately, acknowledged
+ * by the receiver, sent again until acknowledged and
+ * handed on in the order sent.  Frames too long for
+ * one datagram are split across several.
+ * </ul>
+ * An unreliable frame is never handed on before the
+ * reliable frames sent before it, so a Client sees
+ * the updates in order even when some go missing.
+ * Since lost time-only updates are skipped, games
+ * which must advance identically on every Client
+ * should set a fixed model time step.
+ * <p>
+ * The acknowledgements hold the number of reliable
+ * datagrams received in order and a bit for each of
+ * the next 32, so that only the missing datagrams
+ * are sent again.
+ * @author Jam Jenkins
+ */
+final class UdpLink implements ClientLink
+{
+    /**the longest datagram sent*/
+    static final int MAX_DATAGRAM=1200;
+
+    /**the types of datagram*/
+    private static final byte UNRELIABLE=0, RELIABLE=1, RELIABLE_MORE=2,
+        ACKNOWLEDGE=3;
+
+    /**the most reliable datagrams which may be
+     * waiting for acknowledgement*/
+    private static final int WINDOW=1024;
+
+    /**nanoseconds without hearing from the other end
+     * before the connection is considered lost*/
+    private static final long TIMEOUT=10000000000L;
+
+    /**nanoseconds without sending before an
+     * acknowledgement is sent to keep the connection
+     * alive*/
+    private static final long KEEP_ALIVE=1000000000L;
+
+    /**the channel datagrams are sent on*/
+    private final DatagramChannel channel;
+
+    /**where datagrams are sent*/
+    private final SocketAddress remote;
+
+    /**the number of the next reliable datagram sent*/
+    private int nextReliable=0;
+
+    /**the reliable datagrams not yet acknowledged,
+     * oldest first*/
+    private final LinkedHashMap<Integer, Datagram> unacknowledged=
+        new LinkedHashMap<Integer, Datagram>();
+
+    /**the number of the last unreliable datagram sent*/
+    private int lastUnreliableSent=0;
+
+    /**the number of the next reliable datagram to
+     * hand on, which is also how many have been*/
+    private int expected=0;
+
+    /**reliable datagrams received ahead of expected*/
+    private final HashMap<Integer, byte[]> early=
+        new HashMap<Integer, byte[]>();
+
+    /**the parts of a reliable frame received so far*/
+    private final ByteArrayOutputStream partial=
+        new ByteArrayOutputStream();
+
+    /**the number of the last unreliable datagram
+     * received*/
+    private int lastUnreliableReceived=0;
+
+    /**an unreliable frame waiting for the reliable
+     * frames sent before it, or null*/
+    private byte[] held;
+
+    /**the number of reliable datagrams sent before
+     * the held frame*/
+    private int heldAfter;
+
+    /**the frames received and not yet taken*/
+    private final LinkedList<byte[]> received=new LinkedList<byte[]>();
+
+    /**the smoothed round trip time in nanoseconds*/
+    private double roundTrip=100000000;
+
+    /**when a datagram was last received*/
+    private long lastHeard=System.nanoTime();
+
+    /**when a datagram was last sent*/
+    private long lastSent=System.nanoTime();
+
+    /**the last INPUT frame sent unreliably, until it
+     * is sent again reliably or replaced, or null*/
+    private byte[] lastMove;
+
+    /**when lastMove was sent*/
+    private long movedAt;
+
+    /**whether the mouse was down in the last
+     * INPUT frame sent*/
+    private boolean lastDown=false;
+
+    /**true once the connection is closed*/
+    private boolean closed=false;
+
+    /**true if this link owns its channel*/
+    private boolean ownsChannel=false;
+
+    /**the number of datagrams sent again*/
+    private int resent=0;
+
+    /**the fraction of datagrams to drop, used for
+     * testing over loopback*/
+    double loss=0;
+
+    /**decides which datagrams are dropped*/
+    private final Random random=new Random();
+
+    /**
+     * a reliable datagram waiting to be acknowledged
+     * @author Jam Jenkins
+     */
+    private static final class Datagram
+    {
+        /**the whole datagram*/
+        final byte[] data;
+
+        /**when the datagram was last sent*/
+        long sentAt;
+
+        /**true if the datagram has been sent again*/
+        boolean again=false;
+
+        /**
+         * makes a datagram
+         * @param data the whole datagram
+         * @param sentAt when it is first sent
+         */
+        Datagram(byte[] data, long sentAt)
+        {
+            this.data=data;
+            this.sentAt=sentAt;
+        }
+    }
+
+    /**
+     * makes a link to another end.  The owner of the
+     * channel passes the datagrams from the other end
+     * to receiveDatagram and calls resend regularly.
+     * @param channel the channel to send datagrams on
+     * @param remote the other end
+     */
+    UdpLink(DatagramChannel channel, SocketAddress remote)
+    {
+        this.channel=channel;
+        this.remote=remote;
+    }
+
+    /**
+     * connects to a server, starting a thread to
+     * receive its datagrams and to send datagrams
+     * again, then sends the HELLO frame
+     * @param machine the server
+     * @param port the server's port
+     * @return the link to the server
+     * @throws IOException if the server cannot be reached
+     */
+    static UdpLink connect(String machine, int port) throws IOException
+    {
+        DatagramChannel channel=DatagramChannel.open();
+        SocketAddress remote=new InetSocketAddress(machine, port);
+        channel.connect(remote);
+        UdpLink link=new UdpLink(channel, remote);
+        link.start();
+        link.send(WireProtocol.hello());
+        return link;
+    }
+
+    /**starts a thread which receives the datagrams
+     * on the channel, which must be connected to the
+     * other end, and sends datagrams again
+     * @throws IOException if the channel is closed
+     */
+    void start() throws IOException
+    {
+        ownsChannel=true;
+        channel.configureBlocking(false);
+        final Selector selector=Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        Thread pump=new Thread("FANG UdpLink")
+        {
+            public void run()
+            {
+                ByteBuffer buffer=ByteBuffer.allocate(65536);
+                try
+                {
+                    while(!isClosed())
+                    {
+                        selector.select(10);
+                        selector.selectedKeys().clear();
+                        while(true)
+                        {
+                            buffer.clear();
+                            if(channel.receive(buffer)==null)
+                                break;
+                            buffer.flip();
+                            receiveDatagram(buffer);
+                        }
+                        resend(System.nanoTime());
+                    }
+                }
+                catch(IOException ioe)
+                {
+                    close();
+                }
+                finally
+                {
+                    try
+                    {
+                        selector.close();
+                    }
+                    catch(IOException ioe)
+                    {
+                    }
+                }
+            }
+        };
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    /**determines if a datagram may be the first from
+     * a new client, which is always the first part of
+     * its HELLO frame
+     * @param datagram the datagram
+     * @return true if it is reliable datagram number zero
+     */
+    static boolean isFirst(ByteBuffer datagram)
+    {
+        return datagram.remaining()>5 && datagram.get(0)==RELIABLE &&
+            datagram.getInt(1)==0;
+    }
+
+    /**
+     * sends a frame, unreliably if a later frame makes
+     * it out of date and reliably otherwise
+     * @param frame the frame, including its length
+     * @throws IOException if the connection is closed
+     */
+    public synchronized void send(ByteBuffer frame) throws IOException
+    {
+        if(closed)
+            throw new IOException("Connection closed");
+        byte[] payload=new byte[frame.remaining()-4];
+        ByteBuffer body=frame.duplicate();
+        body.position(body.position()+4);
+        body.get(payload);
+        if(isDroppable(payload) && payload.length+9<=MAX_DATAGRAM)
+        {
+            ByteBuffer datagram=ByteBuffer.allocate(payload.length+9);
+            datagram.put(UNRELIABLE).putInt(++lastUnreliableSent);
+            datagram.putInt(nextReliable).put(payload);
+            transmit(datagram.array());
+            if(payload[0]==WireProtocol.INPUT)
+            {
+                lastMove=payload;
+                movedAt=System.nanoTime();
+            }
+            return;
+        }
+        if(payload[0]==WireProtocol.INPUT)
+            lastMove=null;
+        sendReliably(payload);
+    }
+
+    /**
+     * sends a frame reliably, split across as many
+     * datagrams as it needs
+     * @param payload the frame without its length
+     * @throws IOException if too many datagrams are
+     * waiting for acknowledgement
+     */
+    private void sendReliably(byte[] payload) throws IOException
+    {
+        int part=MAX_DATAGRAM-5;
+        if(unacknowledged.size()+payload.length/part>=WINDOW)
+        {
+            close();
+            throw new IOException("Connection too slow");
+        }
+        for(int offset=0; offset<payload.length; offset+=part)
+        {
+            int length=Math.min(part, payload.length-offset);
+            boolean more=offset+length<payload.length;
+            ByteBuffer datagram=ByteBuffer.allocate(length+5);
+            datagram.put(more?RELIABLE_MORE:RELIABLE).putInt(nextReliable);
+            datagram.put(payload, offset, length);
+            unacknowledged.put(nextReliable++,
+                new Datagram(datagram.array(), System.nanoTime()));
+            transmit(datagram.array());
+        }
+    }
+
+    /**
+     * determines if a frame may be lost because a
+     * later one replaces it: updates which carry no
+     * new input, acknowledgements, and input which
+     * only moves the mouse
+     * @param payload the frame without its length
+     * @return true if the frame may be sent unreliably
+     */
+    private boolean isDroppable(byte[] payload)
+    {
+        switch(payload[0])
+        {
+            case WireProtocol.TICK:
+                return (payload[9]&WireProtocol.HAS_INPUT)==0;
+            case WireProtocol.ACK:
+                return true;
+            case WireProtocol.INPUT:
+                int mouse=payload[4]&0xff;
+                boolean down=(mouse&1)!=0;
+                boolean was=lastDown;
+                lastDown=down;
+                int message=5+((mouse&2)!=0?16:0);
+                return payload[1]==0 && payload[2]==(byte)0xff &&
+                    payload[3]==(byte)0xff && (mouse&~3)==0 &&
+                    down==was && payload[message]==0;
+            default:
+                return false;
+        }
+    }
+
+    /**sends a datagram, or drops it when testing loss
+     * @param data the datagram
+     * @throws IOException if the channel is closed
+     */
+    private void transmit(byte[] data) throws IOException
+    {
+        lastSent=System.nanoTime();
+        if(loss>0 && random.nextDouble()<loss)
+            return;
+        channel.send(ByteBuffer.wrap(data), remote);
+    }
+
+    /**
+     * handles a datagram from the other end
+     * @param datagram the datagram
+     * @throws IOException if an acknowledgement cannot be sent
+     */
+    synchronized void receiveDatagram(ByteBuffer datagram) throws IOException
+    {
+        if(closed || datagram.remaining()<5)
+            return;
+        long now=System.nanoTime();
+        lastHeard=now;
+        byte type=datagram.get();
+        int number=datagram.getInt();
+        if(type==ACKNOWLEDGE)
+        {
+            if(datagram.remaining()>=4)
+                acknowledge(number, datagram.getInt(), now);
+        }
+        else if(type==UNRELIABLE)
+        {
+            if(datagram.remaining()<4 || number<=lastUnreliableReceived)
+                return;
+            lastUnreliableReceived=number;
+            int after=datagram.getInt();
+            byte[] payload=new byte[datagram.remaining()];
+            datagram.get(payload);
+            //a later frame replaces any frame still held
+            held=null;
+            if(after==expected)
+                deliver(payload);
+            else if(after>expected)
+            {
+                held=payload;
+                heldAfter=after;
+            }
+            //otherwise a reliable frame sent after it has
+            //been handed on, so it is out of date
+        }
+        else if(type==RELIABLE || type==RELIABLE_MORE)
+        {
+            if(number>=expected && number-expected<WINDOW &&
+                !early.containsKey(number))
+            {
+                byte[] part=new byte[datagram.remaining()+1];
+                part[0]=type;
+                datagram.get(part, 1, part.length-1);
+                early.put(number, part);
+                deliverInOrder();
+            }
+            sendAcknowledgement();
+        }
+    }
+
+    /**hands on the reliable frames which have
+     * arrived in order, and the held unreliable
+     * frame once every reliable frame sent before it
+     * has been handed on and none sent after it*/
+    private void deliverInOrder()
+    {
+        byte[] part;
+        while((part=early.remove(expected))!=null)
+        {
+            deliverHeld();
+            expected++;
+            partial.write(part, 1, part.length-1);
+            if(part[0]==RELIABLE)
+            {
+                deliver(partial.toByteArray());
+                partial.reset();
+            }
+        }
+        deliverHeld();
+    }
+
+    /**hands on the held unreliable frame if it is
+     * next in order*/
+    private void deliverHeld()
+    {
+        if(held!=null && heldAfter==expected)
+        {
+            deliver(held);
+            held=null;
+        }
+    }
+
+    /**adds a whole frame to those received
+     * @param frame the frame without its length
+     */
+    private void deliver(byte[] frame)
+    {
+        if(frame.length==0)
+            return;
+        received.add(frame);
+        notifyAll();
+    }
+
+    /**acknowledges the reliable datagrams received
+     * @throws IOException if the channel is closed
+     */
+    private void sendAcknowledgement() throws IOException
+    {
+        int bits=0;
+        for(int i=0; i<32; i++)
+            if(early.containsKey(expected+1+i))
+                bits|=1<<i;
+        ByteBuffer datagram=ByteBuffer.allocate(9);
+        datagram.put(ACKNOWLEDGE).putInt(expected).putInt(bits);
+        transmit(datagram.array());
+    }
+
+    /**
+     * forgets the reliable datagrams the other end
+     * has received and sends again at once any it
+     * is missing from before those it has
+     * @param count the number received in order
+     * @param bits which of the following 32 were received
+     * @param now the current time in nanoseconds
+     * @throws IOException if the channel is closed
+     */
+    private void acknowledge(int count, int bits, long now)
+        throws IOException
+    {
+        int highest=count-1;
+        for(Iterator<java.util.Map.Entry<Integer, Datagram>> all=
+            unacknowledged.entrySet().iterator(); all.hasNext();)
+        {
+            java.util.Map.Entry<Integer, Datagram> entry=all.next();
+            int number=entry.getKey();
+            int bit=number-count-1;
+            if(number<count || (bit>=0 && bit<32 && (bits&(1<<bit))!=0))
+            {
+                Datagram datagram=entry.getValue();
+                if(!datagram.again)
+                    roundTrip=0.875*roundTrip+0.125*(now-datagram.sentAt);
+                highest=Math.max(highest, number);
+                all.remove();
+            }
+        }
+        for(java.util.Map.Entry<Integer, Datagram> entry:
+            unacknowledged.entrySet())
+        {
+            Datagram datagram=entry.getValue();
+            if(entry.getKey()<highest && now-datagram.sentAt>roundTrip)
+                sendAgain(datagram, now);
+        }
+    }
+
+    /**sends a reliable datagram again
+     * @param datagram the datagram
+     * @param now the current time in nanoseconds
+     * @throws IOException if the channel is closed
+     */
+    private void sendAgain(Datagram datagram, long now) throws IOException
+    {
+        datagram.sentAt=now;
+        datagram.again=true;
+        resent++;
+        transmit(datagram.data);
+    }
+
+    /**
+     * sends again the reliable datagrams which have
+     * waited too long to be acknowledged, keeps the
+     * connection alive and closes it if the other end
+     * has not been heard from for too long
+     * @param now the current time in nanoseconds
+     */
+    synchronized void resend(long now)
+    {
+        if(closed)
+            return;
+        if(now-lastHeard>TIMEOUT)
+        {
+            close();
+            return;
+        }
+        long wait=(long)Math.min(1e9, Math.max(2e7, 2*roundTrip));
+        try
+        {
+            for(Datagram datagram: unacknowledged.values())
+                if(now-datagram.sentAt>wait)
+                    sendAgain(datagram, now);
+            if(lastMove!=null && now-movedAt>wait)
+            {
+                sendReliably(lastMove);
+                lastMove=null;
+            }
+            if(now-lastSent>KEEP_ALIVE)
+                sendAcknowledgement();
+        }
+        catch(IOException ioe)
+        {
+            close();
+        }
+    }
+
+    /**takes the next frame received
+     * @return the frame without its length, or null
+     * if none has arrived
+     * @throws IOException if the connection is closed
+     */
+    public synchronized byte[] receive() throws IOException
+    {
+        if(received.isEmpty())
+        {
+            if(closed)
+                throw new IOException("Connection closed");
+            return null;
+        }
+        return received.removeFirst();
+    }
+
+    /**takes the next frame, waiting for it to arrive
+     * @return the frame without its length
+     * @throws IOException if the connection is closed
+     */
+    public synchronized byte[] receiveWaiting() throws IOException
+    {
+        while(received.isEmpty() && !closed)
+        {
+            try
+            {
+                wait();
+            }
+            catch(InterruptedException ie)
+            {
+                throw new IOException("Interrupted");
+            }
+        }
+        return receive();
+    }
+
+    /**determines if every frame sent arrives
+     * @return false, since some frames may be lost
+     */
+    public boolean isReliable()
+    {
+        return false;
+    }
+
+    /**determines if the connection is closed
+     * @return true once closed
+     */
+    synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**gets the number of datagrams sent again
+     * @return the number sent again since connecting
+     */
+    synchronized int getResent()
+    {
+        return resent;
+    }
+
+    /**closes the connection, and the channel if
+     * this link owns it*/
+    public synchronized void close()
+    {
+        closed=true;
+        notifyAll();
+        if(ownsChannel)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ioe)
+            {
+            }
+        }
+    }
+
+    /**
+     * makes a datagram holding a TICK frame
+     * @param type the type of datagram
+     * @param number the number of the datagram
+     * @param after for an unreliable datagram, the
+     * number of reliable datagrams sent before it
+     * @param time the time in the frame
+     * @return the datagram
+     */
+    private static ByteBuffer tick(byte type, int number, int after,
+        double time)
+    {
+        ByteBuffer datagram=ByteBuffer.allocate(18);
+        datagram.put(type).putInt(number);
+        if(type==UNRELIABLE)
+            datagram.putInt(after);
+        datagram.put(WireProtocol.TICK).putDouble(time);
+        datagram.flip();
+        return datagram;
+    }
+
+    /**
+     * checks that frames are handed on in the order
+     * sent when a reliable datagram is lost.  Reliable
+     * frame 1 is lost, unreliable frame 2 and reliable
+     * frame 3 arrive, then frame 1 is sent again, which
+     * must hand on 1, 2 and 3 in that order.  An
+     * unreliable frame sent before reliable frame 3 and
+     * arriving after it must be dropped.
+     * @throws IOException if the frames are out of order
+     */
+    private static void checkOrder() throws IOException
+    {
+        UdpLink link=new UdpLink(DatagramChannel.open(),
+            new InetSocketAddress("localhost", 9));
+        //drop the acknowledgements
+        link.loss=1;
+        link.receiveDatagram(tick(UNRELIABLE, 1, 1, 2));
+        link.receiveDatagram(tick(RELIABLE, 1, 0, 3));
+        link.receiveDatagram(tick(RELIABLE, 0, 0, 1));
+        link.receiveDatagram(tick(UNRELIABLE, 2, 1, 2.5));
+        StringBuilder order=new StringBuilder();
+        byte[] frame;
+        while((frame=link.receive())!=null)
+            order.append(WireProtocol.reader(frame).readDouble()).append(' ');
+        if(!order.toString().equals("1.0 2.0 3.0 "))
+            throw new IOException("Frames handed on as "+order);
+        System.out.println("order after a lost datagram: "+order);
+        link.close();
+    }
+
+    /**
+     * tests the links over loopback while dropping
+     * some of the datagrams each way.  Two links send
+     * each other reliable frames, each numbered, and
+     * unreliable time-only updates, then check that
+     * every reliable frame arrived once and in order
+     * and that the unreliable ones never went back in
+     * time.
+     * @param argv the fraction of datagrams to drop,
+     * 0.1 if not given
+     * @throws Exception if the test fails
+     */
+    public static void main(String[] argv) throws Exception
+    {
+        checkOrder();
+        double loss=argv.length>0?Double.parseDouble(argv[0]):0.1;
+        DatagramChannel first=DatagramChannel.open();
+        DatagramChannel second=DatagramChannel.open();
+        first.socket().bind(new InetSocketAddress("localhost", 0));
+        second.socket().bind(new InetSocketAddress("localhost", 0));
+        SocketAddress firstAddress=first.socket().getLocalSocketAddress();
+        SocketAddress secondAddress=second.socket().getLocalSocketAddress();
+        first.connect(secondAddress);
+        second.connect(firstAddress);
+        UdpLink sender=new UdpLink(first, secondAddress);
+        UdpLink receiver=new UdpLink(second, firstAddress);
+        sender.loss=loss;
+        receiver.loss=loss;
+        sender.start();
+        receiver.start();
+        WireProtocol.Writer writer=new WireProtocol.Writer();
+        int frames=500;
+        long[] sentAt=new long[frames];
+        long[] latency=new long[frames];
+        int reliable=0, unreliable=0, nextExpected=0;
+        double lastTime=-1;
+        for(int i=0; i<frames; i++)
+        {
+            sentAt[i]=System.nanoTime();
+            writer.begin(WireProtocol.TEXT);
+            writer.writeUTF(Integer.toString(i));
+            if(i%50==0)
+                writer.write(new byte[3*MAX_DATAGRAM]);
+            sender.send(writer.end());
+            writer.begin(WireProtocol.TICK);
+            writer.writeDouble(i*0.04);
+            writer.writeByte(0);
+            sender.send(writer.end());
+            Thread.sleep(2);
+            byte[] frame;
+            while((frame=receiver.receive())!=null)
+            {
+                if(frame[0]==WireProtocol.TICK)
+                {
+                    double time=WireProtocol.reader(frame).readDouble();
+                    if(time<=lastTime)
+                        throw new IOException("Update went back in time");
+                    lastTime=time;
+                    unreliable++;
+                    continue;
+                }
+                int number=Integer.parseInt(
+                    WireProtocol.reader(frame).readUTF());
+                if(number!=nextExpected)
+                    throw new IOException("Expected "+nextExpected+
+                        " but received "+number);
+                latency[number]=System.nanoTime()-sentAt[number];
+                nextExpected++;
+                reliable++;
+            }
+        }
+        while(reliable<frames)
+        {
+            byte[] frame=receiver.receiveWaiting();
+            if(frame[0]==WireProtocol.TICK)
+                continue;
+            int number=Integer.parseInt(WireProtocol.reader(frame).readUTF());
+            if(number!=nextExpected)
+                throw new IOException("Expected "+nextExpected+
+                    " but received "+number);
+            latency[number]=System.nanoTime()-sentAt[number];
+            nextExpected++;
+            reliable++;
+        }
+        Arrays.sort(latency);
+        System.out.println("loss "+loss+": "+reliable+
+            " reliable frames in order, "+unreliable+" of "+frames+
+            " unreliable updates, "+sender.getResent()+" sent again");
+        System.out.println("reliable latency ms: median "+
+            latency[frames/2]/1e6+", 99th percentile "+
+            latency[frames*99/100]/1e6+", max "+latency[frames-1]/1e6);
+        sender.close();
+        receiver.close();
+    }
+}
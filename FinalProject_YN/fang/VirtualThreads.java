@@ -0,0 +1,89 @@
+package fang;
+
+import java.lang.reflect.Method;
+
+/**
+ * Makes threads which are as cheap as the running
+ * Java version allows.  On Java 21 and later these
+ * are virtual threads, which cost only a small amount
+ * of memory and do not tie up an operating system
+ * thread while blocked.  On earlier versions the
+ * threads are daemon threads with a small stack.
+ * The engine uses this class for scripts and for
+ * server connections so that the same code runs on
+ * every Java version.
+ * @author Jam Jenkins
+ */
+final class VirtualThreads
+{
+    /**the stack size to request for ordinary threads
+     * when virtual threads are not available*/
+    private static final long SMALL_STACK=64*1024;
+
+    /**Thread.ofVirtual, or null if not available*/
+    private static Method ofVirtual;
+
+    /**Thread.Builder.name(String)*/
+    private static Method name;
+
+    /**Thread.Builder.unstarted(Runnable)*/
+    private static Method unstarted;
+
+    static
+    {
+        try
+        {
+            Method builder=Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass=Class.forName("java.lang.Thread$Builder");
+            name=builderClass.getMethod("name", String.class);
+            unstarted=builderClass.getMethod("unstarted", Runnable.class);
+            //preview versions throw when previews are disabled
+            builder.invoke(null);
+            ofVirtual=builder;
+        }
+        catch(Throwable t)
+        {
+            ofVirtual=null;
+        }
+    }
+
+    /**not used, all methods are static*/
+    private VirtualThreads()
+    {
+    }
+
+    /**determines if virtual threads are being used
+     * @return true if threads made by this class are
+     * virtual threads, false if they are ordinary threads
+     */
+    static boolean available()
+    {
+        return ofVirtual!=null;
+    }
+
+    /**makes a thread which has not yet been started
+     * @param threadName the name of the thread
+     * @param task what the thread runs
+     * @return a virtual thread if available, otherwise
+     * a daemon thread with a small stack
+     */
+    static Thread newThread(String threadName, Runnable task)
+    {
+        if(ofVirtual!=null)
+        {
+            try
+            {
+                Object builder=ofVirtual.invoke(null);
+                builder=name.invoke(builder, threadName);
+                return (Thread)unstarted.invoke(builder, task);
+            }
+            catch(Exception e)
+            {
+                ofVirtual=null;
+            }
+        }
+        Thread thread=new Thread(null, task, threadName, SMALL_STACK);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,385 @@
+package fang;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol spoken between Clients and an
+ * NioServer.  Every frame is a four byte length, a
+ * one byte type and then the fields for that type.
+ * A Client's first frame is HELLO, giving the magic
+ * number and the version of the protocol, so that
+ * the NioServer can tell binary Clients from ones
+ * sending object streams and turn away versions it
+ * does not understand.
+ * <p>
+ * The frames from the Client are:
+ * <ul>
+ * <li>HELLO magic(short) version(byte)
+ * <li>COMMAND command(UTF): the same lobby
+ * commands as for the Server
+ * <li>INPUT flags(byte) key(char) mouse message:
+ * the flags hold whether to toggle pausing
+ * <li>ACK sequence(varint): the last TICK received,
+ * sent only over links which may lose frames
+ * </ul>
+ * The frames from the server are:
+ * <ul>
+ * <li>TEXT text(UTF): the answers to commands
+ * <li>JOINED id(int)
+ * <li>WAITING playersLeft(int)
+ * <li>START players(int) seed(long)
+ * <li>TICK time(double) flags(byte) sequence(varint)
+ * base(varint) input: the input of every player as
+ * an InputSnapshot written as the differences from
+ * snapshot number base, or from nothing when base
+ * is zero.  The flags hold whether the game is
+ * paused and whether the input was updated since
+ * the last TICK.
+ * </ul>
+ * Mice from the Client are written by
+ * Mouse.writeCompact and keys by
+ * Keyboard.writeCompact.  Messages of the common
+ * types are written directly and anything else is
+ * serialized.
+ * @author Jam Jenkins
+ */
+final class WireProtocol
+{
+    /**identifies the binary protocol: "FN"*/
+    static final short MAGIC=0x464E;
+
+    /**the version of the protocol*/
+    static final byte VERSION=2;
+
+    /**the first frame from a Client*/
+    static final byte HELLO=0;
+
+    /**a lobby command from a Client*/
+    static final byte COMMAND=1;
+
+    /**an answer to a lobby command*/
+    static final byte TEXT=2;
+
+    /**the id given to a Client which joined*/
+    static final byte JOINED=3;
+
+    /**the number of players still to join*/
+    static final byte WAITING=4;
+
+    /**sent once every player has joined*/
+    static final byte START=5;
+
+    /**the time and input sent every update*/
+    static final byte TICK=6;
+
+    /**a Client's input*/
+    static final byte INPUT=7;
+
+    /**the last TICK a Client received*/
+    static final byte ACK=8;
+
+    /**flag set in TICK when the game is paused*/
+    static final int PAUSED=1;
+
+    /**flag set in TICK when the input has been
+     * updated since the last TICK*/
+    static final int HAS_INPUT=2;
+
+    /**flag set in INPUT to toggle pausing*/
+    static final int TOGGLE_PAUSE=1;
+
+    /**message types*/
+    private static final int NULL=0, STRING=1, INTEGER=2, LONG=3,
+        DOUBLE=4, BOOLEAN=5, CHARACTER=6, BYTES=7, SERIALIZED=8;
+
+    /**all methods are static*/
+    private WireProtocol()
+    {
+    }
+
+    /**determines if a frame is a HELLO frame
+     * @param frame the frame without its length
+     * @return true if the frame starts the binary protocol
+     */
+    static boolean isHello(byte[] frame)
+    {
+        return frame.length>=4 && frame[0]==HELLO &&
+            (short)((frame[1]<<8)|(frame[2]&0xff))==MAGIC;
+    }
+
+    /**makes the HELLO frame a Client sends first
+     * @return the frame, including its length
+     */
+    static ByteBuffer hello()
+    {
+        ByteBuffer hello=ByteBuffer.allocate(8);
+        hello.putInt(4).put(HELLO);
+        hello.putShort(MAGIC).put(VERSION);
+        hello.flip();
+        return hello;
+    }
+
+    /**gets the version from a HELLO frame
+     * @param frame the frame without its length
+     * @return the version of the protocol spoken
+     */
+    static int getVersion(byte[] frame)
+    {
+        return frame[3];
+    }
+
+    /**
+     * writes a message.  Strings, numbers, booleans,
+     * characters and byte arrays are written directly
+     * and anything else is serialized.
+     * @param out where to write the message
+     * @param message the message, which may be null
+     * @throws IOException if the message cannot be written
+     */
+    static void writeMessage(DataOutput out, Object message)
+        throws IOException
+    {
+        if(message==null)
+            out.writeByte(NULL);
+        else if(message instanceof String &&
+            ((String)message).length()<=0xffff/3)
+        {
+            out.writeByte(STRING);
+            out.writeUTF((String)message);
+        }
+        else if(message instanceof Integer)
+        {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)message);
+        }
+        else if(message instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long)message);
+        }
+        else if(message instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)message);
+        }
+        else if(message instanceof Boolean)
+        {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)message);
+        }
+        else if(message instanceof Character)
+        {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character)message);
+        }
+        else if(message instanceof byte[])
+        {
+            byte[] bytes=(byte[])message;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else
+        {
+            ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+            ObjectOutputStream object=new ObjectOutputStream(bytes);
+            object.writeObject(message);
+            object.close();
+            out.writeByte(SERIALIZED);
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * reads a message written by writeMessage
+     * @param in where to read the message
+     * @return the message, which may be null
+     * @throws IOException if the message cannot be read
+     */
+    static Object readMessage(DataInput in) throws IOException
+    {
+        int type=in.readUnsignedByte();
+        switch(type)
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case BYTES:
+            case SERIALIZED:
+                int length=in.readInt();
+                if(length<0 || length>FrameOutputStream.MAX_FRAME)
+                    throw new IOException("Bad message length: "+length);
+                byte[] bytes=new byte[length];
+                in.readFully(bytes);
+                if(type==BYTES)
+                    return bytes;
+                try
+                {
+                    return new ObjectInputStream(
+                        new ByteArrayInputStream(bytes)).readObject();
+                }
+                catch(ClassNotFoundException cnfe)
+                {
+                    throw new IOException(cnfe.toString());
+                }
+            default:
+                throw new IOException("Bad message type: "+type);
+        }
+    }
+
+    /**writes a non-negative int in as few bytes as
+     * possible, seven bits per byte
+     * @param out where to write the number
+     * @param value the number
+     * @throws IOException if the number cannot be written
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while((value&~0x7f)!=0)
+        {
+            out.writeByte((value&0x7f)|0x80);
+            value>>>=7;
+        }
+        out.writeByte(value);
+    }
+
+    /**reads an int written by writeVarInt
+     * @param in where to read the number
+     * @return the number
+     * @throws IOException if the number is corrupt
+     */
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value=0;
+        for(int shift=0; shift<35; shift+=7)
+        {
+            int b=in.readUnsignedByte();
+            value|=(b&0x7f)<<shift;
+            if((b&0x80)==0)
+                return value;
+        }
+        throw new IOException("Bad variable length int");
+    }
+
+    /**takes the next frame from a Client's link,
+     * waiting for it, and checks that it is of the
+     * expected type
+     * @param link the link to the server
+     * @param type the type of frame expected
+     * @return the fields of the frame after its type
+     * @throws IOException if the frame is of another
+     * type or the connection is closed
+     */
+    static DataInputStream expect(ClientLink link, byte type)
+        throws IOException
+    {
+        byte[] frame=link.receiveWaiting();
+        if(frame[0]!=type)
+            throw new IOException("Expected frame "+type+
+                " but received "+frame[0]);
+        return reader(frame);
+    }
+
+    /**makes a reader for a frame
+     * @param frame the frame without its length
+     * @return the fields of the frame after its type
+     */
+    static DataInputStream reader(byte[] frame)
+    {
+        return new DataInputStream(
+            new ByteArrayInputStream(frame, 1, frame.length-1));
+    }
+
+    /**
+     * writes frames.  The same Writer is used for
+     * frame after frame so that its buffer is reused.
+     * @author Jam Jenkins
+     */
+    static final class Writer extends DataOutputStream
+    {
+        /**makes a writer*/
+        Writer()
+        {
+            super(new Bytes());
+        }
+
+        /**starts a frame
+         * @param type the type of the frame
+         * @return this writer, for writing the fields
+         * @throws IOException never
+         */
+        Writer begin(byte type) throws IOException
+        {
+            ((Bytes)out).reset();
+            written=0;
+            writeInt(0);
+            writeByte(type);
+            return this;
+        }
+
+        /**finishes a frame holding just a string
+         * @param text the string
+         * @return the frame, including its length
+         * @throws IOException if the frame is too long
+         */
+        ByteBuffer text(String text) throws IOException
+        {
+            writeUTF(text);
+            return end();
+        }
+
+        /**finishes the frame
+         * @return the frame, including its length
+         * @throws IOException if the frame is too long
+         */
+        ByteBuffer end() throws IOException
+        {
+            Bytes bytes=(Bytes)out;
+            int length=bytes.size()-4;
+            if(length>FrameOutputStream.MAX_FRAME)
+                throw new IOException("Frame too long: "+length);
+            ByteBuffer frame=ByteBuffer.allocate(bytes.size());
+            frame.put(bytes.array(), 0, bytes.size());
+            frame.putInt(0, length);
+            frame.flip();
+            return frame;
+        }
+    }
+
+    /**
+     * a ByteArrayOutputStream whose bytes can be
+     * read without copying
+     * @author Jam Jenkins
+     */
+    private static final class Bytes extends ByteArrayOutputStream
+    {
+        /**gets the buffer holding the bytes
+         * @return the buffer, of which size() bytes are used
+         */
+        byte[] array()
+        {
+            return buf;
+        }
+    }
+}